@@ -1,25 +1,42 @@
 package edu.epsevg.prop.lab.c4;
 
+import java.util.SplittableRandom;
+
 /**
  * Jugador aleatori
  * "Alea jacta est"
+ * Cada instancia tiene su propio generador: varias partidas en paralelo no
+ * compiten por el de Math.random y con setSemilla se repiten las jugadas.
  * @author Profe
  */
 public class Aleatori
-  implements Jugador, IAuto
+  implements Jugador, IAuto, IAleatorio
 {
   private String nom;
+  private SplittableRandom r;
   
   public Aleatori()
   {
     nom = "RandomBanzai";
+    r = new SplittableRandom();
+  }
+  
+  public Aleatori(long semilla)
+  {
+    this();
+    setSemilla(semilla);
+  }
+  
+  public void setSemilla(long semilla)
+  {
+    r = new SplittableRandom(semilla);
   }
   
   public int moviment(Tauler t, int color)
   {
-    int col = (int)(t.getMida() * Math.random());
+    int col = r.nextInt(t.getMida());
     while (!t.movpossible(col)) {
-      col = (int)(t.getMida() * Math.random());
+      col = r.nextInt(t.getMida());
     }
     return col;
   }
@@ -29,5 +46,3 @@ public class Aleatori
     return nom;
   }
 }
-
-
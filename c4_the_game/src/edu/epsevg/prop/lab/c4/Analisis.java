@@ -0,0 +1,106 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.util.List;
+
+/**
+ * Análisis de una posición por consola: las mejores columnas del jugador
+ * que mueve con su valor exacto, la profundidad y la variación principal
+ * (ver JugadorPropi.analiza).
+ *
+ * La posición es el texto de TaulerBits.codifica (columnas separadas por
+ * '/', de abajo arriba, X para el color 1 y O para el -1) o "inicio" para
+ * el tablero vacío de 8. Mueve el color al que le toca por el número de
+ * fichas. Las columnas se cuentan desde 0.
+ *
+ * Uso: Analisis posicion [lineas] [jugador]
+ *      Analisis "/XX/X/O/O///" 3 propi:depth=10,motor=bits
+ *
+ * @author Alex Aranda Salinas
+ */
+public class Analisis {
+
+    /**
+     * Una línea del análisis
+     */
+    public static class Linea {
+        /** Columna de la raíz */
+        public final int columna;
+        /** Valor exacto para el color que mueve en la raíz */
+        public final int valor;
+        /** Profundidad de la búsqueda que da el valor */
+        public final int profundidad;
+        /** Columnas de la variación principal, empezando por columna */
+        public final int[] variacion;
+
+        public Linea(int columna, int valor, int profundidad, int[] variacion) {
+            this.columna = columna;
+            this.valor = valor;
+            this.profundidad = profundidad;
+            this.variacion = variacion;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(columna).append(": ").append(puntos(valor)).append(" (profundidad ").append(profundidad)
+                    .append(")");
+            for (int col : variacion) {
+                sb.append(' ').append(col);
+            }
+            return sb.toString();
+        }
+    }
+
+    private Analisis() {
+    }
+
+    /**
+     * Valor legible: infinitos y victorias a k plies como "+M5" o "-M4"
+     */
+    static String puntos(int v) {
+        if (v >= BusquedaBits.INFINITO - 1) {
+            return "+inf";
+        }
+        if (v <= -(BusquedaBits.INFINITO - 1)) {
+            return "-inf";
+        }
+        if (Math.abs(v) >= BusquedaBits.VICTORIA_DEMOSTRADA && Math.abs(v) <= BusquedaBits.VICTORIA) {
+            return (v > 0 ? "+M" : "-M") + (BusquedaBits.VICTORIA - Math.abs(v));
+        }
+        return Integer.toString(v);
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Uso: Analisis <posicion|inicio> [lineas] [jugador propi]");
+            System.exit(2);
+        }
+        Tauler t = args[0].equals("inicio") ? new Tauler(8) : TaulerBits.descodifica(args[0]);
+        int lineas = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        String spec = args.length > 2 ? args[2] : "propi:depth=10,motor=bits";
+        Jugador j;
+        try {
+            j = FabricaJugadores.crea(spec + (spec.contains(":") ? "," : ":") + "nodos=false");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if (!(j instanceof JugadorPropi)) {
+            System.err.println("Solo analizan los jugadores propi: " + spec);
+            System.exit(2);
+            return;
+        }
+        JugadorPropi p = (JugadorPropi) j;
+        int color = Rendimiento.colorQueMueve(new TaulerBits(t));
+
+        long inicio = System.nanoTime();
+        List<Linea> resultado = p.analiza(t, color, lineas);
+        long ms = (System.nanoTime() - inicio) / 1000000;
+        System.out.println("Posición " + new TaulerBits(t).codifica() + ", mueve " + color);
+        for (Linea l : resultado) {
+            System.out.println(l);
+        }
+        System.out.println(p.getNodosExplorados() + " nodos en " + ms + " ms");
+    }
+}
@@ -0,0 +1,289 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Analiza en paralelo todas las posiciones de un corpus con un motor y
+ * compara los resultados de dos versiones para detectar regresiones de
+ * fuerza (victorias que se dejan de ver, jugadas que cambian) y de
+ * rendimiento (nodos y tiempo totales).
+ *
+ * Uso:
+ *   indexar corpus.txt partidas1.txt [partidas2.txt ...]
+ *   analizar corpus.txt resultados.txt [jugador] [hilos]   (ver FabricaJugadores)
+ *   comparar base.txt nuevo.txt [tolerancia]
+ *
+ * @author Alex Aranda Salinas
+ */
+public class AnalizadorLotes {
+
+    /**
+     * Valor a partir del cual una puntuación es una victoria demostrada: las
+     * dos búsquedas puntúan una victoria a k plies como VICTORIA - k, muy
+     * por encima de las amenazas de la heurística (90000000)
+     */
+    private static final int UMBRAL_VICTORIA = BusquedaBits.VICTORIA_DEMOSTRADA;
+
+    /**
+     * Resultado del análisis de una posición
+     */
+    public static class Resultado {
+        public final long hash;
+        public final int columna;
+        public final int valor;
+        public final long nodos;
+        public final long tiempoNs;
+
+        public Resultado(long hash, int columna, int valor, long nodos, long tiempoNs) {
+            this.hash = hash;
+            this.columna = columna;
+            this.valor = valor;
+            this.nodos = nodos;
+            this.tiempoNs = tiempoNs;
+        }
+    }
+
+    /**
+     * Diferencias entre dos análisis del mismo corpus
+     */
+    public static class Comparacion {
+        public int comunes;
+        public int cambiosJugada;
+        public int victoriasPerdidas;
+        public int victoriasNuevas;
+        public long nodosBase;
+        public long nodosNuevo;
+        public long tiempoBase;
+        public long tiempoNuevo;
+
+        public double ratioNodos() {
+            return nodosBase == 0 ? 1.0 : (double) nodosNuevo / nodosBase;
+        }
+
+        public double ratioTiempo() {
+            return tiempoBase == 0 ? 1.0 : (double) tiempoNuevo / tiempoBase;
+        }
+
+        /**
+         * @param tolerancia Empeoramiento relativo admitido (0.1 = 10%)
+         * @return true si hay regresión de fuerza o de rendimiento
+         */
+        public boolean hayRegresion(double tolerancia) {
+            return victoriasPerdidas > 0 || ratioNodos() > 1 + tolerancia || ratioTiempo() > 1 + tolerancia;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Posiciones comunes: %d%nJugadas distintas: %d%nVictorias perdidas: %d%n"
+                    + "Victorias nuevas: %d%nNodos: %d -> %d (x%.3f)%nTiempo: %.1f ms -> %.1f ms (x%.3f)",
+                    comunes, cambiosJugada, victoriasPerdidas, victoriasNuevas, nodosBase, nodosNuevo, ratioNodos(),
+                    tiempoBase / 1e6, tiempoNuevo / 1e6, ratioTiempo());
+        }
+    }
+
+    private final Supplier<? extends Jugador> fabrica;
+    private final int hilos;
+
+    /**
+     * @param fabrica Crea un motor nuevo para cada hilo
+     * @param hilos   Número de hilos de análisis
+     */
+    public AnalizadorLotes(Supplier<? extends Jugador> fabrica, int hilos) {
+        this.fabrica = fabrica;
+        this.hilos = hilos;
+    }
+
+    /**
+     * Analiza las posiciones en paralelo
+     *
+     * @param posiciones Posiciones a analizar
+     * @return Resultados en el mismo orden que las posiciones
+     * @throws InterruptedException Si se interrumpe la espera
+     */
+    public List<Resultado> analiza(Collection<CorpusPosiciones.Posicion> posiciones) throws InterruptedException {
+        final ThreadLocal<Jugador> motor = ThreadLocal.withInitial(fabrica::get);
+        ExecutorService pool = Executors.newFixedThreadPool(hilos);
+        try {
+            List<Future<Resultado>> tareas = new ArrayList<>();
+            for (final CorpusPosiciones.Posicion p : posiciones) {
+                tareas.add(pool.submit(() -> analiza(motor.get(), p)));
+            }
+            List<Resultado> resultados = new ArrayList<>(tareas.size());
+            for (Future<Resultado> f : tareas) {
+                try {
+                    resultados.add(f.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return resultados;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    static Resultado analiza(Jugador j, CorpusPosiciones.Posicion p) {
+        Tauler t = p.tauler();
+        long inicio = System.nanoTime();
+        int col = j.moviment(t, p.color);
+        long tiempo = System.nanoTime() - inicio;
+        int valor = 0;
+        long nodos = 0;
+        if (j instanceof IEstadisticas) {
+            valor = ((IEstadisticas) j).getUltimoValor();
+            nodos = ((IEstadisticas) j).getNodosExplorados();
+        }
+        return new Resultado(p.hash, col, valor, nodos, tiempo);
+    }
+
+    /**
+     * Compara dos análisis por hash de posición
+     *
+     * @param base  Resultados de referencia
+     * @param nuevo Resultados de la versión nueva
+     * @return Diferencias encontradas
+     */
+    public static Comparacion compara(Map<Long, Resultado> base, Map<Long, Resultado> nuevo) {
+        Comparacion c = new Comparacion();
+        for (Resultado b : base.values()) {
+            Resultado n = nuevo.get(b.hash);
+            if (n == null) {
+                continue;
+            }
+            c.comunes++;
+            if (b.columna != n.columna) {
+                c.cambiosJugada++;
+            }
+            boolean ganaBase = b.valor >= UMBRAL_VICTORIA;
+            boolean ganaNuevo = n.valor >= UMBRAL_VICTORIA;
+            if (ganaBase && !ganaNuevo) {
+                c.victoriasPerdidas++;
+            } else if (!ganaBase && ganaNuevo) {
+                c.victoriasNuevas++;
+            }
+            c.nodosBase += b.nodos;
+            c.nodosNuevo += n.nodos;
+            c.tiempoBase += b.tiempoNs;
+            c.tiempoNuevo += n.tiempoNs;
+        }
+        return c;
+    }
+
+    /**
+     * Guarda resultados en texto: hash, columna, valor, nodos y tiempo (ns)
+     *
+     * @param resultados Resultados
+     * @param fichero    Fichero destino
+     * @throws IOException Si no se puede escribir
+     */
+    public static void guarda(List<Resultado> resultados, Path fichero) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(fichero, StandardCharsets.UTF_8)) {
+            for (Resultado r : resultados) {
+                out.write(formatea(r));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Carga resultados guardados con guarda()
+     *
+     * @param fichero Fichero de resultados
+     * @return Resultados indexados por hash
+     * @throws IOException Si no se puede leer
+     */
+    public static Map<Long, Resultado> carga(Path fichero) throws IOException {
+        Map<Long, Resultado> m = new LinkedHashMap<>();
+        try (BufferedReader in = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = in.readLine()) != null) {
+                if (linea.isEmpty()) {
+                    continue;
+                }
+                Resultado r = parsea(linea);
+                m.put(r.hash, r);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * @param r Resultado
+     * @return Línea de texto: hash, columna, valor, nodos y tiempo (ns)
+     */
+    static String formatea(Resultado r) {
+        return Long.toHexString(r.hash) + "\t" + r.columna + "\t" + r.valor + "\t" + r.nodos + "\t" + r.tiempoNs;
+    }
+
+    /**
+     * @param linea Línea escrita con formatea()
+     * @return Resultado de la línea
+     */
+    static Resultado parsea(String linea) {
+        String[] f = linea.split("\t");
+        long hash = Long.parseUnsignedLong(f[0], 16);
+        return new Resultado(hash, Integer.parseInt(f[1]), Integer.parseInt(f[2]),
+                Long.parseLong(f[3]), Long.parseLong(f[4]));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Uso: indexar <corpus> <partidas...> | analizar <corpus> <salida> [jugador] [hilos]"
+                    + " | comparar <base> <nuevo> [tolerancia]");
+            System.exit(2);
+        }
+        switch (args[0]) {
+            case "indexar": {
+                Path destino = Paths.get(args[1]);
+                CorpusPosiciones c = Files.exists(destino) ? CorpusPosiciones.carga(destino) : new CorpusPosiciones();
+                for (int i = 2; i < args.length; i++) {
+                    int nuevas = c.anadeFichero(Paths.get(args[i]));
+                    System.out.println(args[i] + ": " + nuevas + " posiciones nuevas");
+                }
+                c.guarda(destino);
+                System.out.println("Corpus: " + c.size() + " posiciones");
+                break;
+            }
+            case "analizar": {
+                String spec = args.length > 3 ? args[3] : "propi:depth=8,nodos=false";
+                int hilos = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+                CorpusPosiciones c = CorpusPosiciones.carga(Paths.get(args[1]));
+                AnalizadorLotes a = new AnalizadorLotes(FabricaJugadores.proveedor(spec), hilos);
+                long inicio = System.nanoTime();
+                List<Resultado> r = a.analiza(c.getPosiciones());
+                guarda(r, Paths.get(args[2]));
+                System.out.printf("%d posiciones analizadas en %.1f s%n", r.size(), (System.nanoTime() - inicio) / 1e9);
+                break;
+            }
+            case "comparar": {
+                double tolerancia = args.length > 3 ? Double.parseDouble(args[3]) : 0.10;
+                Comparacion c = compara(carga(Paths.get(args[1])), carga(Paths.get(args[2])));
+                System.out.println(c);
+                if (c.hayRegresion(tolerancia)) {
+                    System.out.println("REGRESION");
+                    System.exit(1);
+                }
+                break;
+            }
+            default:
+                System.err.println("Orden desconocida: " + args[0]);
+                System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Mide el coste de arrancar un motor: desde que arranca la JVM hasta la
+ * primera jugada, y la primera jugada comparada con una en caliente.
+ *
+ * Pensado para ejecutarse en una JVM nueva cada vez, con y sin el archivo
+ * CDS (-XX:SharedArchiveFile) y la instantánea de tablas (-Dc4.tablas);
+ * ver los objetivos cds y arranque de build.xml.
+ *
+ * Uso: Arranque [jugador] (ver FabricaJugadores)
+ *
+ * @author Alex Aranda Salinas
+ */
+public class Arranque {
+
+    private static final int JUGADAS_CALENTAMIENTO = 30;
+
+    public static void main(String[] args) throws Exception {
+        long hastaMain = ManagementFactory.getRuntimeMXBean().getUptime();
+        String spec = args.length > 0 ? args[0] : "propi:depth=8,motor=bits,nodos=false";
+
+        long inicio = System.nanoTime();
+        Class.forName("edu.epsevg.prop.lab.c4.TaulerBits");
+        Class.forName("edu.epsevg.prop.lab.c4.HeuristicaBits");
+        long tablas = System.nanoTime() - inicio;
+
+        inicio = System.nanoTime();
+        Jugador j = FabricaJugadores.crea(spec);
+        long creacion = System.nanoTime() - inicio;
+
+        Tauler t = new Tauler(8);
+        inicio = System.nanoTime();
+        j.moviment(t, 1);
+        long primera = System.nanoTime() - inicio;
+        long hastaPrimera = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        for (int i = 0; i < JUGADAS_CALENTAMIENTO; i++) {
+            j.moviment(t, 1);
+        }
+        inicio = System.nanoTime();
+        j.moviment(t, 1);
+        long caliente = System.nanoTime() - inicio;
+
+        boolean cds = false;
+        for (String a : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            cds |= a.startsWith("-XX:SharedArchiveFile");
+        }
+        System.out.println("Jugador: " + spec + " (CDS " + (cds ? "sí" : "no") + ", tablas "
+                + (Tablas.enUso() ? "de la instantánea" : "calculadas") + ")");
+        System.out.printf("JVM hasta main:          %6d ms%n", hastaMain);
+        System.out.printf("Tablas estáticas:        %8.2f ms%n", tablas / 1e6);
+        System.out.printf("Creación del jugador:    %8.2f ms%n", creacion / 1e6);
+        System.out.printf("Primera jugada:          %8.2f ms%n", primera / 1e6);
+        System.out.printf("Jugada en caliente:      %8.2f ms%n", caliente / 1e6);
+        System.out.printf("Arranque hasta jugada:   %6d ms%n", hastaPrimera);
+    }
+}
@@ -0,0 +1,921 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Minimax con poda alfa-beta sobre TaulerBits que no reserva memoria
+ * durante la búsqueda. Todas las estructuras por nivel (listas de jugadas,
+ * valoraciones, jugada a deshacer) se reservan en el constructor y el
+ * tablero se modifica con afegeix/treu en lugar de copiarse.
+ *
+ * Cada instancia pertenece a un único hilo: JugadorPropi crea la suya.
+ *
+ * @author Alex Aranda Salinas
+ */
+class BusquedaBits {
+
+    static final int MAX_PLY = TaulerBits.MIDA_MAX * TaulerBits.MIDA_MAX + 1;
+
+    // Una victoria a k plies de la raíz vale VICTORIA - k (y una derrota
+    // lo contrario), para preferir las victorias rápidas y las derrotas lentas
+    static final int VICTORIA = 100000000;
+    // A partir de este valor el resultado está demostrado
+    static final int VICTORIA_DEMOSTRADA = VICTORIA - MAX_PLY;
+    static final int INFINITO = Integer.MAX_VALUE;
+
+    // Por encima de este valor la heurística ha visto una victoria inmediata
+    private static final int UMBRAL_AMENAZA = 80000000;
+
+    // Nodos interiores entre dos consultas del reloj
+    private static final int MASCARA_RELOJ = 1023;
+
+    // Profundidad restante mínima para consultar la tabla de transposición
+    // (más cerca de las hojas cuesta más que lo que ahorra)
+    private static final int PROFUNDIDAD_CACHE = 2;
+
+    // Profundidad restante mínima para consultar los hijos en la tabla de
+    // resultados demostrados
+    private static final int PROFUNDIDAD_DEMOSTRADAS = 3;
+    // Tabla de resultados demostrados: 2^BITS_DEMOSTRADAS entradas
+    private static final int BITS_DEMOSTRADAS = 16;
+    // Diferencia la clave de la misma posición con el otro color a mover
+    private static final long LADO = 0x5851F42D4C957F2DL;
+    // Valor máximo de un nodo sin victoria demostrada
+    private static final int SIN_VICTORIA = VICTORIA_DEMOSTRADA - 1;
+    // Tabla propia del análisis cuando no hay otra: 2^BITS_ANALISIS entradas
+    private static final int BITS_ANALISIS = 18;
+
+    private final Evaluador heuristica;
+    private HeuristicaBits lote;
+    private int extensionMax;
+    // Valor de unas tablas para el jugador inicial
+    private int valorTablas;
+    private CacheBusqueda cache;
+    private CacheBusqueda cacheAnalisis;
+    // Generador para elegir entre columnas empatadas en la raíz (null = la primera)
+    private SplittableRandom desempate;
+    // Parte de la clave de la tabla que no depende de la posición
+    private long claveBusqueda;
+    // Perfilador del movimiento en curso (null si no se perfila)
+    private Perfilador perfil;
+    // Traza del movimiento en curso (null si no se traza) y motivo por el
+    // que ha terminado el último nodo
+    private TrazaBusqueda traza;
+    private int motivo;
+    private TaulerBits t;
+    private int[] orden;
+
+    // Pila de la búsqueda, un nivel por ply
+    private final int[][] jugadas = new int[MAX_PLY][TaulerBits.MIDA_MAX];
+    private final int[] numJugadas = new int[MAX_PLY];
+    private final int[][] valores = new int[MAX_PLY][TaulerBits.MIDA_MAX];
+    private final int[] jugadaPly = new int[MAX_PLY];
+    // Cota superior de cada hijo que da la tabla de resultados demostrados
+    private final int[][] cotaHijo = new int[MAX_PLY][TaulerBits.MIDA_MAX];
+
+    private int jugadorInicial;
+    private long nodos;
+    private int valorRaiz;
+
+    // Instante (System.nanoTime) en que se abandona la búsqueda, 0 si no hay
+    private long limite;
+    private boolean abortada;
+    private int comprobaciones;
+
+    // Poda por la cota estática de victoria y por hijos ya demostrados
+    private boolean podaDemostrada;
+    // Victorias (valor >= VICTORIA_DEMOSTRADA, cota inferior) y derrotas
+    // (cota superior) ya demostradas, contadas desde su nodo
+    private long[] clavesDemostradas;
+    private int[] valoresDemostrados;
+    private long cortesCota;
+    private long cortesHijos;
+
+    /**
+     * @param heuristica Evaluador de las hojas
+     */
+    BusquedaBits(Evaluador heuristica) {
+        this.heuristica = heuristica;
+        preparaMida(TaulerBits.MIDA_MAX);
+    }
+
+    /**
+     * Activa la evaluación por lotes del último nivel: los hijos de cada
+     * nodo a profundidad 1 se valoran juntos con HeuristicaBits. Solo
+     * tiene efecto con Heuristica, que es la función que HeuristicaBits
+     * reproduce; con otro evaluador las hojas se valoran una a una.
+     *
+     * @param activa true para evaluar por lotes
+     */
+    void setEvaluacionLote(boolean activa) {
+        lote = activa && heuristica instanceof Heuristica ? new HeuristicaBits() : null;
+    }
+
+    /**
+     * Activa la extensión de jugadas forzadas en la frontera
+     *
+     * @param plies Máximo de bloqueos forzados a seguir por hoja (0 = sin extensión)
+     */
+    void setExtensionAmenazas(int plies) {
+        extensionMax = plies;
+    }
+
+    /**
+     * @param valor Valor de las tablas para el color que busca (0 por
+     *              defecto; negativo para evitarlas, positivo para buscarlas)
+     */
+    void setValorTablas(int valor) {
+        valorTablas = valor;
+    }
+
+    /**
+     * @param c Tabla de transposición, o null para buscar sin ella
+     */
+    void setCache(CacheBusqueda c) {
+        cache = c;
+    }
+
+    /**
+     * Activa dos podas antes de bajar a los hijos: la cota de la victoria
+     * más rápida que permiten las ventanas y casillas que quedan, y la
+     * consulta de cada hijo en una tabla pequeña de victorias y derrotas
+     * demostradas, que corta en cuanto un hijo está perdido para el rival.
+     * Los resultados demostrados no dependen de la profundidad ni del
+     * valor de las tablas, así que la tabla se conserva entre búsquedas.
+     *
+     * @param activa true para podar
+     */
+    void setPodaDemostrada(boolean activa) {
+        podaDemostrada = activa;
+        if (activa && clavesDemostradas == null) {
+            clavesDemostradas = new long[1 << BITS_DEMOSTRADAS];
+            valoresDemostrados = new int[1 << BITS_DEMOSTRADAS];
+        }
+    }
+
+    /**
+     * Elige al azar entre las columnas de la raíz con el mismo valor. Para
+     * reconocer los empates, cada columna se busca con la ventana abierta
+     * un punto por debajo del mejor valor, lo que poda algo menos.
+     *
+     * @param r Generador de la partida, o null para quedarse con la primera
+     */
+    void setDesempate(SplittableRandom r) {
+        desempate = r;
+    }
+
+    /**
+     * @param limiteNanos Instante de System.nanoTime en que busca() se
+     *                    abandona y devuelve -1, o 0 para no tener límite
+     */
+    void setLimite(long limiteNanos) {
+        limite = limiteNanos;
+    }
+
+    /**
+     * @return true si la última búsqueda se abandonó por el límite de tiempo
+     */
+    boolean isAbortada() {
+        return abortada;
+    }
+
+    /**
+     * @param p Perfilador al que informar de las fases, o null
+     */
+    void setPerfilador(Perfilador p) {
+        perfil = p;
+    }
+
+    /**
+     * @param tr Traza en la que grabar el árbol de las búsquedas, o null
+     */
+    void setTraza(TrazaBusqueda tr) {
+        traza = tr;
+    }
+
+    private void preparaMida(int mida) {
+        t = new TaulerBits(mida);
+        orden = new int[mida];
+        int centro = mida / 2;
+        int izq = centro - 1;
+        int der = centro;
+        int pos = 0;
+        while (pos < mida) {
+            if (der < mida) {
+                orden[pos++] = der++;
+            }
+            if (izq >= 0 && pos < mida) {
+                orden[pos++] = izq--;
+            }
+        }
+    }
+
+    /**
+     * Busca la mejor columna. Equivale a la búsqueda clásica de
+     * JugadorPropi, pero acota la raíz con el mejor valor ya encontrado.
+     *
+     * @param tauler      Tablero actual
+     * @param color       Color que mueve
+     * @param profundidad Profundidad máxima
+     * @return Columna elegida, o -1 si no se puede mover o se ha pasado el
+     *         límite de tiempo
+     */
+    int busca(Tauler tauler, int color, int profundidad) {
+        prepara(tauler, color);
+        if (traza != null) {
+            traza.entra(-1, profundidad, -INFINITO, INFINITO);
+        }
+
+        int n = generaJugadas(0);
+        // La victoria inmediata es la más rápida posible: no hace falta buscar
+        for (int i = 0; i < n; i++) {
+            int col = jugadas[0][i];
+            t.afegeix(col, color);
+            boolean gana = t.solucio(col, color);
+            t.treu(col);
+            if (gana) {
+                valorRaiz = VICTORIA - 1;
+                return raiz(col, TrazaBusqueda.VICTORIA);
+            }
+        }
+
+        long clave = 0;
+        if (cache != null) {
+            // Una posición ya buscada a esta profundidad se contesta desde la tabla
+            clave = CacheBusqueda.clave(t.hash(), claveBusqueda);
+            long d = cache.lee(clave);
+            if (d != 0 && CacheBusqueda.cota(d) == CacheBusqueda.EXACTA
+                    && CacheBusqueda.profundidad(d) >= profundidad && CacheBusqueda.jugada(d) >= 0) {
+                valorRaiz = CacheBusqueda.valor(d);
+                return raiz(CacheBusqueda.jugada(d), TrazaBusqueda.TRANSPOSICION);
+            }
+            primero(0, n, CacheBusqueda.jugada(d));
+        }
+
+        int mejorColumna = -1;
+        int mejorValor = -INFINITO;
+        int empates = 0;
+        for (int i = 0; i < n; i++) {
+            int col = jugadas[0][i];
+            t.afegeix(col, color);
+            jugadaPly[0] = col;
+            // Con desempate, un valor igual al mejor tiene que salir exacto
+            int alpha = desempate == null || mejorColumna == -1 ? mejorValor : mejorValor - 1;
+            int valor = -negamax(-color, col, profundidad - 1, 1, -INFINITO, -alpha);
+            t.treu(col);
+            if (abortada) {
+                valorRaiz = 0;
+                return raiz(-1, TrazaBusqueda.ABORTADA);
+            }
+            valores[0][i] = valor;
+            if (valor > mejorValor || mejorColumna == -1) {
+                mejorValor = valor;
+                mejorColumna = col;
+                empates = 1;
+            } else if (desempate != null && valor == mejorValor && desempate.nextInt(++empates) == 0) {
+                mejorColumna = col;
+            }
+        }
+        valorRaiz = mejorValor;
+        if (cache != null && mejorColumna >= 0) {
+            cache.guarda(clave, mejorValor, profundidad, CacheBusqueda.EXACTA, mejorColumna);
+        }
+        return raiz(mejorColumna, TrazaBusqueda.RECORRIDO);
+    }
+
+    private void prepara(Tauler tauler, int color) {
+        if (tauler.getMida() != t.getMida()) {
+            preparaMida(tauler.getMida());
+        }
+        t.carga(tauler);
+        jugadorInicial = color;
+        nodos = 0;
+        cortesCota = 0;
+        cortesHijos = 0;
+        abortada = false;
+        claveBusqueda = (long) color << 32 ^ valorTablas;
+    }
+
+    /**
+     * Análisis de varias líneas (multi-PV): las mejores columnas de la raíz
+     * con su valor exacto y su variación principal.
+     *
+     * Todas las líneas salen de una sola pasada por la raíz en cada
+     * iteración de profundización: cada columna se busca con alfa en el
+     * valor de la línea k-ésima hasta el momento, así que solo las que
+     * pueden entrar entre las k mejores se buscan con la ventana abierta
+     * (y su valor es exacto); el resto se poda como en busca(). La tabla
+     * de transposición ordena cada iteración con la anterior y guarda las
+     * jugadas de las variaciones; sin tabla se usa una propia del análisis.
+     *
+     * @param tauler      Tablero actual
+     * @param color       Color que mueve
+     * @param profundidad Profundidad máxima
+     * @param lineas      Número de líneas (k)
+     * @return Hasta k líneas de mejor a peor (las de la última iteración
+     *         completa si se pasa el límite de tiempo)
+     */
+    Analisis.Linea[] analiza(Tauler tauler, int color, int profundidad, int lineas) {
+        prepara(tauler, color);
+        CacheBusqueda tabla = cache;
+        TrazaBusqueda tr = traza;
+        Perfilador pf = perfil;
+        if (cache == null) {
+            if (cacheAnalisis == null) {
+                cacheAnalisis = new CacheBusqueda(BITS_ANALISIS);
+            }
+            cache = cacheAnalisis;
+        }
+        traza = null;
+        perfil = null;
+        try {
+            int n = generaJugadas(0);
+            int k = Math.min(lineas, n);
+            if (k <= 0) {
+                return new Analisis.Linea[0];
+            }
+            int[] columnas = Arrays.copyOf(jugadas[0], n);
+            int[] valor = new int[n];
+            boolean[] exacto = new boolean[n];
+            int[] mejores = new int[k];
+            long clave = CacheBusqueda.clave(t.hash(), claveBusqueda);
+            Analisis.Linea[] resultado = new Analisis.Linea[0];
+            for (int d = 1; d <= profundidad; d++) {
+                ordenaRaiz(columnas, valor, exacto, n);
+                int encontradas = 0;
+                for (int i = 0; i < n; i++) {
+                    int col = columnas[i];
+                    int cota = encontradas < k ? -INFINITO : mejores[k - 1];
+                    t.afegeix(col, color);
+                    jugadaPly[0] = col;
+                    int v = -negamax(-color, col, d - 1, 1, -INFINITO, -cota);
+                    t.treu(col);
+                    if (abortada) {
+                        return resultado;
+                    }
+                    valor[i] = v;
+                    exacto[i] = v > cota;
+                    if (exacto[i]) {
+                        // Inserta en las k mejores, ordenadas de mayor a menor
+                        int j = Math.min(encontradas, k - 1);
+                        while (j > 0 && mejores[j - 1] < v) {
+                            mejores[j] = mejores[j - 1];
+                            j--;
+                        }
+                        mejores[j] = v;
+                        encontradas = Math.min(encontradas + 1, k);
+                    }
+                }
+                ordenaRaiz(columnas, valor, exacto, n);
+                cache.guarda(clave, valor[0], d, CacheBusqueda.EXACTA, columnas[0]);
+                resultado = new Analisis.Linea[k];
+                for (int i = 0; i < k; i++) {
+                    resultado[i] = new Analisis.Linea(columnas[i], valor[i], d, variacion(columnas[i], color, d));
+                }
+                valorRaiz = valor[0];
+            }
+            return resultado;
+        } finally {
+            cache = tabla;
+            traza = tr;
+            perfil = pf;
+        }
+    }
+
+    /**
+     * Ordena las columnas de la raíz: primero las de valor exacto de mayor
+     * a menor y después el resto en el orden que tenían
+     */
+    private static void ordenaRaiz(int[] columnas, int[] valor, boolean[] exacto, int n) {
+        for (int i = 1; i < n; i++) {
+            int col = columnas[i];
+            int v = valor[i];
+            boolean e = exacto[i];
+            int j = i;
+            while (j > 0 && e && (!exacto[j - 1] || valor[j - 1] < v)) {
+                columnas[j] = columnas[j - 1];
+                valor[j] = valor[j - 1];
+                exacto[j] = exacto[j - 1];
+                j--;
+            }
+            columnas[j] = col;
+            valor[j] = v;
+            exacto[j] = e;
+        }
+    }
+
+    /**
+     * Variación principal de una columna de la raíz: sigue la jugada de la
+     * tabla en cada posición y, donde la tabla no llega (cerca de las hojas
+     * no se guarda), la busca a la profundidad que queda
+     */
+    private int[] variacion(int col, int color, int profundidad) {
+        int[] pv = new int[profundidad];
+        pv[0] = col;
+        t.afegeix(col, color);
+        int len = 1;
+        int c = -color;
+        while (len < profundidad && !t.solucio(pv[len - 1], -c) && t.espotmoure()) {
+            long d = cache.lee(CacheBusqueda.clave(t.hash(), claveBusqueda));
+            int j = d == 0 ? -1 : CacheBusqueda.jugada(d);
+            if (j < 0 || !t.movpossible(j)) {
+                j = mejorHijo(c, len, profundidad - len);
+            }
+            if (j < 0) {
+                break;
+            }
+            t.afegeix(j, c);
+            pv[len++] = j;
+            c = -c;
+        }
+        for (int i = len - 1; i >= 0; i--) {
+            t.treu(pv[i]);
+        }
+        return Arrays.copyOf(pv, len);
+    }
+
+    /**
+     * @return Mejor columna de un nodo de la variación buscando sus hijos
+     *         con la ventana abierta, o -1 si se ha pasado el límite
+     */
+    private int mejorHijo(int color, int ply, int profundidad) {
+        int n = generaJugadas(ply);
+        int mejor = -1;
+        int mejorValor = -INFINITO;
+        for (int i = 0; i < n; i++) {
+            int col = jugadas[ply][i];
+            t.afegeix(col, color);
+            jugadaPly[ply] = col;
+            int v = -negamax(-color, col, profundidad - 1, ply + 1, -INFINITO, -mejorValor);
+            t.treu(col);
+            if (abortada) {
+                return -1;
+            }
+            if (v > mejorValor || mejor == -1) {
+                mejorValor = v;
+                mejor = col;
+            }
+        }
+        return mejor;
+    }
+
+    /**
+     * Cierra la raíz en la traza (si la hay)
+     */
+    private int raiz(int col, int m) {
+        if (traza != null) {
+            traza.sale(valorRaiz, m);
+        }
+        return col;
+    }
+
+    /**
+     * Nodo interior en forma negamax: el valor es para el color que mueve.
+     * Con traza, graba el nodo alrededor de nodo(); sin ella solo cuesta
+     * esta comprobación.
+     */
+    private int negamax(int color, int ultimaCol, int profundidad, int ply, int alpha, int beta) {
+        if (traza == null) {
+            return nodo(color, ultimaCol, profundidad, ply, alpha, beta);
+        }
+        trazaEntra(color, ultimaCol, profundidad, alpha, beta);
+        int v = nodo(color, ultimaCol, profundidad, ply, alpha, beta);
+        traza.sale(color == jugadorInicial ? v : -v, motivo);
+        return v;
+    }
+
+    /**
+     * Graba la entrada en un nodo con la ventana vista desde la raíz
+     */
+    private void trazaEntra(int color, int col, int profundidad, int alpha, int beta) {
+        if (color == jugadorInicial) {
+            traza.entra(col, profundidad, alpha, beta);
+        } else {
+            traza.entra(col, profundidad, -beta, -alpha);
+        }
+    }
+
+    /**
+     * Cuerpo de negamax. Cada salida deja en motivo por qué termina el nodo.
+     */
+    private int nodo(int color, int ultimaCol, int profundidad, int ply, int alpha, int beta) {
+        if (limite != 0 && (++comprobaciones & MASCARA_RELOJ) == 0 && System.nanoTime() - limite > 0) {
+            abortada = true;
+        }
+        if (abortada) {
+            motivo = TrazaBusqueda.ABORTADA;
+            return 0;
+        }
+
+        // El movimiento anterior fue ganador
+        if (t.solucio(ultimaCol, -color)) {
+            motivo = TrazaBusqueda.VICTORIA;
+            return -(VICTORIA - ply);
+        }
+
+        // Tablero lleno (empate)
+        if (!t.espotmoure()) {
+            motivo = TrazaBusqueda.TABLAS;
+            return tablas(color);
+        }
+
+        // Poda por distancia: como mucho se gana en la jugada siguiente y
+        // como poco se pierde en la otra. Si ya hay una victoria más corta
+        // que lo mejor de este nodo, no hace falta seguir.
+        int mejorPosible = VICTORIA - (ply + 1);
+        if (beta > mejorPosible) {
+            beta = mejorPosible;
+            if (alpha >= beta) {
+                motivo = TrazaBusqueda.DISTANCIA;
+                return beta;
+            }
+        }
+        int peorPosible = -(VICTORIA - (ply + 2));
+        if (alpha < peorPosible) {
+            alpha = peorPosible;
+            if (alpha >= beta) {
+                motivo = TrazaBusqueda.DISTANCIA;
+                return alpha;
+            }
+        }
+        // Con una victoria ya asegurada en la ventana, las fichas y
+        // casillas que quedan pueden bastar para descartar el nodo
+        if (podaDemostrada && (alpha >= VICTORIA_DEMOSTRADA || beta <= -VICTORIA_DEMOSTRADA)) {
+            int cota = cotaVictoria(color, ply, 0);
+            if (beta > cota) {
+                beta = cota;
+            }
+            cota = -cotaVictoria(-color, ply, 1);
+            if (alpha < cota) {
+                alpha = cota;
+            }
+            if (alpha >= beta) {
+                cortesCota++;
+                motivo = TrazaBusqueda.COTA;
+                return alpha;
+            }
+        }
+
+        if (profundidad == 0) {
+            if (extensionMax > 0) {
+                motivo = TrazaBusqueda.EXTENSION;
+                return extensionPerfilada(color, ply);
+            }
+            motivo = TrazaBusqueda.HOJA;
+            nodos++;
+            if (perfil != null) {
+                perfil.entra(Perfilador.HEURISTICA);
+            }
+            int v = heuristica.h(t, jugadorInicial);
+            if (perfil != null) {
+                perfil.sale();
+            }
+            return color == jugadorInicial ? v : -v;
+        }
+
+        if (profundidad == 1 && lote != null) {
+            motivo = TrazaBusqueda.LOTE;
+            return ultimoNivel(color, ply, alpha, beta);
+        }
+
+        int n = generaJugadas(ply);
+        long clave = 0;
+        int alphaInicial = alpha;
+        boolean conCache = cache != null && profundidad >= PROFUNDIDAD_CACHE;
+        if (conCache) {
+            clave = CacheBusqueda.clave(t.hash(), claveBusqueda);
+            long d = cache.lee(clave);
+            if (d != 0) {
+                if (CacheBusqueda.profundidad(d) >= profundidad) {
+                    int v = desdeCache(CacheBusqueda.valor(d), ply);
+                    int cota = CacheBusqueda.cota(d);
+                    if (cota == CacheBusqueda.EXACTA || (cota == CacheBusqueda.INFERIOR && v >= beta)
+                            || (cota == CacheBusqueda.SUPERIOR && v <= alpha)) {
+                        motivo = TrazaBusqueda.TRANSPOSICION;
+                        return v;
+                    }
+                }
+                primero(ply, n, CacheBusqueda.jugada(d));
+            }
+        }
+        boolean conDemostradas = podaDemostrada && profundidad >= PROFUNDIDAD_DEMOSTRADAS;
+        if (conDemostradas) {
+            int v = hijoDemostrado(color, ply, n, beta);
+            if (v >= beta) {
+                cortesHijos++;
+                motivo = TrazaBusqueda.DEMOSTRADO;
+                return v;
+            }
+        }
+
+        int valor = -INFINITO;
+        int mejor = -1;
+        int[] lista = jugadas[ply];
+        for (int i = 0; i < n; i++) {
+            int col = lista[i];
+            int v;
+            if (conDemostradas && cotaHijo[ply][i] <= alpha) {
+                // Hijo ya demostrado ganador para el rival: no puede subir alpha
+                v = cotaHijo[ply][i];
+                cortesHijos++;
+                if (traza != null) {
+                    trazaEntra(-color, col, profundidad - 1, -beta, -alpha);
+                    traza.sale(color == jugadorInicial ? v : -v, TrazaBusqueda.DEMOSTRADO);
+                }
+            } else {
+                t.afegeix(col, color);
+                jugadaPly[ply] = col;
+                v = -negamax(-color, col, profundidad - 1, ply + 1, -beta, -alpha);
+                t.treu(col);
+                if (abortada) {
+                    motivo = TrazaBusqueda.ABORTADA;
+                    return 0;
+                }
+            }
+            valores[ply][i] = v;
+            if (v > valor) {
+                valor = v;
+                mejor = col;
+            }
+            if (valor >= beta) {
+                break;
+            }
+            if (valor > alpha) {
+                alpha = valor;
+            }
+        }
+        if (conCache) {
+            int cota = valor >= beta ? CacheBusqueda.INFERIOR
+                    : valor <= alphaInicial ? CacheBusqueda.SUPERIOR : CacheBusqueda.EXACTA;
+            cache.guarda(clave, aCache(valor, ply), profundidad, cota, mejor);
+        }
+        if (podaDemostrada && ((valor >= VICTORIA_DEMOSTRADA && valor > alphaInicial)
+                || (valor <= -VICTORIA_DEMOSTRADA && valor < beta))) {
+            long c = t.hash() ^ (color == 1 ? 0 : LADO);
+            int i = (int) c & (clavesDemostradas.length - 1);
+            clavesDemostradas[i] = c;
+            valoresDemostrados[i] = aCache(valor, ply);
+        }
+        motivo = valor >= beta ? TrazaBusqueda.CORTE : TrazaBusqueda.RECORRIDO;
+        return valor;
+    }
+
+    /**
+     * Victoria más rápida posible para un color: necesita tantas jugadas
+     * como casillas vacías tiene su ventana más llena sin fichas del rival,
+     * y que queden casillas libres para hacerlas
+     *
+     * @param color Color del que se calcula la cota
+     * @param ply   Plies desde la raíz
+     * @param antes Plies que faltan para su primera jugada (0 si mueve)
+     * @return Valor máximo que puede conseguir (SIN_VICTORIA si no puede ganar)
+     */
+    private int cotaVictoria(int color, int ply, int antes) {
+        int mida = t.getMida();
+        int faltan = HeuristicaBits.jugadasParaGanar(t.fichas(color), t.fichas(-color), mida);
+        int plies = antes + 2 * faltan - 1;
+        if (faltan == 0 || plies > mida * mida - t.getJugadas()) {
+            return SIN_VICTORIA;
+        }
+        return VICTORIA - (ply + plies);
+    }
+
+    /**
+     * Consulta los hijos en la tabla de resultados demostrados y deja en
+     * cotaHijo la cota superior de los que ganan para el rival
+     *
+     * @return El valor de un hijo perdido para el rival que llega a beta,
+     *         o -INFINITO si no hay ninguno
+     */
+    private int hijoDemostrado(int color, int ply, int n, int beta) {
+        int[] lista = jugadas[ply];
+        long lado = color == 1 ? LADO : 0;
+        int mascara = clavesDemostradas.length - 1;
+        for (int i = 0; i < n; i++) {
+            int col = lista[i];
+            t.afegeix(col, color);
+            long c = t.hash() ^ lado;
+            t.treu(col);
+            int e = (int) c & mascara;
+            cotaHijo[ply][i] = INFINITO;
+            if (clavesDemostradas[e] == c) {
+                int u = desdeCache(valoresDemostrados[e], ply + 1);
+                if (u <= -VICTORIA_DEMOSTRADA && -u >= beta) {
+                    return -u;
+                }
+                if (u >= VICTORIA_DEMOSTRADA) {
+                    cotaHijo[ply][i] = -u;
+                }
+            }
+        }
+        return -INFINITO;
+    }
+
+    /**
+     * Pasa la jugada de la tabla al principio de la lista del nivel
+     */
+    private void primero(int ply, int n, int col) {
+        int[] lista = jugadas[ply];
+        for (int i = 1; i < n; i++) {
+            if (lista[i] == col) {
+                System.arraycopy(lista, 0, lista, 1, i);
+                lista[0] = col;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Las victorias se guardan en la tabla contadas desde el nodo y no
+     * desde la raíz, para que valgan en cualquier búsqueda
+     */
+    private static int aCache(int valor, int ply) {
+        if (valor >= VICTORIA_DEMOSTRADA) {
+            return valor + ply;
+        }
+        return valor <= -VICTORIA_DEMOSTRADA ? valor - ply : valor;
+    }
+
+    private static int desdeCache(int valor, int ply) {
+        if (valor >= VICTORIA_DEMOSTRADA) {
+            return valor - ply;
+        }
+        return valor <= -VICTORIA_DEMOSTRADA ? valor + ply : valor;
+    }
+
+    /**
+     * Nodo a profundidad 1: evalúa todos los hijos en una llamada y aplica
+     * la misma poda que el bucle normal sobre los valores obtenidos
+     */
+    private int ultimoNivel(int color, int ply, int alpha, int beta) {
+        int n = generaJugadas(ply);
+        int[] v = valores[ply];
+        if (perfil != null) {
+            perfil.entra(Perfilador.LOTE);
+        }
+        lote.evaluaLote(t, color, jugadorInicial, jugadas[ply], n, v);
+        if (perfil != null) {
+            perfil.sale();
+        }
+        nodos += n;
+        int signo = color == jugadorInicial ? 1 : -1;
+        boolean lleno = t.getJugadas() + 1 == t.getMida() * t.getMida();
+        int valor = -INFINITO;
+        for (int i = 0; i < n; i++) {
+            int vi;
+            if (Math.abs(v[i]) == VICTORIA) {
+                // El lote da las victorias sin distancia: el hijo está a ply + 1
+                vi = VICTORIA - (ply + 1);
+            } else if (lleno) {
+                vi = tablas(color);
+            } else if (extensionMax > 0 && Math.abs(v[i]) >= UMBRAL_AMENAZA) {
+                // La hoja tiene una amenaza pendiente: resolverla con la extensión
+                int col = jugadas[ply][i];
+                t.afegeix(col, color);
+                vi = -extensionPerfilada(-color, ply + 1);
+                t.treu(col);
+            } else {
+                vi = signo * v[i];
+            }
+            if (traza != null) {
+                trazaEntra(-color, jugadas[ply][i], 0, -beta, -alpha);
+                traza.sale(color == jugadorInicial ? vi : -vi, TrazaBusqueda.HOJA);
+            }
+            if (vi > valor) {
+                valor = vi;
+            }
+            if (valor >= beta) {
+                return valor;
+            }
+            if (valor > alpha) {
+                alpha = valor;
+            }
+        }
+        return valor;
+    }
+
+    private int extensionPerfilada(int color, int ply) {
+        if (perfil == null) {
+            return extension(color, extensionMax, ply);
+        }
+        perfil.entra(Perfilador.EXTENSION);
+        int v = extension(color, extensionMax, ply);
+        perfil.sale();
+        return v;
+    }
+
+    /**
+     * @return Valor de las tablas para el color que mueve
+     */
+    private int tablas(int color) {
+        return color == jugadorInicial ? valorTablas : -valorTablas;
+    }
+
+    /**
+     * Extensión en la frontera que solo sigue jugadas forzadas: victoria
+     * inmediata, bloqueo de la única amenaza del rival y jugadas que crean
+     * dos amenazas imparables. Las amenazas se generan con máscaras de bits.
+     * Si no hay nada forzado se devuelve la heurística.
+     *
+     * @param color    Color que mueve
+     * @param restante Jugadas forzadas que aún se pueden seguir
+     * @param ply      Plies desde la raíz
+     * @return Valor para el color que mueve
+     */
+    private int extension(int color, int restante, int ply) {
+        if (!t.espotmoure()) {
+            return tablas(color);
+        }
+        int mida = t.getMida();
+        long mias = t.fichas(color);
+        long suyas = t.fichas(-color);
+        long ocupadas = mias | suyas;
+        long jugables = HeuristicaBits.jugables(ocupadas, mida);
+
+        if ((HeuristicaBits.casillasGanadoras(mias, ocupadas, mida) & jugables) != 0) {
+            return VICTORIA - (ply + 1);
+        }
+        long amenazas = HeuristicaBits.casillasGanadoras(suyas, ocupadas, mida) & jugables;
+        int numAmenazas = Long.bitCount(amenazas);
+        if (numAmenazas >= 2) {
+            return -(VICTORIA - (ply + 2));
+        }
+
+        if (restante > 0) {
+            if (numAmenazas == 1) {
+                // Bloqueo obligado
+                int col = Long.numberOfTrailingZeros(amenazas) >>> 3;
+                t.afegeix(col, color);
+                int v = -extension(-color, restante - 1, ply + 1);
+                t.treu(col);
+                return v;
+            }
+            // Jugada que deja dos amenazas sin dar ninguna al rival
+            long libres = jugables;
+            while (libres != 0) {
+                long b = libres & -libres;
+                libres ^= b;
+                long ocupadas2 = ocupadas | b;
+                long jugables2 = HeuristicaBits.jugables(ocupadas2, mida);
+                if (Long.bitCount(HeuristicaBits.casillasGanadoras(mias | b, ocupadas2, mida) & jugables2) >= 2
+                        && (HeuristicaBits.casillasGanadoras(suyas, ocupadas2, mida) & jugables2) == 0) {
+                    return VICTORIA - (ply + 3);
+                }
+            }
+        }
+
+        nodos++;
+        if (perfil != null) {
+            perfil.entra(Perfilador.HEURISTICA);
+        }
+        int v = heuristica.h(t, jugadorInicial);
+        if (perfil != null) {
+            perfil.sale();
+        }
+        return color == jugadorInicial ? v : -v;
+    }
+
+    /**
+     * Rellena la lista de jugadas legales del nivel en orden centro-primero
+     */
+    private int generaJugadas(int ply) {
+        int[] lista = jugadas[ply];
+        int n = 0;
+        for (int col : orden) {
+            if (t.movpossible(col)) {
+                lista[n++] = col;
+            }
+        }
+        numJugadas[ply] = n;
+        return n;
+    }
+
+    /**
+     * @return Hojas evaluadas en la última búsqueda
+     */
+    long getNodos() {
+        return nodos;
+    }
+
+    /**
+     * @return Nodos descartados por la cota de victoria en la última búsqueda
+     */
+    long getCortesCota() {
+        return cortesCota;
+    }
+
+    /**
+     * @return Nodos cortados por un hijo demostrado en la última búsqueda
+     */
+    long getCortesHijos() {
+        return cortesHijos;
+    }
+
+    /**
+     * @return Valor de la jugada elegida en la última búsqueda
+     */
+    int getValorRaiz() {
+        return valorRaiz;
+    }
+}
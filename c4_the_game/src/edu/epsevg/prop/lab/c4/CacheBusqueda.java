@@ -0,0 +1,438 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Tabla de transposición de BusquedaBits, opcionalmente persistente.
+ *
+ * Cada entrada guarda la clave de la posición, el valor, la profundidad
+ * buscada, el tipo de cota y la mejor jugada. Los cubos tienen dos
+ * entradas: una que solo se sustituye por búsquedas más profundas y otra
+ * que guarda siempre la última. La clave se guarda mezclada con los datos
+ * (clave ^ datos), de modo que una entrada a medio escribir no se confunde
+ * con una válida.
+ *
+ * Con fichero, la tabla se carga al crearla y los resultados de al menos
+ * PROFUNDIDAD_PERSISTENTE se mezclan en el fichero al terminar cada
+ * partida y al salir de la JVM. El fichero es una tabla de tamaño fijo
+ * proyectada en memoria; la mezcla se hace con un bloqueo exclusivo del
+ * fichero, así que varios motores (en la misma JVM o en otras) pueden
+ * compartirlo. Los valores dependen del evaluador: conviene un fichero
+ * por configuración del motor.
+ *
+ * Tabla compartida (compartida()): las entradas no están en el heap sino
+ * directamente en el fichero proyectado, y todos los procesos que lo
+ * abren leen y escriben en las mismas páginas de memoria sin bloqueos.
+ * Cada entrada son dos long alineados; si dos procesos escriben a la vez
+ * la misma entrada, la clave guardada deja de coincidir con clave ^ datos
+ * y la entrada simplemente no se encuentra. El fichero tiene el mismo
+ * formato que el de la tabla persistente, así que sobrevive a los
+ * procesos y también se puede cargar como tabla propia.
+ *
+ * Formato: magia, versión, número de entradas y después las entradas
+ * (clave ^ datos, datos), todo en big endian.
+ *
+ * @author Alex Aranda Salinas
+ */
+public final class CacheBusqueda {
+
+    static final int EXACTA = 0;
+    static final int INFERIOR = 1;
+    static final int SUPERIOR = 2;
+
+    private static final int MAGIA = 0x43345454;
+    static final int VERSION = 1;
+    private static final int CABECERA = 16;
+    static final int BYTES_ENTRADA = 16;
+
+    // Mayor tabla: el fichero se proyecta entero y una sola proyección
+    // tiene como mucho 2 GB (2^26 entradas de 16 bytes más la cabecera)
+    static final int BITS_MAX = 26;
+
+    // Solo se guardan en el fichero los resultados de al menos esta profundidad
+    static final int PROFUNDIDAD_PERSISTENTE = 6;
+
+    // Marca de entrada ocupada en los datos (así ningún dato válido es 0)
+    private static final long OCUPADA = 1L << 63;
+
+    // Tablas con fichero abiertas, para volcarlas al salir de la JVM
+    private static final Set<CacheBusqueda> persistentes =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static Thread alSalir;
+
+    // Entradas en el heap (null en la tabla compartida)
+    private final long[] claves;
+    private final long[] datos;
+    // Entradas en el fichero proyectado (null si están en el heap)
+    private final MappedByteBuffer mapa;
+    private final int mascara;
+    private final Path fichero;
+
+    private long consultas;
+    private long aciertos;
+
+    /**
+     * Crea una tabla solo en memoria
+     *
+     * @param bits Logaritmo en base 2 del número de entradas
+     */
+    public CacheBusqueda(int bits) {
+        if (bits < 1 || bits > BITS_MAX) {
+            throw new IllegalArgumentException("Tamaño de tabla no soportado: 2^" + bits + " (máximo 2^" + BITS_MAX
+                    + ")");
+        }
+        claves = new long[1 << bits];
+        datos = new long[1 << bits];
+        mascara = (1 << bits) - 1;
+        fichero = null;
+        mapa = null;
+    }
+
+    /**
+     * Crea una tabla con las entradas guardadas en un fichero, que se
+     * actualizará con vuelca()
+     *
+     * @param bits    Logaritmo en base 2 del número de entradas
+     * @param fichero Fichero de la tabla (se crea al volcar si no existe)
+     * @throws IOException Si el fichero existe pero no se puede leer
+     */
+    public CacheBusqueda(int bits, Path fichero) throws IOException {
+        if (bits < 1 || bits > BITS_MAX) {
+            throw new IllegalArgumentException("Tamaño de tabla no soportado: 2^" + bits + " (máximo 2^" + BITS_MAX
+                    + ")");
+        }
+        claves = new long[1 << bits];
+        datos = new long[1 << bits];
+        mascara = (1 << bits) - 1;
+        this.fichero = fichero.toAbsolutePath();
+        mapa = null;
+        carga();
+        registraSalida(this);
+    }
+
+    private CacheBusqueda(Path fichero, MappedByteBuffer mapa, int entradas) {
+        claves = null;
+        datos = null;
+        this.mapa = mapa;
+        mascara = entradas - 1;
+        this.fichero = fichero;
+    }
+
+    /**
+     * Abre (o crea) una tabla compartida con los demás procesos que abren
+     * el mismo fichero
+     *
+     * @param bits    Logaritmo en base 2 del número de entradas si se crea
+     *                el fichero (si ya existe se usa su tamaño)
+     * @param fichero Fichero de la tabla
+     * @return Tabla sobre el fichero
+     * @throws IOException Si el fichero no se puede crear o no es una tabla
+     */
+    @SuppressWarnings("try")
+    public static CacheBusqueda compartida(int bits, Path fichero) throws IOException {
+        if (bits < 1 || bits > BITS_MAX) {
+            throw new IllegalArgumentException("Tamaño de tabla compartida no soportado: 2^" + bits + " (máximo 2^"
+                    + BITS_MAX + ")");
+        }
+        Path f = fichero.toAbsolutePath();
+        synchronized (CacheBusqueda.class) {
+            try (FileChannel canal = FileChannel.open(f, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buf;
+                int entradas;
+                // Solo el primero que llega escribe la cabecera
+                try (FileLock bloqueo = canal.lock()) {
+                    if (canal.size() == 0) {
+                        entradas = 1 << bits;
+                        buf = canal.map(FileChannel.MapMode.READ_WRITE, 0, CABECERA + (long) entradas * BYTES_ENTRADA);
+                        buf.putInt(0, MAGIA);
+                        buf.putInt(4, VERSION);
+                        buf.putInt(8, entradas);
+                        buf.force();
+                    } else {
+                        buf = proyecta(canal, FileChannel.MapMode.READ_WRITE, f);
+                        entradas = compruebaCabecera(f, buf, canal.size());
+                    }
+                }
+                // La proyección sigue siendo válida después de cerrar el canal
+                return new CacheBusqueda(f, buf, entradas);
+            }
+        }
+    }
+
+    /**
+     * Clave de la tabla para una posición
+     *
+     * @param hash  Hash de la posición (TaulerBits.hash)
+     * @param extra Lo que cambia los valores además de la posición (color
+     *              que busca, valor de las tablas)
+     * @return Clave
+     */
+    static long clave(long hash, long extra) {
+        return hash ^ extra * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Busca una posición
+     *
+     * @param clave Clave de la posición
+     * @return Datos de la entrada (ver valor, profundidad, cota y jugada) o 0
+     */
+    long lee(long clave) {
+        consultas++;
+        int i = (int) clave & mascara & ~1;
+        if (mapa != null) {
+            int pos = CABECERA + i * BYTES_ENTRADA;
+            for (int k = 0; k < 2; k++, pos += BYTES_ENTRADA) {
+                long d = mapa.getLong(pos + 8);
+                if ((mapa.getLong(pos) ^ d) == clave && d != 0) {
+                    aciertos++;
+                    return d;
+                }
+            }
+            return 0;
+        }
+        long d = datos[i];
+        if ((claves[i] ^ d) == clave && d != 0) {
+            aciertos++;
+            return d;
+        }
+        d = datos[i + 1];
+        if ((claves[i + 1] ^ d) == clave && d != 0) {
+            aciertos++;
+            return d;
+        }
+        return 0;
+    }
+
+    /**
+     * Guarda el resultado de una búsqueda
+     *
+     * @param clave       Clave de la posición
+     * @param valor       Valor para el color que mueve (victorias relativas al nodo)
+     * @param profundidad Profundidad buscada
+     * @param cota        EXACTA, INFERIOR o SUPERIOR
+     * @param jugada      Mejor columna o -1
+     */
+    void guarda(long clave, int valor, int profundidad, int cota, int jugada) {
+        long d = empaqueta(valor, profundidad, cota, jugada);
+        if (mapa != null) {
+            guarda(mapa, mascara, clave, d);
+        } else {
+            guarda(claves, datos, mascara, clave, d);
+        }
+    }
+
+    private static void guarda(long[] claves, long[] datos, int mascara, long clave, long d) {
+        int i = (int) clave & mascara & ~1;
+        // Primera entrada del cubo: solo si es la misma posición o no es menos profunda
+        long actual = datos[i];
+        if (actual == 0 || (claves[i] ^ actual) == clave || profundidad(d) >= profundidad(actual)) {
+            datos[i] = d;
+            claves[i] = clave ^ d;
+        } else {
+            datos[i + 1] = d;
+            claves[i + 1] = clave ^ d;
+        }
+    }
+
+    /**
+     * Guarda una entrada con la misma política de sustitución en un fichero
+     * proyectado (tabla compartida y mezcla de vuelca())
+     *
+     * @return true si se ha escrito
+     */
+    private static boolean guarda(ByteBuffer buf, int mascara, long clave, long d) {
+        int i = (int) clave & mascara & ~1;
+        int pos = CABECERA + i * BYTES_ENTRADA;
+        long actual = buf.getLong(pos + 8);
+        if (!(actual == 0 || (buf.getLong(pos) ^ actual) == clave || profundidad(d) >= profundidad(actual))) {
+            pos += BYTES_ENTRADA;
+            actual = buf.getLong(pos + 8);
+            if (actual != 0 && (buf.getLong(pos) ^ actual) != clave && profundidad(d) < profundidad(actual)) {
+                return false;
+            }
+        }
+        buf.putLong(pos + 8, d);
+        buf.putLong(pos, clave ^ d);
+        return true;
+    }
+
+    private static long empaqueta(int valor, int profundidad, int cota, int jugada) {
+        return OCUPADA | (long) (jugada + 1) << 42 | (long) cota << 40 | (long) profundidad << 32
+                | (valor & 0xFFFFFFFFL);
+    }
+
+    static int valor(long d) {
+        return (int) d;
+    }
+
+    static int profundidad(long d) {
+        return (int) (d >>> 32) & 0xFF;
+    }
+
+    static int cota(long d) {
+        return (int) (d >>> 40) & 3;
+    }
+
+    static int jugada(long d) {
+        return ((int) (d >>> 42) & 0xF) - 1;
+    }
+
+    /**
+     * @return Fracción de consultas que han encontrado la posición
+     */
+    public double getAciertos() {
+        return consultas == 0 ? 0 : aciertos / (double) consultas;
+    }
+
+    /**
+     * @return Entradas ocupadas
+     */
+    public int getOcupadas() {
+        int n = 0;
+        if (mapa != null) {
+            for (int i = 0; i <= mascara; i++) {
+                if (mapa.getLong(CABECERA + i * BYTES_ENTRADA + 8) != 0) {
+                    n++;
+                }
+            }
+            return n;
+        }
+        for (long d : datos) {
+            if (d != 0) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @SuppressWarnings("try")
+    private void carga() throws IOException {
+        if (!Files.exists(fichero)) {
+            return;
+        }
+        synchronized (CacheBusqueda.class) {
+            try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ);
+                 FileLock bloqueo = canal.lock(0, Long.MAX_VALUE, true)) {
+                if (canal.size() < CABECERA) {
+                    return;
+                }
+                MappedByteBuffer buf = proyecta(canal, FileChannel.MapMode.READ_ONLY, fichero);
+                int entradas = compruebaCabecera(fichero, buf, canal.size());
+                for (int i = 0; i < entradas; i++) {
+                    int pos = CABECERA + i * BYTES_ENTRADA;
+                    long d = buf.getLong(pos + 8);
+                    long clave = buf.getLong(pos) ^ d;
+                    if (d != 0) {
+                        guarda(claves, datos, mascara, clave, d);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Proyecta un fichero de tabla ya creado entero
+     *
+     * @throws IOException Si es mayor que la tabla más grande o no se puede proyectar
+     */
+    private static MappedByteBuffer proyecta(FileChannel canal, FileChannel.MapMode modo, Path fichero)
+            throws IOException {
+        long tamano = canal.size();
+        if (tamano > CABECERA + ((long) BYTES_ENTRADA << BITS_MAX)) {
+            throw new IOException(fichero + " es mayor que la tabla más grande (2^" + BITS_MAX + " entradas)");
+        }
+        return canal.map(modo, 0, tamano);
+    }
+
+    private static int compruebaCabecera(Path fichero, ByteBuffer buf, long tamano) throws IOException {
+        int entradas = buf.getInt(8);
+        if (buf.getInt(0) != MAGIA || buf.getInt(4) != VERSION || entradas <= 0 || entradas > 1 << BITS_MAX
+                || (entradas & (entradas - 1)) != 0 || tamano != CABECERA + (long) entradas * BYTES_ENTRADA) {
+            throw new IOException(fichero + " no es una tabla de la versión " + VERSION);
+        }
+        return entradas;
+    }
+
+    /**
+     * Mezcla en el fichero los resultados profundos de esta tabla. Una
+     * entrada del fichero solo se sustituye por una de la misma posición o
+     * por otra al menos igual de profunda. La tabla compartida ya está en
+     * su fichero y no escribe nada.
+     *
+     * @return Entradas escritas
+     * @throws IOException Si no se puede escribir el fichero
+     */
+    @SuppressWarnings("try")
+    public int vuelca() throws IOException {
+        if (fichero == null || mapa != null) {
+            return 0;
+        }
+        synchronized (CacheBusqueda.class) {
+            try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock bloqueo = canal.lock()) {
+                int entradas;
+                MappedByteBuffer buf;
+                if (canal.size() == 0) {
+                    entradas = claves.length;
+                    buf = canal.map(FileChannel.MapMode.READ_WRITE, 0, CABECERA + (long) entradas * BYTES_ENTRADA);
+                    buf.putInt(0, MAGIA);
+                    buf.putInt(4, VERSION);
+                    buf.putInt(8, entradas);
+                } else {
+                    buf = proyecta(canal, FileChannel.MapMode.READ_WRITE, fichero);
+                    entradas = compruebaCabecera(fichero, buf, canal.size());
+                }
+
+                int escritas = 0;
+                int mascaraFichero = entradas - 1;
+                for (int j = 0; j < claves.length; j++) {
+                    long d = datos[j];
+                    long clave = claves[j] ^ d;
+                    if (d == 0 || profundidad(d) < PROFUNDIDAD_PERSISTENTE) {
+                        continue;
+                    }
+                    if (guarda(buf, mascaraFichero, clave, d)) {
+                        escritas++;
+                    }
+                }
+                buf.force();
+                return escritas;
+            }
+        }
+    }
+
+    private static synchronized void registraSalida(CacheBusqueda c) {
+        persistentes.add(c);
+        if (alSalir == null) {
+            alSalir = new Thread(() -> {
+                List<CacheBusqueda> abiertas;
+                synchronized (persistentes) {
+                    abiertas = new ArrayList<>(persistentes);
+                }
+                for (CacheBusqueda t : abiertas) {
+                    try {
+                        t.vuelca();
+                    } catch (IOException e) {
+                        System.err.println("No se puede guardar la tabla " + t.fichero + ": " + e.getMessage());
+                    }
+                }
+            }, "cache-busqueda");
+            Runtime.getRuntime().addShutdownHook(alSalir);
+        }
+    }
+}
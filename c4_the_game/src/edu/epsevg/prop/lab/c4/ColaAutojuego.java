@@ -0,0 +1,615 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cola de trabajos de autojuego en un directorio, para repartir partidas y
+ * análisis de posiciones entre varias JVM de la misma máquina o de
+ * máquinas que comparten el directorio.
+ *
+ * El directorio tiene cinco subdirectorios:
+ *   pendientes  trabajos sin reclamar (un fichero por trabajo)
+ *   reclamados  trabajos en curso, como id.trabajador
+ *   hechos      resultados, con el mismo id que el trabajo
+ *   fallidos    trabajos que han fallado, con su error en id.error
+ *   tmp         ficheros a medio escribir
+ *
+ * Un trabajador reclama un trabajo moviéndolo de forma atómica de
+ * pendientes a reclamados: solo uno de los que lo intentan a la vez lo
+ * consigue. Mientras trabaja actualiza la fecha del fichero reclamado; un
+ * trabajo reclamado cuya fecha tiene más de la caducidad es de un
+ * trabajador caído y se devuelve a pendientes (lo hace cualquier trabajador
+ * que se queda sin trabajo, o la orden recupera). Los resultados se
+ * escriben en tmp y se mueven a hechos, así que un resultado en hechos
+ * siempre está completo. Un trabajo que se repite tras recuperarlo deja el
+ * mismo resultado, salvo con jugadores con tabla de transposición (tt=):
+ * cada trabajador conserva sus jugadores entre trabajos y la tabla guarda
+ * lo buscado en los anteriores.
+ *
+ * Un trabajo que falla (especificación o cabecera no válidas, error del
+ * motor) se mueve a fallidos con su error y el trabajador sigue con los
+ * demás; para repetirlo basta con devolverlo a pendientes.
+ *
+ * Trabajos (primera línea, campos separados por tabuladores):
+ *   partidas  jugador1 jugador2 n aperturas semilla   n partidas de
+ *             EntrenadorRed.juega alternando colores; resultado en formato
+ *             de RegistroPartidas
+ *   posiciones jugador                                 seguido de líneas de
+ *             CorpusPosiciones; resultado en formato de AnalizadorLotes
+ * Cada resultado empieza con una línea "#" con el tipo, el trabajador, el
+ * tiempo en ms, las unidades (partidas o posiciones) y las jugadas y nodos
+ * buscados.
+ *
+ * Uso: ColaAutojuego encola dir partidas [jugador1] [jugador2] [porTrabajo] [aperturas] [semilla]
+ *      ColaAutojuego encolaCorpus dir corpus [jugador] [porTrabajo]
+ *      ColaAutojuego trabaja dir [nombre] [caducidad s]
+ *      ColaAutojuego recupera dir [caducidad s]
+ *      ColaAutojuego estado dir
+ *      ColaAutojuego recoge dir partidas|posiciones salida
+ *
+ * @author Alex Aranda Salinas
+ */
+public class ColaAutojuego {
+
+    static final String PARTIDAS = "partidas";
+    static final String POSICIONES = "posiciones";
+
+    /** Caducidad por defecto de un trabajo reclamado */
+    public static final long CADUCIDAD_MS = 60000;
+
+    // Espera de un trabajador cuando solo quedan trabajos de otros
+    private static final long ESPERA_MS = 500;
+
+    private final Path pendientes;
+    private final Path reclamados;
+    private final Path hechos;
+    private final Path fallidos;
+    private final Path tmp;
+
+    /**
+     * Abre la cola (y crea sus directorios si no existen)
+     *
+     * @param dir Directorio de la cola
+     * @throws IOException Si no se pueden crear los directorios
+     */
+    public ColaAutojuego(Path dir) throws IOException {
+        pendientes = Files.createDirectories(dir.resolve("pendientes"));
+        reclamados = Files.createDirectories(dir.resolve("reclamados"));
+        hechos = Files.createDirectories(dir.resolve("hechos"));
+        fallidos = Files.createDirectories(dir.resolve("fallidos"));
+        tmp = Files.createDirectories(dir.resolve("tmp"));
+    }
+
+    /**
+     * Añade trabajos de partidas
+     *
+     * @param partidas   Número total de partidas
+     * @param spec1      Primer jugador (ver FabricaJugadores)
+     * @param spec2      Segundo jugador
+     * @param porTrabajo Partidas por trabajo
+     * @param aperturas  Jugadas al azar al principio de cada partida
+     * @param semilla    Semilla de las aperturas
+     * @return Trabajos añadidos
+     * @throws IOException Si no se puede escribir
+     * @throws IllegalArgumentException Si algún jugador o número no es válido
+     */
+    public int encolaPartidas(int partidas, String spec1, String spec2, int porTrabajo, int aperturas,
+                              long semilla) throws IOException {
+        compruebaNumeros(partidas, porTrabajo);
+        FabricaJugadores.proveedor(spec1);
+        FabricaJugadores.proveedor(spec2);
+        SplittableRandom r = new SplittableRandom(semilla);
+        String lote = lote();
+        int n = 0;
+        for (int hechas = 0; hechas < partidas; hechas += porTrabajo) {
+            int k = Math.min(porTrabajo, partidas - hechas);
+            String cabecera = String.join("\t", PARTIDAS, spec1, spec2, String.valueOf(k),
+                    String.valueOf(aperturas), String.valueOf(r.nextLong()));
+            publica(pendientes, String.format("%s-%06d", lote, n++), Collections.singletonList(cabecera));
+        }
+        return n;
+    }
+
+    private static void compruebaNumeros(int total, int porTrabajo) {
+        if (total < 0 || porTrabajo < 1) {
+            throw new IllegalArgumentException("Se necesita un total >= 0 y al menos 1 por trabajo (total " + total
+                    + ", por trabajo " + porTrabajo + ")");
+        }
+    }
+
+    /**
+     * Añade trabajos de análisis de las posiciones de un corpus
+     *
+     * @param corpus     Corpus de posiciones
+     * @param spec       Jugador que analiza (ver FabricaJugadores)
+     * @param porTrabajo Posiciones por trabajo
+     * @return Trabajos añadidos
+     * @throws IOException Si no se puede escribir
+     * @throws IllegalArgumentException Si el jugador o porTrabajo no son válidos
+     */
+    public int encolaPosiciones(CorpusPosiciones corpus, String spec, int porTrabajo) throws IOException {
+        compruebaNumeros(0, porTrabajo);
+        FabricaJugadores.proveedor(spec);
+        String lote = lote();
+        int n = 0;
+        List<String> lineas = new ArrayList<>();
+        for (CorpusPosiciones.Posicion p : corpus.getPosiciones()) {
+            if (lineas.isEmpty()) {
+                lineas.add(POSICIONES + "\t" + spec);
+            }
+            lineas.add(CorpusPosiciones.formatea(p));
+            if (lineas.size() > porTrabajo) {
+                publica(pendientes, String.format("%s-%06d", lote, n++), lineas);
+                lineas.clear();
+            }
+        }
+        if (!lineas.isEmpty()) {
+            publica(pendientes, String.format("%s-%06d", lote, n++), lineas);
+        }
+        return n;
+    }
+
+    /**
+     * Prefijo de los trabajos de una llamada, para no pisar los de otras
+     */
+    private static String lote() {
+        return Long.toString(System.currentTimeMillis(), 36) + Integer.toString((int) (System.nanoTime() & 0xFFFF), 36);
+    }
+
+    /**
+     * Escribe un fichero en tmp y lo mueve de forma atómica a su directorio
+     */
+    private void publica(Path dir, String id, List<String> lineas) throws IOException {
+        Path temporal = Files.createTempFile(tmp, id + ".", ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temporal, StandardCharsets.UTF_8)) {
+            for (String l : lineas) {
+                out.write(l);
+                out.newLine();
+            }
+        }
+        mueve(temporal, dir.resolve(id), true);
+    }
+
+    private static void mueve(Path origen, Path destino, boolean reemplaza) throws IOException {
+        try {
+            if (reemplaza) {
+                Files.move(origen, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.move(origen, destino, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (AtomicMoveNotSupportedException e) {
+            throw new IOException("El directorio de la cola no admite renombrados atómicos: " + destino, e);
+        }
+    }
+
+    /**
+     * Reclama un trabajo pendiente
+     *
+     * @param trabajador Nombre del trabajador
+     * @return Fichero reclamado, o null si no queda ninguno
+     * @throws IOException Si no se puede leer la cola
+     */
+    Path reclama(String trabajador) throws IOException {
+        for (Path p : lista(pendientes)) {
+            String id = p.getFileName().toString();
+            if (Files.exists(hechos.resolve(id))) {
+                // Recuperado después de que su trabajador lo terminase
+                Files.deleteIfExists(p);
+                continue;
+            }
+            Path reclamado = reclamados.resolve(id + "." + trabajador);
+            try {
+                mueve(p, reclamado, false);
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                // Otro trabajador se lo ha llevado antes
+                continue;
+            }
+            Files.setLastModifiedTime(reclamado, FileTime.fromMillis(System.currentTimeMillis()));
+            return reclamado;
+        }
+        return null;
+    }
+
+    /**
+     * Devuelve a pendientes los trabajos reclamados que no se han
+     * actualizado en la caducidad
+     *
+     * @param caducidadMs Tiempo sin noticias de un trabajador para darlo por caído
+     * @return Trabajos devueltos
+     * @throws IOException Si no se puede leer la cola
+     */
+    public int recupera(long caducidadMs) throws IOException {
+        int devueltos = 0;
+        long limite = System.currentTimeMillis() - caducidadMs;
+        for (Path p : lista(reclamados)) {
+            try {
+                if (Files.getLastModifiedTime(p).toMillis() >= limite) {
+                    continue;
+                }
+                mueve(p, pendientes.resolve(id(p)), false);
+                devueltos++;
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                // Terminado o recuperado por otro mientras tanto
+            }
+        }
+        return devueltos;
+    }
+
+    private static String id(Path reclamado) {
+        String nom = reclamado.getFileName().toString();
+        int punto = nom.indexOf('.');
+        return punto < 0 ? nom : nom.substring(0, punto);
+    }
+
+    private static List<Path> lista(Path dir) throws IOException {
+        List<Path> l = new ArrayList<>();
+        try (DirectoryStream<Path> ficheros = Files.newDirectoryStream(dir)) {
+            for (Path p : ficheros) {
+                l.add(p);
+            }
+        }
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * Ejecuta trabajos hasta que no queda ninguno pendiente ni reclamado
+     *
+     * @param trabajador  Nombre del trabajador (único entre los que comparten la cola)
+     * @param caducidadMs Caducidad de los trabajos reclamados
+     * @return Estadísticas de este trabajador
+     * @throws IOException Si no se puede leer o escribir la cola
+     */
+    public Estadisticas trabaja(String trabajador, long caducidadMs) throws IOException {
+        final String nombre = trabajador.replaceAll("[^A-Za-z0-9_-]", "_");
+        Estadisticas total = new Estadisticas();
+        Map<String, Jugador> jugadores = new HashMap<>();
+        // Reclamado en curso, al que el latido actualiza la fecha
+        final Path[] actual = new Path[1];
+        ScheduledExecutorService latido = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread h = new Thread(r, "latido-" + nombre);
+            h.setDaemon(true);
+            return h;
+        });
+        long periodo = Math.max(1, caducidadMs / 4);
+        latido.scheduleAtFixedRate(() -> {
+            Path p;
+            synchronized (actual) {
+                p = actual[0];
+            }
+            if (p != null) {
+                try {
+                    Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis()));
+                } catch (IOException e) {
+                    // Recuperado por otro: el resultado se escribirá igualmente
+                }
+            }
+        }, periodo, periodo, TimeUnit.MILLISECONDS);
+
+        long inicio = System.nanoTime();
+        try {
+            while (true) {
+                recupera(caducidadMs);
+                Path reclamado = reclama(nombre);
+                if (reclamado == null) {
+                    if (lista(reclamados).isEmpty() && lista(pendientes).isEmpty()) {
+                        break;
+                    }
+                    // Quedan trabajos de otros: esperar por si alguno se cae
+                    Thread.sleep(ESPERA_MS);
+                    continue;
+                }
+                synchronized (actual) {
+                    actual[0] = reclamado;
+                }
+                try {
+                    total.suma(ejecuta(reclamado, nombre, jugadores));
+                    Files.deleteIfExists(reclamado);
+                } catch (RuntimeException e) {
+                    // Un motor que ha fallado puede haber quedado a medias
+                    jugadores.clear();
+                    falla(reclamado, nombre, e);
+                }
+                synchronized (actual) {
+                    actual[0] = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            latido.shutdownNow();
+        }
+        total.ms = (System.nanoTime() - inicio) / 1000000;
+        return total;
+    }
+
+    /**
+     * Ejecuta un trabajo y publica su resultado en hechos
+     */
+    private Estadisticas ejecuta(Path trabajo, String trabajador, Map<String, Jugador> jugadores) throws IOException {
+        List<String> lineas = Files.readAllLines(trabajo, StandardCharsets.UTF_8);
+        String[] c = lineas.get(0).split("\t");
+        Estadisticas e = new Estadisticas();
+        List<String> salida = new ArrayList<>();
+        salida.add("");
+        long inicio = System.nanoTime();
+        if (c[0].equals(PARTIDAS)) {
+            Jugador j1 = jugador(c[1], jugadores);
+            Jugador j2 = jugador(c[2], jugadores);
+            int n = Integer.parseInt(c[3]);
+            int aperturas = Integer.parseInt(c[4]);
+            SplittableRandom r = new SplittableRandom(Long.parseLong(c[5]));
+            for (int i = 0; i < n; i++) {
+                long apertura = r.nextLong();
+                RegistroPartidas.Partida p = i % 2 == 0 ? EntrenadorRed.juega(j1, j2, aperturas, apertura)
+                        : EntrenadorRed.juega(j2, j1, aperturas, apertura);
+                for (Jugador j : new Jugador[]{j1, j2}) {
+                    if (j instanceof JugadorPropi) {
+                        ((JugadorPropi) j).terminaPartida();
+                    }
+                }
+                for (RegistroPartidas.Jugada jugada : p.jugadas) {
+                    e.jugadas++;
+                    e.nodos += jugada.nodos;
+                }
+                salida.add(RegistroPartidas.formatea(p));
+            }
+            e.unidades = n;
+        } else if (c[0].equals(POSICIONES)) {
+            Jugador j = jugador(c[1], jugadores);
+            for (String l : lineas.subList(1, lineas.size())) {
+                AnalizadorLotes.Resultado r = AnalizadorLotes.analiza(j, CorpusPosiciones.parsea(l));
+                e.jugadas++;
+                e.nodos += r.nodos;
+                salida.add(AnalizadorLotes.formatea(r));
+            }
+            e.unidades = lineas.size() - 1;
+        } else {
+            throw new IllegalArgumentException("Trabajo desconocido: " + c[0]);
+        }
+        e.trabajos = 1;
+        e.ms = (System.nanoTime() - inicio) / 1000000;
+        salida.set(0, String.join("\t", "#", c[0], trabajador, String.valueOf(e.ms), String.valueOf(e.unidades),
+                String.valueOf(e.jugadas), String.valueOf(e.nodos)));
+        publica(hechos, id(trabajo), salida);
+        return e;
+    }
+
+    /**
+     * Mueve un trabajo que ha fallado a fallidos y deja al lado su error
+     */
+    private void falla(Path trabajo, String trabajador, RuntimeException e) throws IOException {
+        String id = id(trabajo);
+        System.err.println(trabajador + ": el trabajo " + id + " ha fallado: " + e);
+        publica(fallidos, id + ".error", Collections.singletonList(trabajador + "\t" + e));
+        try {
+            mueve(trabajo, fallidos.resolve(id), true);
+        } catch (NoSuchFileException ex) {
+            // Recuperado por otro mientras tanto: también fallará allí
+        }
+    }
+
+    /**
+     * Un jugador por especificación y trabajador, que se conserva entre
+     * trabajos (JIT, red leída, tabla de transposición)
+     */
+    private static Jugador jugador(String spec, Map<String, Jugador> jugadores) {
+        Jugador j = jugadores.get(spec);
+        if (j == null) {
+            j = FabricaJugadores.crea(spec);
+            if (j instanceof JugadorPropi) {
+                ((JugadorPropi) j).setMostrarNodos(false);
+            }
+            jugadores.put(spec, j);
+        }
+        return j;
+    }
+
+    /**
+     * Trabajo hecho por un trabajador (o por todos)
+     */
+    public static class Estadisticas {
+        public int trabajos;
+        public long unidades;
+        public long jugadas;
+        public long nodos;
+        public long ms;
+
+        void suma(Estadisticas e) {
+            trabajos += e.trabajos;
+            unidades += e.unidades;
+            jugadas += e.jugadas;
+            nodos += e.nodos;
+            ms += e.ms;
+        }
+
+        @Override
+        public String toString() {
+            double s = Math.max(ms, 1) / 1000.0;
+            return String.format("%d trabajos, %d unidades, %d jugadas, %d nodos en %.1f s"
+                    + " (%.2f unidades/s, %.0f nodos/s)", trabajos, unidades, jugadas, nodos, s, unidades / s, nodos / s);
+        }
+    }
+
+    /**
+     * Estado de la cola
+     */
+    public static class Estado {
+        public int pendientes;
+        public int reclamados;
+        public int hechos;
+        public int fallidos;
+        /** Trabajo hecho por cada trabajador */
+        public final Map<String, Estadisticas> trabajadores = new TreeMap<>();
+        /** Suma de todos los trabajadores, con ms = tiempo entre el primer y el último resultado */
+        public final Estadisticas total = new Estadisticas();
+    }
+
+    /**
+     * @return Recuento de trabajos y rendimiento por trabajador
+     * @throws IOException Si no se puede leer la cola
+     */
+    public Estado estado() throws IOException {
+        Estado s = new Estado();
+        s.pendientes = lista(pendientes).size();
+        s.reclamados = lista(reclamados).size();
+        for (Path p : lista(fallidos)) {
+            if (!p.getFileName().toString().endsWith(".error")) {
+                s.fallidos++;
+            }
+        }
+        long primero = Long.MAX_VALUE;
+        long ultimo = 0;
+        for (Path p : lista(hechos)) {
+            String[] c;
+            long fin;
+            try {
+                c = Files.readAllLines(p, StandardCharsets.UTF_8).get(0).split("\t");
+                fin = Files.getLastModifiedTime(p).toMillis();
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            Estadisticas e = new Estadisticas();
+            e.trabajos = 1;
+            e.ms = Long.parseLong(c[3]);
+            e.unidades = Long.parseLong(c[4]);
+            e.jugadas = Long.parseLong(c[5]);
+            e.nodos = Long.parseLong(c[6]);
+            s.trabajadores.computeIfAbsent(c[2], k -> new Estadisticas()).suma(e);
+            s.total.suma(e);
+            s.hechos++;
+            primero = Math.min(primero, fin - e.ms);
+            ultimo = Math.max(ultimo, fin);
+        }
+        s.total.ms = s.hechos == 0 ? 0 : ultimo - primero;
+        return s;
+    }
+
+    /**
+     * Junta en un fichero los resultados de un tipo, en el orden de los trabajos
+     *
+     * @param tipo    PARTIDAS o POSICIONES
+     * @param destino Fichero de partidas o de resultados de AnalizadorLotes
+     * @return Líneas escritas
+     * @throws IOException Si no se puede leer o escribir
+     */
+    public int recoge(String tipo, Path destino) throws IOException {
+        int n = 0;
+        try (BufferedWriter out = Files.newBufferedWriter(destino, StandardCharsets.UTF_8)) {
+            for (Path p : lista(hechos)) {
+                List<String> lineas = Files.readAllLines(p, StandardCharsets.UTF_8);
+                if (!lineas.get(0).split("\t")[1].equals(tipo)) {
+                    continue;
+                }
+                for (String l : lineas.subList(1, lineas.size())) {
+                    out.write(l);
+                    out.newLine();
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return Nombre por defecto del trabajador: pid@máquina
+     */
+    static String nombrePorDefecto() {
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    private static long caducidad(String[] args, int i) {
+        return args.length > i ? Long.parseLong(args[i]) * 1000 : CADUCIDAD_MS;
+    }
+
+    private static int encola(ColaAutojuego cola, String[] args) throws IOException {
+        if (args.length < 3) {
+            throw new IllegalArgumentException("Falta el número de partidas o el corpus");
+        }
+        if (args[0].equals("encola")) {
+            String spec1 = args.length > 3 ? args[3] : "propi:depth=6,motor=bits,nodos=false";
+            String spec2 = args.length > 4 ? args[4] : spec1;
+            return cola.encolaPartidas(Integer.parseInt(args[2]), spec1, spec2,
+                    args.length > 5 ? Integer.parseInt(args[5]) : 10,
+                    args.length > 6 ? Integer.parseInt(args[6]) : 6,
+                    args.length > 7 ? Long.parseLong(args[7]) : 1);
+        }
+        CorpusPosiciones c = CorpusPosiciones.carga(Paths.get(args[2]));
+        return cola.encolaPosiciones(c, args.length > 3 ? args[3] : "propi:depth=8,motor=bits,nodos=false",
+                args.length > 4 ? Integer.parseInt(args[4]) : 100);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: encola <dir> <partidas> [jugador1] [jugador2] [porTrabajo] [aperturas] [semilla]"
+                    + " | encolaCorpus <dir> <corpus> [jugador] [porTrabajo] | trabaja <dir> [nombre] [caducidad s]"
+                    + " | recupera <dir> [caducidad s] | estado <dir> | recoge <dir> partidas|posiciones <salida>");
+            System.exit(2);
+        }
+        ColaAutojuego cola = new ColaAutojuego(Paths.get(args[1]));
+        switch (args[0]) {
+            case "encola":
+            case "encolaCorpus":
+                try {
+                    int n = encola(cola, args);
+                    System.out.println(n + " trabajos encolados");
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(2);
+                }
+                break;
+            case "trabaja": {
+                String nombre = args.length > 2 ? args[2] : nombrePorDefecto();
+                Estadisticas e = cola.trabaja(nombre, caducidad(args, 3));
+                System.out.println(nombre + ": " + e);
+                break;
+            }
+            case "recupera":
+                System.out.println(cola.recupera(caducidad(args, 2)) + " trabajos devueltos a pendientes");
+                break;
+            case "estado": {
+                Estado s = cola.estado();
+                System.out.printf("Pendientes %d, reclamados %d, hechos %d, fallidos %d%n", s.pendientes, s.reclamados,
+                        s.hechos, s.fallidos);
+                for (Map.Entry<String, Estadisticas> e : s.trabajadores.entrySet()) {
+                    System.out.println("  " + e.getKey() + ": " + e.getValue());
+                }
+                System.out.println("Total: " + s.total);
+                break;
+            }
+            case "recoge": {
+                if (args.length < 4) {
+                    System.err.println("Uso: recoge <dir> partidas|posiciones <salida>");
+                    System.exit(2);
+                }
+                System.out.println(cola.recoge(args[2], Paths.get(args[3])) + " líneas en " + args[3]);
+                break;
+            }
+            default:
+                System.err.println("Orden desconocida: " + args[0]);
+                System.exit(2);
+        }
+    }
+}
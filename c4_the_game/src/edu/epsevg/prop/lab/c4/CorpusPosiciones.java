@@ -0,0 +1,169 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Corpus de posiciones extraídas de partidas guardadas, sin repetidos.
+ * Las posiciones se identifican por el hash de TaulerBits y se guardan en
+ * texto, una por línea: hash, color a mover, apariciones y tablero.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class CorpusPosiciones {
+
+    /**
+     * Una posición del corpus
+     */
+    public static class Posicion {
+        public final long hash;
+        public final int color;
+        public final String tablero;
+        public int apariciones;
+
+        public Posicion(long hash, int color, String tablero, int apariciones) {
+            this.hash = hash;
+            this.color = color;
+            this.tablero = tablero;
+            this.apariciones = apariciones;
+        }
+
+        /**
+         * @return Tauler con el contenido de la posición
+         */
+        public Tauler tauler() {
+            return TaulerBits.descodifica(tablero);
+        }
+    }
+
+    private final Map<Long, Posicion> posiciones = new LinkedHashMap<>();
+
+    /**
+     * Añade todas las posiciones previas a cada jugada de una partida
+     *
+     * @param p Partida
+     * @return Número de posiciones nuevas
+     */
+    public int anadePartida(RegistroPartidas.Partida p) {
+        TaulerBits t = new TaulerBits(p.mida);
+        int nuevas = 0;
+        int color = 1;
+        for (RegistroPartidas.Jugada j : p.jugadas) {
+            if (anade(t, color)) {
+                nuevas++;
+            }
+            t.afegeix(j.columna, color);
+            color = -color;
+        }
+        return nuevas;
+    }
+
+    /**
+     * Añade una posición si no estaba ya en el corpus
+     *
+     * @param t     Tablero
+     * @param color Color que mueve
+     * @return true si la posición es nueva
+     */
+    public boolean anade(TaulerBits t, int color) {
+        long hash = t.hash();
+        Posicion p = posiciones.get(hash);
+        if (p != null) {
+            p.apariciones++;
+            return false;
+        }
+        posiciones.put(hash, new Posicion(hash, color, t.codifica(), 1));
+        return true;
+    }
+
+    /**
+     * Indexa todas las partidas de un fichero
+     *
+     * @param fichero Fichero de partidas
+     * @return Número de posiciones nuevas
+     * @throws IOException Si no se puede leer
+     */
+    public int anadeFichero(Path fichero) throws IOException {
+        int nuevas = 0;
+        for (RegistroPartidas.Partida p : RegistroPartidas.lee(fichero)) {
+            nuevas += anadePartida(p);
+        }
+        return nuevas;
+    }
+
+    /**
+     * @return Posiciones en orden de inserción
+     */
+    public Collection<Posicion> getPosiciones() {
+        return posiciones.values();
+    }
+
+    /**
+     * @return Número de posiciones distintas
+     */
+    public int size() {
+        return posiciones.size();
+    }
+
+    /**
+     * Guarda el corpus en un fichero de texto
+     *
+     * @param fichero Fichero destino
+     * @throws IOException Si no se puede escribir
+     */
+    public void guarda(Path fichero) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(fichero, StandardCharsets.UTF_8)) {
+            for (Posicion p : posiciones.values()) {
+                out.write(formatea(p));
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Carga un corpus guardado con guarda()
+     *
+     * @param fichero Fichero del corpus
+     * @return Corpus leído
+     * @throws IOException Si no se puede leer
+     */
+    public static CorpusPosiciones carga(Path fichero) throws IOException {
+        CorpusPosiciones c = new CorpusPosiciones();
+        try (BufferedReader in = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = in.readLine()) != null) {
+                if (linea.isEmpty() || linea.charAt(0) == '#') {
+                    continue;
+                }
+                Posicion p = parsea(linea);
+                c.posiciones.put(p.hash, p);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * @param p Posición
+     * @return Línea del fichero del corpus: hash, color, apariciones y tablero
+     */
+    static String formatea(Posicion p) {
+        return Long.toHexString(p.hash) + "\t" + p.color + "\t" + p.apariciones + "\t" + p.tablero;
+    }
+
+    /**
+     * @param linea Línea escrita con formatea()
+     * @return Posición de la línea
+     */
+    static Posicion parsea(String linea) {
+        String[] f = linea.split("\t", -1);
+        long hash = Long.parseUnsignedLong(f[0], 16);
+        return new Posicion(hash, Integer.parseInt(f[1]), f[3], Integer.parseInt(f[2]));
+    }
+}
@@ -0,0 +1,301 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+/**
+ * Partidas entre dos jugadores automáticos sin interfaz gráfica.
+ * Cada jugada se notifica a un Observador desde el hilo de la partida, por
+ * lo que el observador no debe bloquearse.
+ *
+ * Uso: Enfrentamiento <jugador1> <jugador2> [partidas] (ver FabricaJugadores).
+ * Los jugadores alternan el color en cada partida; con -Dc4.registro=fichero
+ * las partidas se guardan con RegistroPartidas. Con -Dc4.reloj=60s+1s (ver
+ * Reloj) cada partida tiene reloj: quien se pasa de tiempo pierde, y al
+ * final se muestra el tiempo usado y las derrotas por tiempo de cada uno.
+ * Con -Dc4.semilla=N la partida i usa la semilla N + i (sin ella, una al
+ * azar que se muestra al empezar); cada partida guarda su semilla, y para
+ * repetirla basta con -Dc4.semilla=semilla, una partida y los jugadores en
+ * el orden en que jugaron.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class Enfrentamiento {
+
+    /**
+     * Recibe los eventos de una partida
+     */
+    public interface Observador {
+
+        /**
+         * Se ha jugado una ficha
+         *
+         * @param p      Partida en curso (con la jugada ya añadida)
+         * @param j      Jugada realizada
+         * @param rojas  Fichas de color 1 tras la jugada
+         * @param azules Fichas de color -1 tras la jugada
+         */
+        void jugada(RegistroPartidas.Partida p, RegistroPartidas.Jugada j, long rojas, long azules);
+
+        /**
+         * La partida ha terminado
+         *
+         * @param p Partida con el resultado
+         */
+        default void fin(RegistroPartidas.Partida p) {
+        }
+    }
+
+    /** Observador que no hace nada */
+    public static final Observador NINGUNO = (p, j, rojas, azules) -> {
+    };
+
+    /**
+     * Pide una jugada y la anota con el tiempo y las estadísticas del jugador
+     *
+     * @param jugador Jugador que mueve
+     * @param t       Tablero actual
+     * @param color   Color del jugador
+     * @return Jugada anotada (o solo con la columna y el tiempo si no hay
+     *         estadísticas)
+     */
+    public static RegistroPartidas.Jugada mueve(Jugador jugador, Tauler t, int color) {
+        long inicio = System.currentTimeMillis();
+        int col = jugador.moviment(t, color);
+        long tiempo = System.currentTimeMillis() - inicio;
+        if (jugador instanceof IEstadisticas) {
+            IEstadisticas e = (IEstadisticas) jugador;
+            return new RegistroPartidas.Jugada(col, e.getUltimoValor(), e.getProfundidadAlcanzada(),
+                    e.getNodosExplorados(), tiempo);
+        }
+        RegistroPartidas.Jugada j = new RegistroPartidas.Jugada(col);
+        j.tiempoMs = tiempo;
+        return j;
+    }
+
+    /**
+     * Da a cada jugador aleatorio (IAleatorio) su semilla para la partida,
+     * derivada de la semilla de la partida
+     *
+     * @param p1      Jugador con color 1
+     * @param p2      Jugador con color -1
+     * @param semilla Semilla de la partida
+     */
+    public static void siembra(Jugador p1, Jugador p2, long semilla) {
+        // Independiente de otros usos de la misma semilla (las aperturas)
+        SplittableRandom r = new SplittableRandom(semilla).split();
+        long s1 = r.nextLong();
+        long s2 = r.nextLong();
+        if (p1 instanceof IAleatorio) {
+            ((IAleatorio) p1).setSemilla(s1);
+        }
+        if (p2 instanceof IAleatorio) {
+            ((IAleatorio) p2).setSemilla(s2);
+        }
+    }
+
+    /**
+     * Juega una partida completa. Un jugador que elige una columna ilegal
+     * pierde la partida.
+     *
+     * @param p1   Jugador con color 1 (empieza)
+     * @param p2   Jugador con color -1
+     * @param mida Tamaño del tablero
+     * @param obs  Observador de la partida
+     * @return Partida jugada con su resultado
+     */
+    public static RegistroPartidas.Partida juega(Jugador p1, Jugador p2, int mida, Observador obs) {
+        return juega(p1, p2, mida, obs, null);
+    }
+
+    /**
+     * Juega una partida completa con reloj. Un jugador que elige una
+     * columna ilegal o se pasa de tiempo pierde la partida (la jugada fuera
+     * de tiempo no se anota); quién se ha pasado se ve en
+     * reloj.getRestante(), que queda negativo.
+     *
+     * @param p1    Jugador con color 1 (empieza)
+     * @param p2    Jugador con color -1
+     * @param mida  Tamaño del tablero
+     * @param obs   Observador de la partida
+     * @param reloj Reloj de la partida (se reinicia al empezar), o null
+     * @return Partida jugada con su resultado
+     */
+    public static RegistroPartidas.Partida juega(Jugador p1, Jugador p2, int mida, Observador obs, Reloj reloj) {
+        return juega(p1, p2, mida, obs, reloj, ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Juega una partida completa con reloj y una semilla dada: la misma
+     * semilla con los mismos jugadores repite la partida (salvo los que
+     * dependen del tiempo)
+     *
+     * @param p1      Jugador con color 1 (empieza)
+     * @param p2      Jugador con color -1
+     * @param mida    Tamaño del tablero
+     * @param obs     Observador de la partida
+     * @param reloj   Reloj de la partida (se reinicia al empezar), o null
+     * @param semilla Semilla de la partida (ver siembra)
+     * @return Partida jugada con su resultado y su semilla
+     */
+    public static RegistroPartidas.Partida juega(Jugador p1, Jugador p2, int mida, Observador obs, Reloj reloj,
+                                                 long semilla) {
+        siembra(p1, p2, semilla);
+        if (reloj != null) {
+            reloj.reinicia();
+        }
+        Tauler t = new Tauler(mida);
+        TaulerBits bits = new TaulerBits(mida);
+        RegistroPartidas.Partida p = new RegistroPartidas.Partida();
+        p.mida = mida;
+        p.jugador1 = p1.nom();
+        p.jugador2 = p2.nom();
+        p.semilla = semilla;
+
+        int color = 1;
+        Jugador actual = p1;
+        while (true) {
+            if (reloj != null && actual instanceof IReloj) {
+                ((IReloj) actual).setReloj(reloj.getRestante(color), reloj.getIncremento());
+            }
+            RegistroPartidas.Jugada j = mueve(actual, t, color);
+            if (reloj != null && !reloj.descuenta(color, j.tiempoMs)) {
+                p.resultado = -color;
+                break;
+            }
+            if (!t.movpossible(j.columna)) {
+                p.resultado = -color;
+                break;
+            }
+            t.afegeix(j.columna, color);
+            bits.afegeix(j.columna, color);
+            p.jugadas.add(j);
+            obs.jugada(p, j, bits.fichas(1), bits.fichas(-1));
+            if (t.solucio(j.columna, color)) {
+                p.resultado = color;
+                break;
+            }
+            if (!t.espotmoure()) {
+                p.resultado = 0;
+                break;
+            }
+            color = -color;
+            actual = actual == p1 ? p2 : p1;
+        }
+
+        for (Jugador j : new Jugador[]{p1, p2}) {
+            if (j instanceof JugadorPropi) {
+                ((JugadorPropi) j).terminaPartida();
+            }
+            if (reloj != null && j instanceof IReloj) {
+                ((IReloj) j).setReloj(0, 0);
+            }
+        }
+        obs.fin(p);
+        return p;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: Enfrentamiento <jugador1> <jugador2> [partidas]  " + FabricaJugadores.AYUDA);
+            System.exit(2);
+        }
+        Supplier<Jugador> a;
+        Supplier<Jugador> b;
+        try {
+            a = FabricaJugadores.proveedor(args[0]);
+            b = FabricaJugadores.proveedor(args[1]);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        int partidas = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        String registro = System.getProperty("c4.registro");
+        Reloj reloj = null;
+        if (System.getProperty("c4.reloj") != null) {
+            try {
+                reloj = Reloj.parsea(System.getProperty("c4.reloj"));
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(2);
+                return;
+            }
+        }
+
+        long semilla;
+        try {
+            semilla = Long.parseLong(System.getProperty("c4.semilla", String.valueOf(ThreadLocalRandom.current().nextLong())));
+        } catch (NumberFormatException e) {
+            System.err.println("Semilla no válida: " + System.getProperty("c4.semilla"));
+            System.exit(2);
+            return;
+        }
+        System.out.println("Semilla: " + semilla);
+
+        // Victorias de args[0], de args[1] y tablas
+        int[] marcador = new int[3];
+        // Por jugador: tiempo usado, jugadas, tiempo disponible (base más
+        // incrementos) y derrotas por tiempo
+        long[] usado = new long[2];
+        long[] jugadas = new long[2];
+        long[] disponible = new long[2];
+        int[] banderas = new int[2];
+        for (int i = 0; i < partidas; i++) {
+            boolean empiezaA = i % 2 == 0;
+            RegistroPartidas.Partida p = empiezaA ? juega(a.get(), b.get(), 8, NINGUNO, reloj, semilla + i)
+                    : juega(b.get(), a.get(), 8, NINGUNO, reloj, semilla + i);
+            if (p.resultado == 0) {
+                marcador[2]++;
+            } else {
+                marcador[(p.resultado == 1) == empiezaA ? 0 : 1]++;
+            }
+            for (int k = 0; k < p.jugadas.size(); k++) {
+                // La jugada k es del jugador que empieza si k es par
+                int jugador = (k % 2 == 0) == empiezaA ? 0 : 1;
+                usado[jugador] += p.jugadas.get(k).tiempoMs;
+                jugadas[jugador]++;
+            }
+            if (reloj != null) {
+                for (int color : new int[]{1, -1}) {
+                    int jugador = (color == 1) == empiezaA ? 0 : 1;
+                    int propias = (p.jugadas.size() + (color == 1 ? 1 : 0)) / 2;
+                    disponible[jugador] += reloj.getBase() + reloj.getIncremento() * propias;
+                    if (reloj.getRestante(color) < 0) {
+                        banderas[jugador]++;
+                        // La jugada fuera de tiempo no está en la partida
+                        usado[jugador] += reloj.getBase() + reloj.getIncremento() * propias
+                                - tiempoPropio(p, color) - reloj.getRestante(color);
+                    }
+                }
+            }
+            if (registro != null) {
+                RegistroPartidas.anade(Paths.get(registro), p);
+            }
+            System.out.println(RegistroPartidas.formatea(p));
+        }
+        System.out.printf("%s %d - %d %s (%d tablas)%n", args[0], marcador[0], marcador[1], args[1], marcador[2]);
+        for (int k = 0; k < 2; k++) {
+            System.out.printf("%s: %.1f ms por jugada", args[k], usado[k] / (double) Math.max(1, jugadas[k]));
+            if (reloj != null) {
+                System.out.printf(", %.1f%% del reloj usado, %d derrotas por tiempo (%.1f%%)",
+                        100.0 * usado[k] / Math.max(1, disponible[k]), banderas[k], 100.0 * banderas[k] / partidas);
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * @return Tiempo de las jugadas anotadas de un color
+     */
+    private static long tiempoPropio(RegistroPartidas.Partida p, int color) {
+        long ms = 0;
+        for (int k = color == 1 ? 0 : 1; k < p.jugadas.size(); k += 2) {
+            ms += p.jugadas.get(k).tiempoMs;
+        }
+        return ms;
+    }
+}
@@ -0,0 +1,524 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Entrenamiento fuera de línea de RedNeuronal.
+ *
+ * autojuego: juega partidas de un motor contra sí mismo en tableros de 8
+ * empezando con unas jugadas al azar (para no repetir siempre la misma
+ * partida) y las añade a un fichero de RegistroPartidas.
+ *
+ * entrena: toma cada posición de las partidas terminadas desde las dos
+ * perspectivas con un objetivo entre -1 y 1 que mezcla el resultado final
+ * con la valoración anotada por el motor en esa jugada, entrena
+ * la red en coma flotante (Adam, error cuadrático sobre tanh de la salida)
+ * y la guarda cuantizada a enteros de 16 bits. Al final se comprueba el
+ * error de la red cuantizada, evaluada con RedNeuronal, sobre las
+ * partidas de validación.
+ *
+ * enfrenta: mide la fuerza de una red contra otro jugador (por ejemplo
+ * el mismo motor con Heuristica) con parejas de partidas desde aperturas
+ * al azar.
+ *
+ * Uso: EntrenadorRed autojuego fichero partidas [jugador] [aperturas] [semilla]
+ *      EntrenadorRed entrena partidas red [epocas] [ocultas]
+ *      EntrenadorRed enfrenta jugador1 jugador2 [parejas] [aperturas]
+ *
+ * @author Alex Aranda Salinas
+ */
+public class EntrenadorRed {
+
+    private static final int MIDA = 8;
+    private static final int LOTE = 256;
+    private static final double APRENDIZAJE = 0.0005;
+    private static final double BETA1 = 0.9;
+    private static final double BETA2 = 0.999;
+    // Peso de la valoración de la búsqueda frente al resultado en el objetivo
+    private static final double PESO_BUSQUEDA = 0.75;
+    // Una de cada VALIDACION partidas se reserva para validar
+    private static final int VALIDACION = 10;
+
+    /**
+     * Juega partidas de un motor contra sí mismo y las añade al fichero
+     *
+     * @param fichero   Fichero de partidas
+     * @param partidas  Número de partidas
+     * @param spec      Jugador (ver FabricaJugadores)
+     * @param aperturas Jugadas al azar al principio de cada partida
+     * @param semilla   Semilla de las aperturas
+     * @throws IOException Si no se puede escribir
+     */
+    public static void autojuego(Path fichero, int partidas, String spec, int aperturas, long semilla)
+            throws IOException {
+        Jugador jugador = FabricaJugadores.crea(spec);
+        SplittableRandom r = new SplittableRandom(semilla);
+        int[] resultados = new int[3];
+        for (int n = 0; n < partidas; n++) {
+            RegistroPartidas.Partida p = juega(jugador, jugador, aperturas, r.nextLong());
+            RegistroPartidas.anade(fichero, p);
+            resultados[p.resultado + 1]++;
+            if ((n + 1) % 100 == 0) {
+                System.out.println((n + 1) + " partidas");
+            }
+        }
+        System.out.printf("%d partidas en %s: rojas %d, azules %d, tablas %d%n",
+                partidas, fichero, resultados[2], resultados[0], resultados[1]);
+    }
+
+    /**
+     * Compara dos jugadores con parejas de partidas: cada apertura al azar
+     * se juega dos veces cambiando los colores, para que los motores
+     * deterministas no repitan siempre la misma partida
+     *
+     * @param spec1     Primer jugador (ver FabricaJugadores)
+     * @param spec2     Segundo jugador
+     * @param parejas   Número de parejas de partidas
+     * @param aperturas Jugadas al azar al principio de cada partida
+     * @param semilla   Semilla de las aperturas
+     * @return Puntos del primer jugador (1 por victoria, 0.5 por tablas)
+     */
+    public static double enfrenta(String spec1, String spec2, int parejas, int aperturas, long semilla) {
+        Jugador j1 = FabricaJugadores.crea(spec1);
+        Jugador j2 = FabricaJugadores.crea(spec2);
+        SplittableRandom r = new SplittableRandom(semilla);
+        int[] resultados = new int[3];
+        // Tiempo y jugadas de cada jugador fuera de la apertura
+        long[] tiempo = new long[2];
+        long[] jugadas = new long[2];
+        for (int n = 0; n < parejas; n++) {
+            long apertura = r.nextLong();
+            RegistroPartidas.Partida p = juega(j1, j2, aperturas, apertura);
+            resultados[p.resultado + 1]++;
+            cuentaTiempo(p, aperturas, 0, tiempo, jugadas);
+            p = juega(j2, j1, aperturas, apertura);
+            resultados[1 - p.resultado]++;
+            cuentaTiempo(p, aperturas, 1, tiempo, jugadas);
+        }
+        double puntos = resultados[2] + resultados[1] / 2.0;
+        System.out.printf("%s contra %s: %d victorias, %d derrotas, %d tablas (%.1f%%)%n", spec1, spec2,
+                resultados[2], resultados[0], resultados[1], 100 * puntos / (2 * parejas));
+        System.out.printf("Tiempo medio por jugada: %.2f ms / %.2f ms%n",
+                tiempo[0] / (double) Math.max(1, jugadas[0]), tiempo[1] / (double) Math.max(1, jugadas[1]));
+        return puntos;
+    }
+
+    /**
+     * Suma el tiempo de las jugadas de cada jugador
+     *
+     * @param primero Índice del jugador que lleva las rojas en esta partida
+     */
+    private static void cuentaTiempo(RegistroPartidas.Partida p, int aperturas, int primero,
+                                     long[] tiempo, long[] jugadas) {
+        for (int i = aperturas; i < p.jugadas.size(); i++) {
+            int jugador = (primero + i) % 2;
+            tiempo[jugador] += p.jugadas.get(i).tiempoMs;
+            jugadas[jugador]++;
+        }
+    }
+
+    /**
+     * Juega una partida en un tablero de 8 con unas jugadas al azar al
+     * principio
+     *
+     * @param rojo     Jugador con color 1
+     * @param azul     Jugador con color -1
+     * @param aperturas Jugadas al azar
+     * @param semilla  Semilla de la apertura y de los jugadores aleatorios (la
+     *                 misma semilla da la misma partida)
+     * @return Partida terminada
+     */
+    static RegistroPartidas.Partida juega(Jugador rojo, Jugador azul, int aperturas, long semilla) {
+        SplittableRandom r = new SplittableRandom(semilla);
+        Enfrentamiento.siembra(rojo, azul, semilla);
+        RegistroPartidas.Partida p = new RegistroPartidas.Partida();
+        p.semilla = semilla;
+        p.mida = MIDA;
+        p.jugador1 = rojo.nom();
+        p.jugador2 = azul.nom();
+        Tauler t = new Tauler(MIDA);
+        int color = 1;
+        while (p.resultado == RegistroPartidas.PENDIENTE) {
+            RegistroPartidas.Jugada j;
+            if (p.jugadas.size() < aperturas) {
+                j = new RegistroPartidas.Jugada(aleatoriaSinGanar(t, color, r));
+            } else {
+                j = Enfrentamiento.mueve(color == 1 ? rojo : azul, t, color);
+            }
+            p.jugadas.add(j);
+            if (!t.movpossible(j.columna)) {
+                p.resultado = -color;
+                break;
+            }
+            t.afegeix(j.columna, color);
+            if (t.solucio(j.columna, color)) {
+                p.resultado = color;
+            } else if (!t.espotmoure()) {
+                p.resultado = 0;
+            }
+            color = -color;
+        }
+        return p;
+    }
+
+    /**
+     * Columna legal al azar que no gana en el acto (una apertura que ya
+     * termina la partida no enseña nada)
+     */
+    private static int aleatoriaSinGanar(Tauler t, int color, SplittableRandom r) {
+        int[] columnas = new int[MIDA];
+        int k = 0;
+        for (int col = 0; col < MIDA; col++) {
+            if (t.movpossible(col)) {
+                Tauler copia = new Tauler(t);
+                copia.afegeix(col, color);
+                if (!copia.solucio(col, color)) {
+                    columnas[k++] = col;
+                }
+            }
+        }
+        if (k == 0) {
+            for (int col = 0; col < MIDA; col++) {
+                if (t.movpossible(col)) {
+                    columnas[k++] = col;
+                }
+            }
+        }
+        return columnas[r.nextInt(k)];
+    }
+
+    /**
+     * Posiciones de entrenamiento: fichas rojas, fichas azules, resultado
+     * de la partida para las rojas y objetivo para las rojas
+     */
+    private static class Muestras {
+        long[] rojas = new long[1024];
+        long[] azules = new long[1024];
+        byte[] resultado = new byte[1024];
+        float[] objetivo = new float[1024];
+        int n;
+
+        void anade(long r, long a, int res, double obj) {
+            if (n == rojas.length) {
+                rojas = Arrays.copyOf(rojas, 2 * n);
+                azules = Arrays.copyOf(azules, 2 * n);
+                resultado = Arrays.copyOf(resultado, 2 * n);
+                objetivo = Arrays.copyOf(objetivo, 2 * n);
+            }
+            rojas[n] = r;
+            azules[n] = a;
+            resultado[n] = (byte) res;
+            objetivo[n] = (float) obj;
+            n++;
+        }
+
+        /**
+         * El objetivo mezcla el resultado con la valoración de la búsqueda
+         * anotada en la jugada (vista por el color que mueve); solo con el
+         * resultado la red memoriza las partidas en lugar de generalizar
+         */
+        void anade(RegistroPartidas.Partida p) {
+            TaulerBits t = new TaulerBits(MIDA);
+            int color = 1;
+            for (RegistroPartidas.Jugada j : p.jugadas) {
+                double obj = p.resultado;
+                if (j.anotada) {
+                    obj = (1 - PESO_BUSQUEDA) * p.resultado
+                            + PESO_BUSQUEDA * Math.tanh(color * (double) j.valor / RedNeuronal.ESCALA);
+                }
+                anade(t.fichas(1), t.fichas(-1), p.resultado, obj);
+                t.afegeix(j.columna, color);
+                color = -color;
+            }
+        }
+    }
+
+    /**
+     * Red en coma flotante con la misma forma que RedNeuronal y el
+     * estado de Adam
+     */
+    private static class Red {
+        final int ocultas;
+        final double[] w1;
+        final double[] b1;
+        final double[] w2;
+        final double[] b2 = new double[1];
+        final double[][] parametros;
+        final double[][] gradientes;
+        final double[][] m;
+        final double[][] v;
+        int pasos;
+
+        // Memoria de una pasada: acumuladores de las dos perspectivas
+        final double[] propio;
+        final double[] rival;
+
+        Red(int ocultas, SplittableRandom r) {
+            this.ocultas = ocultas;
+            w1 = new double[RedNeuronal.ENTRADAS * ocultas];
+            b1 = new double[ocultas];
+            w2 = new double[2 * ocultas];
+            for (int i = 0; i < w1.length; i++) {
+                w1[i] = (r.nextDouble() - 0.5) * 0.2;
+            }
+            for (int j = 0; j < ocultas; j++) {
+                b1[j] = 0.5;
+            }
+            for (int i = 0; i < w2.length; i++) {
+                w2[i] = (r.nextDouble() - 0.5) * 0.2;
+            }
+            parametros = new double[][]{w1, b1, w2, b2};
+            gradientes = new double[4][];
+            m = new double[4][];
+            v = new double[4][];
+            for (int i = 0; i < 4; i++) {
+                gradientes[i] = new double[parametros[i].length];
+                m[i] = new double[parametros[i].length];
+                v[i] = new double[parametros[i].length];
+            }
+            propio = new double[ocultas];
+            rival = new double[ocultas];
+        }
+
+        /**
+         * @return Salida de la red antes de tanh
+         */
+        double salida(long mias, long suyas) {
+            acumula(propio, mias, suyas);
+            acumula(rival, suyas, mias);
+            double z = b2[0];
+            for (int j = 0; j < ocultas; j++) {
+                z += w2[j] * recorta(propio[j]) + w2[ocultas + j] * recorta(rival[j]);
+            }
+            return z;
+        }
+
+        private void acumula(double[] acum, long mias, long suyas) {
+            System.arraycopy(b1, 0, acum, 0, ocultas);
+            suma(acum, mias, 0);
+            suma(acum, suyas, 64);
+        }
+
+        private void suma(double[] acum, long fichas, int desplazamiento) {
+            while (fichas != 0) {
+                int fila = (desplazamiento + Long.numberOfTrailingZeros(fichas)) * ocultas;
+                fichas &= fichas - 1;
+                for (int j = 0; j < ocultas; j++) {
+                    acum[j] += w1[fila + j];
+                }
+            }
+        }
+
+        private static double recorta(double x) {
+            return x < 0 ? 0 : (x > 1 ? 1 : x);
+        }
+
+        /**
+         * Pasada hacia delante y hacia atrás de una muestra; acumula los
+         * gradientes
+         *
+         * @return Error cuadrático de la muestra
+         */
+        double aprende(long mias, long suyas, double objetivo) {
+            double y = Math.tanh(salida(mias, suyas));
+            double dz = 2 * (y - objetivo) * (1 - y * y);
+            double[] gw1 = gradientes[0];
+            double[] gb1 = gradientes[1];
+            double[] gw2 = gradientes[2];
+            gradientes[3][0] += dz;
+            for (int j = 0; j < ocultas; j++) {
+                gw2[j] += dz * recorta(propio[j]);
+                gw2[ocultas + j] += dz * recorta(rival[j]);
+                // La derivada del recorte es 1 solo dentro de (0, 1)
+                propio[j] = propio[j] > 0 && propio[j] < 1 ? dz * w2[j] : 0;
+                rival[j] = rival[j] > 0 && rival[j] < 1 ? dz * w2[ocultas + j] : 0;
+                gb1[j] += propio[j] + rival[j];
+            }
+            // Cada ficha entra en un acumulador como propia y en el otro como del rival
+            gradiente(gw1, mias, 0, propio);
+            gradiente(gw1, suyas, 64, propio);
+            gradiente(gw1, suyas, 0, rival);
+            gradiente(gw1, mias, 64, rival);
+            return (y - objetivo) * (y - objetivo);
+        }
+
+        private void gradiente(double[] gw1, long fichas, int desplazamiento, double[] delta) {
+            while (fichas != 0) {
+                int fila = (desplazamiento + Long.numberOfTrailingZeros(fichas)) * ocultas;
+                fichas &= fichas - 1;
+                for (int j = 0; j < ocultas; j++) {
+                    gw1[fila + j] += delta[j];
+                }
+            }
+        }
+
+        void paso(int muestras) {
+            pasos++;
+            double c1 = 1 - Math.pow(BETA1, pasos);
+            double c2 = 1 - Math.pow(BETA2, pasos);
+            for (int i = 0; i < 4; i++) {
+                double[] p = parametros[i];
+                double[] g = gradientes[i];
+                for (int k = 0; k < p.length; k++) {
+                    double gk = g[k] / muestras;
+                    m[i][k] = BETA1 * m[i][k] + (1 - BETA1) * gk;
+                    v[i][k] = BETA2 * v[i][k] + (1 - BETA2) * gk * gk;
+                    p[k] -= APRENDIZAJE * (m[i][k] / c1) / (Math.sqrt(v[i][k] / c2) + 1e-8);
+                    g[k] = 0;
+                }
+            }
+        }
+
+        RedNeuronal cuantiza() {
+            short[] q1 = new short[w1.length];
+            short[] qb1 = new short[ocultas];
+            short[] q2 = new short[w2.length];
+            for (int i = 0; i < w1.length; i++) {
+                q1[i] = aShort(w1[i] * RedNeuronal.QA);
+            }
+            for (int j = 0; j < ocultas; j++) {
+                qb1[j] = aShort(b1[j] * RedNeuronal.QA);
+            }
+            for (int i = 0; i < w2.length; i++) {
+                q2[i] = aShort(w2[i] * RedNeuronal.QB);
+            }
+            return new RedNeuronal(ocultas, q1, qb1, q2,
+                    (int) Math.round(b2[0] * RedNeuronal.QA * RedNeuronal.QB));
+        }
+
+        private static short aShort(double x) {
+            return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(x)));
+        }
+    }
+
+    /**
+     * Entrena una red con las partidas terminadas de un fichero
+     *
+     * @param partidas Fichero de partidas (RegistroPartidas)
+     * @param destino  Fichero de la red
+     * @param epocas   Pasadas sobre las muestras de entrenamiento
+     * @param ocultas  Neuronas de la capa oculta
+     * @return Red cuantizada guardada
+     * @throws IOException Si no se pueden leer las partidas o escribir la red
+     */
+    public static RedNeuronal entrena(Path partidas, Path destino, int epocas, int ocultas) throws IOException {
+        Muestras entrenamiento = new Muestras();
+        Muestras validacion = new Muestras();
+        int n = 0;
+        for (RegistroPartidas.Partida p : RegistroPartidas.lee(partidas)) {
+            if (p.mida == MIDA && p.resultado != RegistroPartidas.PENDIENTE) {
+                (n++ % VALIDACION == 0 ? validacion : entrenamiento).anade(p);
+            }
+        }
+        if (entrenamiento.n == 0) {
+            throw new IOException(partidas + " no tiene partidas terminadas de tamaño " + MIDA);
+        }
+        System.out.printf("%d partidas: %d posiciones de entrenamiento, %d de validación%n",
+                n, entrenamiento.n, validacion.n);
+
+        SplittableRandom r = new SplittableRandom(1);
+        Red red = new Red(ocultas, r);
+        int[] orden = new int[entrenamiento.n];
+        for (int i = 0; i < orden.length; i++) {
+            orden[i] = i;
+        }
+        for (int epoca = 1; epoca <= epocas; epoca++) {
+            for (int i = orden.length - 1; i > 0; i--) {
+                int k = r.nextInt(i + 1);
+                int x = orden[i];
+                orden[i] = orden[k];
+                orden[k] = x;
+            }
+            double error = 0;
+            int enLote = 0;
+            for (int i : orden) {
+                long rj = entrenamiento.rojas[i];
+                long az = entrenamiento.azules[i];
+                double obj = entrenamiento.objetivo[i];
+                error += red.aprende(rj, az, obj);
+                error += red.aprende(az, rj, -obj);
+                enLote += 2;
+                if (enLote == LOTE) {
+                    red.paso(enLote);
+                    enLote = 0;
+                }
+            }
+            if (enLote > 0) {
+                red.paso(enLote);
+            }
+            System.out.printf("Época %d: error %.4f, validación %.4f%n",
+                    epoca, error / (2.0 * orden.length), errorValidacion(red, validacion));
+        }
+
+        RedNeuronal cuantizada = red.cuantiza();
+        cuantizada.guarda(destino);
+        System.out.printf("Red cuantizada: validación %.4f, acierto del ganador %.1f%%%n",
+                errorCuantizada(cuantizada, validacion), 100 * aciertos(cuantizada, validacion));
+        return cuantizada;
+    }
+
+    private static double errorValidacion(Red red, Muestras m) {
+        double error = 0;
+        for (int i = 0; i < m.n; i++) {
+            double y = Math.tanh(red.salida(m.rojas[i], m.azules[i]));
+            error += (y - m.objetivo[i]) * (y - m.objetivo[i]);
+        }
+        return error / Math.max(1, m.n);
+    }
+
+    private static double errorCuantizada(RedNeuronal red, Muestras m) {
+        TaulerBits t = new TaulerBits(MIDA);
+        double error = 0;
+        for (int i = 0; i < m.n; i++) {
+            t.carga(m.rojas[i], m.azules[i]);
+            double y = Math.tanh(red.h(t, 1) / (double) RedNeuronal.ESCALA);
+            error += (y - m.objetivo[i]) * (y - m.objetivo[i]);
+        }
+        return error / Math.max(1, m.n);
+    }
+
+    /**
+     * Fracción de posiciones de partidas decididas en las que el signo de
+     * la evaluación coincide con el ganador
+     */
+    private static double aciertos(RedNeuronal red, Muestras m) {
+        TaulerBits t = new TaulerBits(MIDA);
+        int total = 0;
+        int bien = 0;
+        for (int i = 0; i < m.n; i++) {
+            if (m.resultado[i] != 0) {
+                t.carga(m.rojas[i], m.azules[i]);
+                total++;
+                if (Integer.signum(red.h(t, 1)) == m.resultado[i]) {
+                    bien++;
+                }
+            }
+        }
+        return bien / (double) Math.max(1, total);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 3 && args[0].equals("autojuego")) {
+            autojuego(Paths.get(args[1]), Integer.parseInt(args[2]),
+                    args.length > 3 ? args[3] : "propi:depth=6,motor=bits,nodos=false",
+                    args.length > 4 ? Integer.parseInt(args[4]) : 6,
+                    args.length > 5 ? Long.parseLong(args[5]) : 1);
+        } else if (args.length >= 3 && args[0].equals("entrena")) {
+            entrena(Paths.get(args[1]), Paths.get(args[2]),
+                    args.length > 3 ? Integer.parseInt(args[3]) : 4,
+                    args.length > 4 ? Integer.parseInt(args[4]) : 64);
+        } else if (args.length >= 3 && args[0].equals("enfrenta")) {
+            enfrenta(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 50,
+                    args.length > 4 ? Integer.parseInt(args[4]) : 4, 1);
+        } else {
+            System.err.println("Uso: EntrenadorRed autojuego <fichero> <partidas> [jugador] [aperturas] [semilla]");
+            System.err.println("     EntrenadorRed entrena <partidas> <red> [epocas] [ocultas]");
+            System.err.println("     EntrenadorRed enfrenta <jugador1> <jugador2> [parejas] [aperturas]");
+            System.exit(2);
+        }
+    }
+}
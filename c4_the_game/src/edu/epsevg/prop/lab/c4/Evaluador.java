@@ -0,0 +1,32 @@
+package edu.epsevg.prop.lab.c4;
+
+/**
+ * Función de evaluación de las hojas de la búsqueda.
+ *
+ * Las dos implementaciones son Heuristica (líneas abiertas, escrita a mano)
+ * y RedNeuronal (red entrenada con partidas). Una instancia no debe
+ * compartirse entre hilos. Los valores deben quedar muy por debajo de las
+ * victorias de la búsqueda (100000000).
+ *
+ * @author Alex Aranda Salinas
+ */
+public interface Evaluador {
+
+    /**
+     * Evalúa una posición del tablero
+     *
+     * @param t       Tablero a evaluar
+     * @param miColor Color del jugador (1 o -1)
+     * @return Puntuación (positiva = buena, negativa = mala)
+     */
+    int h(Tauler t, int miColor);
+
+    /**
+     * Evalúa una posición del tablero sin reservar memoria
+     *
+     * @param t       Tablero a evaluar (queda igual al terminar)
+     * @param miColor Color del jugador (1 o -1)
+     * @return Puntuación (positiva = buena, negativa = mala)
+     */
+    int h(TaulerBits t, int miColor);
+}
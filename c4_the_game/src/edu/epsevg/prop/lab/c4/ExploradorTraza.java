@@ -0,0 +1,435 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JSplitPane;
+import javax.swing.JTree;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.DefaultTreeCellRenderer;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+
+/**
+ * Explorador de las trazas de búsqueda grabadas con TrazaBusqueda.
+ *
+ * La traza se lee una vez en streaming a arrays de enteros (padre, primer
+ * hijo, hermano siguiente, ventana, valor y motivo de cada nodo), sin un
+ * objeto por nodo, y el árbol se muestra con un TreeModel que solo crea las
+ * filas que se despliegan. Al elegir un nodo se dibuja su posición.
+ *
+ * Uso: ExploradorTraza traza.c4t                    (ventana)
+ *      ExploradorTraza traza.c4t texto [profundidad] (árbol por consola)
+ *      ExploradorTraza graba posicion color jugador traza.c4t [maxNodos]
+ *
+ * "graba" busca un movimiento de "posicion" (texto de TaulerBits.codifica)
+ * con un jugador propi de FabricaJugadores y guarda su traza.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class ExploradorTraza extends JFrame {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Árbol de una traza en arrays. El nodo 0 es una raíz virtual cuyos
+     * hijos son las raíces de cada iteración.
+     */
+    static class Arbol implements TrazaBusqueda.Visitante {
+        TrazaBusqueda.Cabecera cabecera;
+        int n = 1;
+        int[] padre = new int[1024];
+        int[] primerHijo = new int[1024];
+        int[] ultimoHijo = new int[1024];
+        int[] siguiente = new int[1024];
+        int[] hijos = new int[1024];
+        byte[] columna = new byte[1024];
+        byte[] profundidad = new byte[1024];
+        int[] alpha = new int[1024];
+        int[] beta = new int[1024];
+        int[] valor = new int[1024];
+        byte[] motivo = new byte[1024];
+        final long[] porMotivo = new long[TrazaBusqueda.MOTIVOS.length];
+        int columnaElegida = -1;
+        long omitidos;
+        private int actual;
+
+        Arbol() {
+            primerHijo[0] = -1;
+            ultimoHijo[0] = -1;
+            siguiente[0] = -1;
+            motivo[0] = -1;
+        }
+
+        /**
+         * @param fichero Fichero de la traza
+         * @return Árbol leído
+         * @throws IOException Si no se puede leer
+         */
+        static Arbol lee(Path fichero) throws IOException {
+            Arbol a = new Arbol();
+            TrazaBusqueda.lee(fichero, a);
+            return a;
+        }
+
+        @Override
+        public void cabecera(TrazaBusqueda.Cabecera c) {
+            cabecera = c;
+        }
+
+        @Override
+        public void entra(int col, int prof, int a, int b) {
+            if (n == padre.length) {
+                crece();
+            }
+            int i = n++;
+            padre[i] = actual;
+            primerHijo[i] = -1;
+            ultimoHijo[i] = -1;
+            siguiente[i] = -1;
+            columna[i] = (byte) col;
+            profundidad[i] = (byte) prof;
+            alpha[i] = a;
+            beta[i] = b;
+            motivo[i] = -1;
+            if (ultimoHijo[actual] < 0) {
+                primerHijo[actual] = i;
+            } else {
+                siguiente[ultimoHijo[actual]] = i;
+            }
+            ultimoHijo[actual] = i;
+            hijos[actual]++;
+            actual = i;
+        }
+
+        @Override
+        public void sale(int v, int m) {
+            valor[actual] = v;
+            motivo[actual] = (byte) m;
+            porMotivo[m]++;
+            actual = padre[actual];
+        }
+
+        @Override
+        public void fin(int col, int grabados, long omit) {
+            columnaElegida = col;
+            omitidos = omit;
+        }
+
+        private void crece() {
+            int m = padre.length * 2;
+            padre = Arrays.copyOf(padre, m);
+            primerHijo = Arrays.copyOf(primerHijo, m);
+            ultimoHijo = Arrays.copyOf(ultimoHijo, m);
+            siguiente = Arrays.copyOf(siguiente, m);
+            hijos = Arrays.copyOf(hijos, m);
+            columna = Arrays.copyOf(columna, m);
+            profundidad = Arrays.copyOf(profundidad, m);
+            alpha = Arrays.copyOf(alpha, m);
+            beta = Arrays.copyOf(beta, m);
+            valor = Arrays.copyOf(valor, m);
+            motivo = Arrays.copyOf(motivo, m);
+        }
+
+        /**
+         * @return Hijo k-ésimo del nodo i
+         */
+        int hijo(int i, int k) {
+            int h = primerHijo[i];
+            while (k-- > 0) {
+                h = siguiente[h];
+            }
+            return h;
+        }
+
+        /**
+         * @return Nodos grabados, sin la raíz virtual
+         */
+        int nodos() {
+            return n - 1;
+        }
+
+        /**
+         * @return Tablero en el nodo i: la posición de la cabecera más las
+         *         columnas jugadas desde la raíz de su iteración
+         */
+        TaulerBits tablero(int i) {
+            TaulerBits t = new TaulerBits(cabecera.mida);
+            t.carga(TaulerBits.descodifica(cabecera.posicion));
+            int[] camino = new int[TaulerBits.MIDA_MAX * TaulerBits.MIDA_MAX];
+            int k = 0;
+            for (int j = i; j > 0 && columna[j] >= 0; j = padre[j]) {
+                camino[k++] = columna[j];
+            }
+            int color = cabecera.color;
+            while (k > 0) {
+                t.afegeix(camino[--k], color);
+                color = -color;
+            }
+            return t;
+        }
+
+        /**
+         * @return Texto de una fila del árbol
+         */
+        String etiqueta(int i) {
+            if (i == 0) {
+                return "traza (" + nodos() + " nodos" + (omitidos > 0 ? ", " + omitidos + " omitidos" : "")
+                        + ", elige columna " + columnaElegida + ")";
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append(columna[i] < 0 ? "raíz" : "col " + columna[i]);
+            sb.append(" p=").append(profundidad[i]);
+            sb.append(" v=").append(motivo[i] < 0 ? "?" : Analisis.puntos(valor[i]));
+            sb.append(" [").append(Analisis.puntos(alpha[i])).append(", ").append(Analisis.puntos(beta[i])).append(']');
+            if (motivo[i] >= 0) {
+                sb.append(' ').append(TrazaBusqueda.MOTIVOS[motivo[i]]);
+            }
+            if (hijos[i] > 0) {
+                sb.append(" (").append(hijos[i]).append(')');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Escribe el árbol sangrado hasta una profundidad
+     *
+     * @param a       Árbol
+     * @param niveles Niveles bajo cada raíz (0 = solo las raíces)
+     * @param out     Salida
+     */
+    static void escribe(Arbol a, int niveles, PrintStream out) {
+        TrazaBusqueda.Cabecera c = a.cabecera;
+        out.println("Posición " + c.posicion + " (mida " + c.mida + "), mueve " + c.color
+                + ", profundidad " + (c.profundidad == Integer.MAX_VALUE ? "con reloj" : c.profundidad));
+        out.println(a.etiqueta(0));
+        StringBuilder sb = new StringBuilder("Nodos por motivo:");
+        for (int m = 0; m < a.porMotivo.length; m++) {
+            if (a.porMotivo[m] > 0) {
+                sb.append(' ').append(TrazaBusqueda.MOTIVOS[m]).append('=').append(a.porMotivo[m]);
+            }
+        }
+        out.println(sb);
+        for (int r = a.primerHijo[0]; r >= 0; r = a.siguiente[r]) {
+            escribe(a, r, 0, niveles, out);
+        }
+    }
+
+    private static void escribe(Arbol a, int i, int nivel, int niveles, PrintStream out) {
+        StringBuilder sb = new StringBuilder();
+        for (int k = 0; k < nivel; k++) {
+            sb.append("  ");
+        }
+        out.println(sb.append(a.etiqueta(i)));
+        if (nivel < niveles) {
+            for (int h = a.primerHijo[i]; h >= 0; h = a.siguiente[h]) {
+                escribe(a, h, nivel + 1, niveles, out);
+            }
+        }
+    }
+
+    /**
+     * Filas del JTree: cada nodo es su índice en el árbol
+     */
+    private static class Modelo implements TreeModel {
+        private final Arbol a;
+
+        Modelo(Arbol a) {
+            this.a = a;
+        }
+
+        @Override
+        public Object getRoot() {
+            return 0;
+        }
+
+        @Override
+        public Object getChild(Object padre, int k) {
+            return a.hijo((Integer) padre, k);
+        }
+
+        @Override
+        public int getChildCount(Object padre) {
+            return a.hijos[(Integer) padre];
+        }
+
+        @Override
+        public boolean isLeaf(Object nodo) {
+            return a.hijos[(Integer) nodo] == 0;
+        }
+
+        @Override
+        public int getIndexOfChild(Object padre, Object hijo) {
+            int k = 0;
+            for (int h = a.primerHijo[(Integer) padre]; h >= 0; h = a.siguiente[h], k++) {
+                if (h == (Integer) hijo) {
+                    return k;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void valueForPathChanged(TreePath path, Object valor) {
+        }
+
+        @Override
+        public void addTreeModelListener(TreeModelListener l) {
+        }
+
+        @Override
+        public void removeTreeModelListener(TreeModelListener l) {
+        }
+    }
+
+    private final Arbol arbol;
+    private long rojas;
+    private long azules;
+    private long ultima;
+
+    private final JLabel info = new JLabel(" ");
+    private final JPanel tablero = new JPanel() {
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            pinta((Graphics2D) g);
+        }
+    };
+
+    /**
+     * @param fichero Fichero de la traza
+     * @param a       Árbol leído del fichero
+     */
+    public ExploradorTraza(Path fichero, Arbol a) {
+        super("Traza: " + fichero.getFileName());
+        arbol = a;
+
+        JTree vista = new JTree(new Modelo(a));
+        vista.setCellRenderer(new DefaultTreeCellRenderer() {
+            @Override
+            public java.awt.Component getTreeCellRendererComponent(JTree tree, Object value, boolean sel,
+                    boolean expanded, boolean leaf, int row, boolean hasFocus) {
+                return super.getTreeCellRendererComponent(tree, arbol.etiqueta((Integer) value), sel, expanded,
+                        leaf, row, hasFocus);
+            }
+        });
+        vista.addTreeSelectionListener(e -> selecciona((Integer) e.getPath().getLastPathComponent()));
+
+        tablero.setPreferredSize(new Dimension(400, 400));
+        tablero.setBackground(Color.WHITE);
+        JScrollPane lista = new JScrollPane(vista);
+        lista.setPreferredSize(new Dimension(520, 400));
+
+        getContentPane().add(new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, lista, tablero), BorderLayout.CENTER);
+        getContentPane().add(info, BorderLayout.SOUTH);
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        pack();
+        selecciona(0);
+    }
+
+    private void selecciona(int i) {
+        TaulerBits t = arbol.tablero(i);
+        rojas = t.fichas(1);
+        azules = t.fichas(-1);
+        ultima = 0;
+        if (i > 0 && arbol.columna[i] >= 0) {
+            TaulerBits antes = arbol.tablero(arbol.padre[i]);
+            ultima = (rojas | azules) & ~(antes.fichas(1) | antes.fichas(-1));
+        }
+        info.setText(arbol.etiqueta(i));
+        tablero.repaint();
+    }
+
+    private void pinta(Graphics2D g) {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int mida = arbol.cabecera.mida;
+        int paso = Math.min(tablero.getWidth(), tablero.getHeight()) / mida;
+        int size = (int) (paso * 0.8);
+        int m = (paso - size) / 2;
+        for (int col = 0; col < mida; col++) {
+            for (int fila = 0; fila < mida; fila++) {
+                long b = 1L << TaulerBits.bit(fila, col);
+                int x = col * paso + m;
+                int y = (mida - 1 - fila) * paso + m;
+                if ((rojas & b) != 0) {
+                    g.setColor(Color.RED);
+                } else if ((azules & b) != 0) {
+                    g.setColor(Color.BLUE);
+                } else {
+                    g.setColor(Color.LIGHT_GRAY);
+                    g.drawOval(x, y, size, size);
+                    continue;
+                }
+                g.fillOval(x, y, size, size);
+                g.setColor((ultima & b) != 0 ? Color.YELLOW : Color.BLACK);
+                g.drawOval(x, y, size, size);
+            }
+        }
+    }
+
+    /**
+     * Busca un movimiento con la traza activada y deja la traza en fichero
+     *
+     * @return Columna elegida
+     */
+    static int graba(String posicion, int color, String especificacion, Path fichero, int maxNodos)
+            throws IOException {
+        Jugador j = FabricaJugadores.crea(especificacion);
+        if (!(j instanceof JugadorPropi)) {
+            throw new IllegalArgumentException("Solo se trazan jugadores propi: " + especificacion);
+        }
+        JugadorPropi p = (JugadorPropi) j;
+        Path dir = Files.createTempDirectory("c4traza");
+        TrazaBusqueda traza = new TrazaBusqueda("graba", dir, maxNodos);
+        p.setTraza(traza);
+        int col = p.moviment(TaulerBits.descodifica(posicion), color);
+        Path escrito = traza.getUltimoFichero();
+        if (escrito == null) {
+            throw new IOException("No se ha escrito la traza");
+        }
+        Path padreFichero = fichero.toAbsolutePath().getParent();
+        if (padreFichero != null) {
+            Files.createDirectories(padreFichero);
+        }
+        Files.move(escrito, fichero, StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(dir);
+        return col;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 5 && args[0].equals("graba")) {
+            int maxNodos = args.length > 5 ? Integer.parseInt(args[5]) : TrazaBusqueda.MAX_NODOS;
+            Path fichero = Paths.get(args[4]);
+            int col = graba(args[1], Integer.parseInt(args[2]), args[3], fichero, maxNodos);
+            System.out.println("Columna " + col + ", traza en " + fichero);
+            return;
+        }
+        if (args.length < 1 || args[0].equals("graba")) {
+            System.err.println("Uso: ExploradorTraza <traza> [texto [profundidad]]");
+            System.err.println("     ExploradorTraza graba <posicion> <color> <jugador> <traza> [maxNodos]");
+            System.exit(2);
+        }
+        final Path fichero = Paths.get(args[0]);
+        final Arbol a = Arbol.lee(fichero);
+        if (args.length > 1 && args[1].equals("texto")) {
+            escribe(a, args.length > 2 ? Integer.parseInt(args[2]) : 1, System.out);
+            return;
+        }
+        java.awt.EventQueue.invokeLater(() -> new ExploradorTraza(fichero, a).setVisible(true));
+    }
+}
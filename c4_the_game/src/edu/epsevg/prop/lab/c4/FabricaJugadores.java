@@ -0,0 +1,393 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Crea jugadores a partir de una especificación de texto, para poder elegir
+ * el motor y sus opciones en cada ejecución sin recompilar.
+ *
+ * Formato: tipo[:opciones], con las opciones separadas por comas como
+ * clave=valor. Un primer valor sin clave es la profundidad.
+ *
+ *   propi:depth=10,motor=bits,ext=2,warmup=300   profe:2   profe:depth=4,h=2
+ *   propi:depth=8,motor=bits,red=c4.red   propi:depth=10,motor=bits,tt=c4.tt,ttbits=20
+ *   propi:motor=bits,tt=compartida:/dev/shm/c4.tt   propi:motor=bits,time=200ms,tt=64MB
+ *   propi:depth=8,motor=bits,traza=trazas,trazanodos=50000
+ *   propi:depth=8,azar=true   mcts:time=500ms,threads=4   mcts:iter=20000   aleatori   manual
+ *
+ * Las opciones lote, poda, ext, time, tt y ttbits solo existen con
+ * motor=bits, y la búsqueda clásica no juega con reloj (-Dc4.reloj): con
+ * motor=clasico se rechazan en lugar de ignorarse. time es un tiempo fijo
+ * por jugada en lugar de depth (con -Dc4.reloj manda el reloj), y tt=64MB
+ * es una tabla en memoria de como mucho ese tamaño en lugar de ttbits.
+ *
+ * Uso: FabricaJugadores [especificacion...] muestra el jugador creado
+ *
+ * @author Alex Aranda Salinas
+ */
+public class FabricaJugadores {
+
+    /** Ayuda de las especificaciones admitidas */
+    public static final String AYUDA =
+            "propi[:depth=N|time=ms,motor=bits|clasico,lote=true|false,poda=true|false,ext=N,nodos=true|false,azar=true|false,warmup=ms,red=fichero,tablas=N,tt=fichero|compartida:fichero|memoria|tamaño(KB/MB/GB),ttbits=N,traza=directorio,trazanodos=N]"
+            + " | mcts[:time=ms,iter=N,threads=N,nodes=N,c=x] | profe[:depth=N,h=1|2] | aleatori | manual";
+
+    // Opciones de propi que solo existen en la búsqueda sin asignaciones
+    private static final String[] SOLO_BITS = {"lote", "poda", "ext", "time", "tt", "ttbits"};
+
+    // Tamaño de una tabla en memoria (64MB, 512KB, 1G...); un número suelto
+    // se rechaza en lugar de crear un fichero con ese nombre
+    private static final Pattern TAMANO = Pattern.compile("(\\d+)\\s*([KMGT]?)(B?)", Pattern.CASE_INSENSITIVE);
+
+    // Redes ya leídas por fichero; cada jugador recibe una copia
+    private static final Map<String, RedNeuronal> redes = new ConcurrentHashMap<>();
+
+    private FabricaJugadores() {
+    }
+
+    /**
+     * Crea un jugador
+     *
+     * @param especificacion Especificación del jugador
+     * @return Jugador nuevo
+     * @throws IllegalArgumentException Si la especificación no es válida
+     */
+    public static Jugador crea(String especificacion) {
+        return crea(especificacion, true);
+    }
+
+    /**
+     * @param construir false para solo comprobar las opciones, sin crear el
+     *                  jugador ni abrir sus ficheros (devuelve null)
+     */
+    private static Jugador crea(String especificacion, boolean construir) {
+        String spec = especificacion.trim();
+        int dosPuntos = spec.indexOf(':');
+        String tipo = (dosPuntos < 0 ? spec : spec.substring(0, dosPuntos)).toLowerCase();
+        Opciones o = new Opciones(especificacion, dosPuntos < 0 ? "" : spec.substring(dosPuntos + 1));
+        Jugador j;
+        int calentamiento = 0;
+        switch (tipo) {
+            case "propi": {
+                if (o.tiene("depth") && o.tiene("time")) {
+                    throw new IllegalArgumentException("depth y time no van juntos en '" + especificacion + "'");
+                }
+                int profundidad = o.entero("depth", 8, 1, Integer.MAX_VALUE);
+                String motor = o.texto("motor", "clasico");
+                if (!motor.equals("bits") && !motor.equals("clasico")) {
+                    throw new IllegalArgumentException("Motor desconocido en '" + especificacion + "': " + motor);
+                }
+                boolean bits = motor.equals("bits");
+                if (!bits) {
+                    // Opciones que la búsqueda clásica no tiene: se rechazan en lugar de ignorarlas
+                    for (String clave : SOLO_BITS) {
+                        if (o.tiene(clave)) {
+                            throw new IllegalArgumentException("La opción " + clave + " necesita motor=bits en '"
+                                    + especificacion + "'");
+                        }
+                    }
+                    if (System.getProperty("c4.reloj") != null) {
+                        throw new IllegalArgumentException("La búsqueda clásica no usa el reloj (c4.reloj): '"
+                                + especificacion + "' necesita motor=bits");
+                    }
+                }
+                String red = o.ruta("red");
+                boolean lote = o.booleano("lote", true);
+                boolean poda = o.booleano("poda", true);
+                int extension = o.entero("ext", 0, 0, Integer.MAX_VALUE);
+                boolean nodos = o.booleano("nodos", true);
+                int tablas = o.entero("tablas", 0);
+                boolean azar = o.booleano("azar", false);
+                long tiempo = o.milisegundos("time", 0);
+                if (tiempo < 0) {
+                    throw new IllegalArgumentException("Tiempo no válido en '" + especificacion + "'");
+                }
+                String tt = o.ruta("tt");
+                Matcher tamano = tt == null ? null : TAMANO.matcher(tt);
+                if (tamano != null && tamano.matches() && o.tiene("ttbits")) {
+                    throw new IllegalArgumentException("tt con tamaño y ttbits no van juntos en '" + especificacion
+                            + "'");
+                }
+                int bitsTabla = o.entero("ttbits", 20, 1, CacheBusqueda.BITS_MAX);
+                if (tamano != null && tamano.matches()) {
+                    bitsTabla = bitsTabla(tamano, especificacion);
+                    tt = "memoria";
+                }
+                String traza = o.ruta("traza");
+                int nodosTraza = o.entero("trazanodos", TrazaBusqueda.MAX_NODOS, 1, Integer.MAX_VALUE);
+                calentamiento = o.entero("warmup", 0, 0, Integer.MAX_VALUE);
+                if (!construir) {
+                    j = null;
+                    break;
+                }
+
+                Evaluador evaluador = red == null ? new Heuristica() : red(red, especificacion);
+                JugadorPropi p = new JugadorPropi(profundidad, bits, evaluador);
+                p.setEvaluacionLote(lote);
+                p.setPodaDemostrada(poda);
+                p.setExtensionAmenazas(extension);
+                p.setMostrarNodos(nodos);
+                p.setValorTablas(tablas);
+                p.setDesempateAleatorio(azar);
+                p.setTiempoJugada(tiempo);
+                if (tt != null) {
+                    p.setCache(cache(tt, bitsTabla, especificacion));
+                }
+                if (traza != null) {
+                    p.setTraza(new TrazaBusqueda("JugadorPropi", Paths.get(traza), nodosTraza));
+                }
+                j = p;
+                break;
+            }
+            case "mcts": {
+                long tiempo = o.milisegundos("time", 1000);
+                int hilos = o.entero("threads", 1, 1, Integer.MAX_VALUE);
+                // Como mínimo la raíz y un hijo por columna
+                int maxNodos = o.entero("nodes", 1 << 20, TaulerBits.MIDA_MAX + 1, Integer.MAX_VALUE);
+                double c = o.decimal("c", Math.sqrt(2));
+                int iteraciones = o.entero("iter", 0, 0, Integer.MAX_VALUE);
+                if (tiempo < 1 || c < 0) {
+                    throw new IllegalArgumentException("Tiempo o constante no válidos en '" + especificacion + "'");
+                }
+                if (!construir) {
+                    j = null;
+                    break;
+                }
+                JugadorMCTS m = new JugadorMCTS(tiempo, hilos, maxNodos, c);
+                m.setIteraciones(iteraciones);
+                j = m;
+                break;
+            }
+            case "profe": {
+                int profundidad = o.entero("depth", 2, 1, Integer.MAX_VALUE);
+                boolean h2 = o.entero("h", 1, 1, 2) == 2;
+                j = construir ? new Profe(profundidad, h2) : null;
+                break;
+            }
+            case "aleatori":
+                j = construir ? new Aleatori() : null;
+                break;
+            case "manual":
+                j = construir ? new Manual() : null;
+                break;
+            default:
+                throw new IllegalArgumentException("Jugador desconocido: '" + especificacion + "' (" + AYUDA + ")");
+        }
+        o.compruebaUsadas();
+        if (j != null && calentamiento > 0) {
+            ((JugadorPropi) j).precalienta(calentamiento);
+        }
+        return j;
+    }
+
+    private static RedNeuronal red(String fichero, String especificacion) {
+        RedNeuronal r = redes.get(fichero);
+        if (r == null) {
+            try {
+                r = RedNeuronal.lee(Paths.get(fichero));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("No se puede leer la red de '" + especificacion + "': "
+                        + e.getMessage());
+            }
+            redes.putIfAbsent(fichero, r);
+        }
+        return r.copia();
+    }
+
+    /**
+     * Bits de la mayor tabla en memoria que cabe en el tamaño pedido
+     */
+    private static int bitsTabla(Matcher tamano, String especificacion) {
+        if (tamano.group(2).isEmpty() && tamano.group(3).isEmpty()) {
+            throw new IllegalArgumentException("Falta la unidad del tamaño de tabla en '" + especificacion + "': tt="
+                    + tamano.group() + " (KB, MB o GB; el número de bits es ttbits)");
+        }
+        int desplazamiento = "BKMGT".indexOf((tamano.group(2) + "B").toUpperCase().charAt(0)) * 10;
+        long bytes;
+        try {
+            bytes = Long.parseLong(tamano.group(1));
+        } catch (NumberFormatException e) {
+            bytes = Long.MAX_VALUE;
+        }
+        bytes = bytes > Long.MAX_VALUE >> desplazamiento ? Long.MAX_VALUE : bytes << desplazamiento;
+        long entradas = bytes / CacheBusqueda.BYTES_ENTRADA;
+        int bits = 63 - Long.numberOfLeadingZeros(Math.max(1, entradas));
+        if (bits < 1 || bits > CacheBusqueda.BITS_MAX) {
+            throw new IllegalArgumentException("Tamaño de tabla no soportado en '" + especificacion + "': "
+                    + tamano.group() + " (de " + (2 * CacheBusqueda.BYTES_ENTRADA) + " bytes a "
+                    + ((CacheBusqueda.BYTES_ENTRADA << CacheBusqueda.BITS_MAX) >> 20) + "MB)");
+        }
+        return bits;
+    }
+
+    /**
+     * Tabla de transposición de un jugador: "memoria", un fichero que
+     * comparten todos los jugadores que lo nombran al terminar cada partida,
+     * o "compartida:fichero", una tabla en el propio fichero que todos los
+     * procesos leen y escriben mientras buscan
+     */
+    private static CacheBusqueda cache(String tt, int bits, String especificacion) {
+        try {
+            if (tt.equalsIgnoreCase("memoria")) {
+                return new CacheBusqueda(bits);
+            }
+            if (tt.toLowerCase().startsWith("compartida:")) {
+                return CacheBusqueda.compartida(bits, Paths.get(tt.substring("compartida:".length())));
+            }
+            return new CacheBusqueda(bits, Paths.get(tt));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("No se puede abrir la tabla de '" + especificacion + "': "
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * Valida las opciones de la especificación (sin crear ningún jugador ni
+     * abrir sus ficheros) y devuelve un proveedor que crea un jugador nuevo
+     * en cada llamada (para los análisis con varios hilos)
+     *
+     * @param especificacion Especificación del jugador
+     * @return Proveedor de jugadores
+     * @throws IllegalArgumentException Si la especificación no es válida
+     */
+    public static Supplier<Jugador> proveedor(final String especificacion) {
+        crea(especificacion, false);
+        return () -> crea(especificacion);
+    }
+
+    /**
+     * Opciones clave=valor de una especificación
+     */
+    private static class Opciones {
+        private final String especificacion;
+        private final Map<String, String> valores = new LinkedHashMap<>();
+
+        Opciones(String especificacion, String texto) {
+            this.especificacion = especificacion;
+            String[] partes = texto.isEmpty() ? new String[0] : texto.split(",");
+            for (int i = 0; i < partes.length; i++) {
+                String p = partes[i].trim();
+                int igual = p.indexOf('=');
+                if (igual < 0 && i == 0) {
+                    valores.put("depth", p);
+                } else if (igual > 0) {
+                    valores.put(p.substring(0, igual).trim().toLowerCase(), p.substring(igual + 1).trim());
+                } else {
+                    throw new IllegalArgumentException("Opción sin valor en '" + especificacion + "': " + p);
+                }
+            }
+        }
+
+        boolean tiene(String clave) {
+            return valores.containsKey(clave);
+        }
+
+        String texto(String clave, String defecto) {
+            String v = valores.remove(clave);
+            return v == null ? defecto : v.toLowerCase();
+        }
+
+        /**
+         * Valor sin pasar a minúsculas (nombres de fichero)
+         */
+        String ruta(String clave) {
+            return valores.remove(clave);
+        }
+
+        int entero(String clave, int defecto) {
+            String v = valores.remove(clave);
+            if (v == null) {
+                return defecto;
+            }
+            try {
+                return Integer.parseInt(v);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Valor no numérico en '" + especificacion + "': " + clave + "=" + v);
+            }
+        }
+
+        /**
+         * Entero que tiene que estar entre min y max: fuera de rango se
+         * rechaza aquí y no al crear el jugador o en medio de la búsqueda
+         */
+        int entero(String clave, int defecto, int min, int max) {
+            int v = entero(clave, defecto);
+            if (v < min || v > max) {
+                throw new IllegalArgumentException("Valor fuera de rango en '" + especificacion + "': " + clave + "="
+                        + v + " (de " + min + (max == Integer.MAX_VALUE ? " en adelante" : " a " + max) + ")");
+            }
+            return v;
+        }
+
+        double decimal(String clave, double defecto) {
+            String v = valores.remove(clave);
+            if (v == null) {
+                return defecto;
+            }
+            try {
+                return Double.parseDouble(v);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Valor no numérico en '" + especificacion + "': " + clave + "=" + v);
+            }
+        }
+
+        /**
+         * Tiempo en milisegundos: "500", "500ms", "2s" o "1m"
+         */
+        long milisegundos(String clave, long defecto) {
+            String v = valores.remove(clave);
+            if (v == null) {
+                return defecto;
+            }
+            try {
+                return Reloj.milisegundos(v);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Tiempo no válido en '" + especificacion + "': " + clave + "=" + v);
+            }
+        }
+
+        boolean booleano(String clave, boolean defecto) {
+            String v = valores.remove(clave);
+            if (v == null) {
+                return defecto;
+            }
+            if (!v.equalsIgnoreCase("true") && !v.equalsIgnoreCase("false")) {
+                throw new IllegalArgumentException("Valor no booleano en '" + especificacion + "': " + clave + "=" + v);
+            }
+            return Boolean.parseBoolean(v);
+        }
+
+        /**
+         * Una opción desconocida es un error: si se ignorase, una errata
+         * cambiaría la configuración medida sin avisar
+         */
+        void compruebaUsadas() {
+            if (!valores.isEmpty()) {
+                throw new IllegalArgumentException("Opciones no soportadas en '" + especificacion + "': "
+                        + valores.keySet() + " (" + AYUDA + ")");
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Uso: FabricaJugadores <especificacion...>  " + AYUDA);
+            System.exit(2);
+        }
+        for (String spec : args) {
+            try {
+                System.out.println(spec + " -> " + crea(spec).nom());
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(2);
+            }
+        }
+    }
+}
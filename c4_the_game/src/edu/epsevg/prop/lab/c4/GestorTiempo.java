@@ -0,0 +1,147 @@
+package edu.epsevg.prop.lab.c4;
+
+/**
+ * Reparte el reloj de la partida entre las jugadas de un motor con
+ * profundización iterativa.
+ *
+ * Al empezar cada jugada calcula un tiempo objetivo (lo que queda dividido
+ * entre las jugadas que pueden faltar, más casi todo el incremento) y un
+ * máximo que la búsqueda no puede pasar. Después de cada iteración decide
+ * si empieza la siguiente: el objetivo crece si la mejor jugada acaba de
+ * cambiar o la valoración ha oscilado, y baja si la jugada lleva varias
+ * iteraciones sin cambiar. No se empieza una iteración que, por lo que han
+ * tardado las anteriores, no terminaría antes del máximo.
+ *
+ * Sin reloj de partida también puede dar un tiempo fijo a cada jugada: el
+ * objetivo y el máximo son ese tiempo (menos el margen).
+ *
+ * @author Alex Aranda Salinas
+ */
+public class GestorTiempo {
+
+    // Reserva por jugada para lo que no es búsqueda (tablero, JIT, interfaz)
+    static final long MARGEN_MS = 15;
+    // Mínimo de jugadas propias que se suponen por delante
+    private static final int JUGADAS_MIN = 6;
+    // Una jugada nunca se lleva más de esta fracción de lo que queda
+    private static final int FRACCION_MAXIMO = 4;
+    // El máximo no pasa de este múltiplo del objetivo
+    private static final int MULTIPLO_MAXIMO = 5;
+    // Diferencia de valoración entre iteraciones que se considera inestable
+    // (algo más de medio tres en línea de la heurística)
+    static final int OSCILACION = 30000;
+    // Iteraciones con la misma jugada a partir de las que se recorta
+    private static final int ESTABLES = 4;
+
+    private long inicio;
+    private long objetivoMs;
+    private long maximoMs;
+
+    private int iteraciones;
+    private int columna;
+    private int valor;
+    private int estables;
+    private double factor;
+    private long finAnterior;
+    private long duracionAnterior;
+    private long duracionUltima;
+
+    /**
+     * Empieza una jugada
+     *
+     * @param restanteMs   Tiempo que le queda al jugador
+     * @param incrementoMs Incremento por jugada
+     * @param libres       Casillas libres del tablero
+     */
+    public void inicia(long restanteMs, long incrementoMs, int libres) {
+        inicio = System.nanoTime();
+        // Cada jugador ocupa como mucho la mitad de las casillas libres
+        int quedan = Math.max(JUGADAS_MIN, (libres + 1) / 2);
+        long disponible = Math.max(1, restanteMs - MARGEN_MS);
+        objetivoMs = disponible / quedan + incrementoMs * 3 / 4;
+        maximoMs = Math.min(disponible / FRACCION_MAXIMO + incrementoMs, objetivoMs * MULTIPLO_MAXIMO);
+        maximoMs = Math.max(1, Math.min(maximoMs, disponible));
+        objetivoMs = Math.max(1, Math.min(objetivoMs, maximoMs));
+        reinicia();
+    }
+
+    /**
+     * Empieza una jugada con un tiempo fijo, sin reloj de partida
+     *
+     * @param jugadaMs Tiempo de la jugada
+     */
+    public void iniciaFijo(long jugadaMs) {
+        inicio = System.nanoTime();
+        maximoMs = Math.max(1, jugadaMs - MARGEN_MS);
+        objetivoMs = maximoMs;
+        reinicia();
+    }
+
+    private void reinicia() {
+        iteraciones = 0;
+        columna = -1;
+        estables = 0;
+        factor = 1;
+        finAnterior = inicio;
+        duracionAnterior = 0;
+        duracionUltima = 0;
+    }
+
+    /**
+     * @return Instante de System.nanoTime en que hay que abandonar la búsqueda
+     */
+    public long getLimiteNanos() {
+        return inicio + maximoMs * 1000000;
+    }
+
+    public long getObjetivoMs() {
+        return objetivoMs;
+    }
+
+    public long getMaximoMs() {
+        return maximoMs;
+    }
+
+    /**
+     * Anota una iteración terminada
+     *
+     * @param col Mejor columna de la iteración
+     * @param v   Valoración de la iteración
+     */
+    public void iteracion(int col, int v) {
+        long ahora = System.nanoTime();
+        duracionAnterior = duracionUltima;
+        duracionUltima = ahora - finAnterior;
+        finAnterior = ahora;
+
+        if (iteraciones > 0) {
+            if (col != columna) {
+                // Cada cambio de jugada da más tiempo, hasta el doble
+                factor = Math.min(2, factor * 1.5);
+                estables = 0;
+            } else if (++estables >= ESTABLES) {
+                factor = Math.max(0.5, factor * 0.8);
+            }
+            if (Math.abs(v - valor) > OSCILACION) {
+                factor = Math.min(2, factor * 1.3);
+            }
+        }
+        iteraciones++;
+        columna = col;
+        valor = v;
+    }
+
+    /**
+     * @return true si conviene empezar otra iteración
+     */
+    public boolean sigue() {
+        long usado = System.nanoTime() - inicio;
+        if (usado >= objetivoMs * factor * 1000000) {
+            return false;
+        }
+        // Lo que tardará la siguiente, según crece el tiempo entre iteraciones
+        double ramificacion = duracionAnterior <= 0 ? 4 : (double) duracionUltima / duracionAnterior;
+        ramificacion = Math.max(2, Math.min(8, ramificacion));
+        return usado + duracionUltima * ramificacion <= maximoMs * 1000000;
+    }
+}
@@ -1,17 +1,145 @@
 package edu.epsevg.prop.lab.c4;
 
+import java.util.Arrays;
+
 /**
- * Clase para evaluar posiciones del tablero
+ * Clase para evaluar posiciones del tablero.
+ * Trabaja sobre TaulerBits para no reservar memoria en cada hoja; una
+ * instancia no debe compartirse entre hilos. Las líneas de 2 y 3 fichas se
+ * cuentan con tablas precalculadas: cada fila, columna y diagonal se pasa
+ * a su ocupación en base 3 y una sola consulta da el valor de todas sus
+ * ventanas de 4.
  * 
  * @author Alex Aranda Salinas
  */
-public class Heuristica {
+public class Heuristica implements Evaluador {
 
     // Pesos para la evaluación
     private static final int PESO_TRES = 50000;
     private static final int PESO_DOS = 1000;
     private static final int PESO_CENTRO = 100;
 
+    // Valor en base 3 de cada patrón de 8 bits (el bit i vale 3^i)
+    private static final int[] TERNARIO = new int[256];
+    // Valor para el color 1 de las ventanas de una línea de longitud L,
+    // indexado por la ocupación en base 3 (0 vacía, 1 color 1, 2 color -1):
+    // LINEAS[L][ocupación]
+    private static final int[][] LINEAS = new int[TaulerBits.MIDA_MAX + 1][];
+    // Puntos de centro de una fila según sus fichas (ver fila()): CENTRO[mida][bits]
+    private static final int[][] CENTRO = new int[TaulerBits.MIDA_MAX + 1][256];
+    // Casilla inicial y longitud de las diagonales / de al menos 4 casillas,
+    // en el tablero normal y en el reflejado por columnas (Long.reverseBytes)
+    private static final int[][] DIAGONALES = new int[TaulerBits.MIDA_MAX + 1][];
+    private static final int[][] ANTIDIAGONALES = new int[TaulerBits.MIDA_MAX + 1][];
+    // Casillas de una diagonal / de longitud L desde el bit 0: DIAGONAL[L]
+    private static final long[] DIAGONAL = new long[TaulerBits.MIDA_MAX + 1];
+
+    // Fila 0 de cada columna, y multiplicador que junta sus bits en el byte alto
+    private static final long FILA = 0x0101010101010101L;
+    private static final long REUNE_FILA = 0x8040201008040201L;
+    // Multiplicador que suma todos los bytes en el byte alto
+    private static final long BYTES = 0x0101010101010101L;
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            for (int i = 7; i >= 0; i--) {
+                TERNARIO[b] = TERNARIO[b] * 3 + (b >> i & 1);
+            }
+        }
+        int[] casillas = new int[TaulerBits.MIDA_MAX];
+        for (int l = 0; l <= TaulerBits.MIDA_MAX; l++) {
+            int patrones = 1;
+            for (int i = 0; i < l; i++) {
+                patrones *= 3;
+            }
+            LINEAS[l] = new int[patrones];
+            for (int p = 0; p < patrones; p++) {
+                for (int i = 0, q = p; i < l; i++, q /= 3) {
+                    casillas[i] = q % 3;
+                }
+                LINEAS[l][p] = valorLinea(casillas, l);
+            }
+            for (int i = 0; i < l; i++) {
+                DIAGONAL[l] |= 1L << 9 * i;
+            }
+        }
+        for (int m = 1; m <= TaulerBits.MIDA_MAX; m++) {
+            for (int b = 0; b < 256; b++) {
+                for (int c = 0; c < m; c++) {
+                    if ((b >> (m - 1 - c) & 1) != 0) {
+                        CENTRO[m][b] += 4 - Math.abs(c - m / 2);
+                    }
+                }
+            }
+            DIAGONALES[m] = diagonales(m, 0, m);
+            ANTIDIAGONALES[m] = diagonales(m, TaulerBits.MIDA_MAX - m, TaulerBits.MIDA_MAX);
+        }
+    }
+
+    /**
+     * Valor para el color 1 de las ventanas de 4 de una línea: PESO_TRES o
+     * PESO_DOS por cada ventana con 3 o 2 fichas de un color y el resto
+     * vacías (en negativo si son del color -1)
+     *
+     * @param casillas Ocupación de cada casilla (0 vacía, 1 color 1, 2 color -1)
+     * @param l        Longitud de la línea
+     */
+    private static int valorLinea(int[] casillas, int l) {
+        int valor = 0;
+        for (int inicio = 0; inicio + 4 <= l; inicio++) {
+            int[] cuenta = new int[3];
+            for (int i = inicio; i < inicio + 4; i++) {
+                cuenta[casillas[i]]++;
+            }
+            int signo = cuenta[2] == 0 ? 1 : cuenta[1] == 0 ? -1 : 0;
+            int fichas = cuenta[1] + cuenta[2];
+            if (fichas == 3) {
+                valor += signo * PESO_TRES;
+            } else if (fichas == 2) {
+                valor += signo * PESO_DOS;
+            }
+        }
+        return valor;
+    }
+
+    /**
+     * Diagonales / de al menos 4 casillas de un tablero de mida m cuyas
+     * columnas van de colMin a colMax - 1
+     *
+     * @return Pares (bit de la casilla inicial, longitud)
+     */
+    private static int[] diagonales(int m, int colMin, int colMax) {
+        int[] d = new int[4 * m];
+        int n = 0;
+        for (int fila = 0; fila < m; fila++) {
+            for (int col = colMin; col < colMax; col++) {
+                // Solo empiezan en la fila 0 o en la primera columna
+                if (fila > 0 && col > colMin) {
+                    continue;
+                }
+                int longitud = Math.min(m - fila, colMax - col);
+                if (longitud >= 4) {
+                    d[n++] = TaulerBits.bit(fila, col);
+                    d[n++] = longitud;
+                }
+            }
+        }
+        return Arrays.copyOf(d, n);
+    }
+
+    // Tablero auxiliar para evaluar un Tauler sin copiarlo
+    private TaulerBits auxiliar;
+
+    // Perfilador del movimiento en curso (null si no se perfila)
+    private Perfilador perfil;
+
+    /**
+     * @param p Perfilador al que informar de las fases, o null
+     */
+    void setPerfilador(Perfilador p) {
+        perfil = p;
+    }
+
     /**
      * Evalúa una posición del tablero
      * 
@@ -19,7 +147,178 @@ public class Heuristica {
      * @param miColor Color del jugador (1 o -1)
      * @return Puntuación (positiva = buena, negativa = mala)
      */
+    @Override
     public int h(Tauler t, int miColor) {
+        if (t.getMida() > TaulerBits.MIDA_MAX) {
+            return hGrande(t, miColor);
+        }
+        if (auxiliar == null || auxiliar.getMida() != t.getMida()) {
+            auxiliar = new TaulerBits(t.getMida());
+        }
+        if (perfil != null) {
+            perfil.entra(Perfilador.CARGA);
+        }
+        auxiliar.carga(t);
+        if (perfil != null) {
+            perfil.sale();
+        }
+        return h(auxiliar, miColor);
+    }
+
+    /**
+     * Evalúa una posición del tablero sin reservar memoria
+     * 
+     * @param t       Tablero a evaluar (queda igual al terminar)
+     * @param miColor Color del jugador (1 o -1)
+     * @return Puntuación (positiva = buena, negativa = mala)
+     */
+    @Override
+    public int h(TaulerBits t, int miColor) {
+        int puntuacion = 0;
+        Perfilador p = perfil;
+
+        // Líneas de 3 y de 2 fichas con el resto vacías
+        if (p != null) {
+            p.entra(Perfilador.CONTAR_LINEAS);
+        }
+        int m = t.getMida();
+        int lineas = lineas(t.fichas(1), t.fichas(-1), m);
+        puntuacion += miColor == 1 ? lineas : -lineas;
+
+        // Evaluar control del centro
+        if (p != null) {
+            p.sale();
+            p.entra(Perfilador.CENTRO);
+        }
+        puntuacion += centro(t.fichas(miColor), m) * PESO_CENTRO;
+
+        // Detectar amenazas inmediatas
+        if (p != null) {
+            p.sale();
+            p.entra(Perfilador.AMENAZAS);
+        }
+        puntuacion += detectarAmenazas(t, miColor);
+        if (p != null) {
+            p.sale();
+        }
+
+        return puntuacion;
+    }
+
+    /**
+     * Detecta si alguien puede ganar en el siguiente turno
+     * 
+     * @param t       Tablero a analizar
+     * @param miColor Color del jugador
+     * @return Bonificación o penalización si hay amenaza, si gano o gana el
+     *         oponente
+     */
+    private int detectarAmenazas(TaulerBits t, int miColor) {
+        int mida = t.getMida();
+
+        // Verificar si puedo ganar (se juega y se deshace la ficha)
+        for (int col = 0; col < mida; col++) {
+            if (t.movpossible(col)) {
+                t.afegeix(col, miColor);
+                boolean gana = t.solucio(col, miColor);
+                t.treu(col);
+                if (gana) {
+                    return 90000000;
+                }
+            }
+        }
+
+        // Verificar si el oponente puede ganar
+        for (int col = 0; col < mida; col++) {
+            if (t.movpossible(col)) {
+                t.afegeix(col, -miColor);
+                boolean gana = t.solucio(col, -miColor);
+                t.treu(col);
+                if (gana) {
+                    return -90000000;
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Valor de las ventanas de 4 de todas las líneas del tablero para el
+     * color 1: cada fila, columna y diagonal se traduce a su ocupación en
+     * base 3 y se busca en LINEAS
+     *
+     * @param r Fichas del color 1
+     * @param a Fichas del color -1
+     * @param m Tamaño del tablero
+     * @return Suma de PESO_TRES y PESO_DOS de las líneas del color 1 menos las del -1
+     */
+    private static int lineas(long r, long a, int m) {
+        int valor = 0;
+
+        // Columnas: cada una es un byte
+        int[] tabla = LINEAS[m];
+        for (int col = 0; col < m; col++) {
+            int desp = col * 8;
+            valor += tabla[TERNARIO[(int) (r >>> desp) & 0xFF] + 2 * TERNARIO[(int) (a >>> desp) & 0xFF]];
+        }
+
+        // Filas
+        for (int fila = 0; fila < m; fila++) {
+            valor += tabla[TERNARIO[fila(r, fila, m)] + 2 * TERNARIO[fila(a, fila, m)]];
+        }
+
+        // Diagonales / y, sobre el tablero reflejado, diagonales \
+        valor += diagonales(r, a, DIAGONALES[m]);
+        valor += diagonales(Long.reverseBytes(r), Long.reverseBytes(a), ANTIDIAGONALES[m]);
+        return valor;
+    }
+
+    /**
+     * @param diagonales Casilla inicial y longitud de cada diagonal /
+     */
+    private static int diagonales(long r, long a, int[] diagonales) {
+        int valor = 0;
+        for (int i = 0; i < diagonales.length; i += 2) {
+            int inicio = diagonales[i];
+            int longitud = diagonales[i + 1];
+            long mascara = DIAGONAL[longitud];
+            int br = (int) (((r >>> inicio) & mascara) * BYTES >>> 56);
+            int ba = (int) (((a >>> inicio) & mascara) * BYTES >>> 56);
+            valor += LINEAS[longitud][TERNARIO[br] + 2 * TERNARIO[ba]];
+        }
+        return valor;
+    }
+
+    /**
+     * Reúne las casillas de una fila en los bits bajos, en orden inverso de
+     * columna (la columna c queda en el bit m - 1 - c)
+     */
+    private static int fila(long fichas, int fila, int m) {
+        return (int) (((fichas >>> fila) & FILA) * REUNE_FILA >>> 56) >>> (8 - m);
+    }
+
+    /**
+     * Puntos de centro de las fichas de un color
+     *
+     * @param mias Fichas del color
+     * @param m    Tamaño del tablero
+     * @return Suma de 4 - distancia a la columna central de cada ficha
+     */
+    private static int centro(long mias, int m) {
+        int puntos = 0;
+        int[] tabla = CENTRO[m];
+        for (int fila = 0; fila < m; fila++) {
+            puntos += tabla[fila(mias, fila, m)];
+        }
+        return puntos;
+    }
+
+    /**
+     * Evaluación sobre Tauler para los tableros que no caben en TaulerBits:
+     * la misma puntuación contando las ventanas casilla a casilla
+     */
+    private int hGrande(Tauler t, int miColor) {
         int puntuacion = 0;
 
         // Contar líneas de 3 fichas
@@ -40,7 +339,7 @@ public class Heuristica {
     }
 
     /**
-     * Detecta si alguien puede ganar en el siguiente turno
+     * Detecta si alguien puede ganar en el siguiente turno (tableros grandes)
      * 
      * @param t       Tablero a analizar
      * @param miColor Color del jugador
@@ -76,7 +375,7 @@ public class Heuristica {
     }
 
     /**
-     * Cuenta líneas de una longitud específica
+     * Cuenta líneas de una longitud específica (tableros grandes)
      * 
      * @param t        Tablero a analizar
      * @param color    Color de las fichas
@@ -158,7 +457,7 @@ public class Heuristica {
     }
 
     /**
-     * Evalúa el control del centro
+     * Evalúa el control del centro (tableros grandes)
      * 
      * @param t       Tablero
      * @param miColor Color del jugador
@@ -0,0 +1,306 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.util.Map;
+
+/**
+ * Versión de Heuristica sobre máscaras de bits, con el mismo resultado.
+ * Cada máscara de 64 bits procesa a la vez todas las ventanas de 4 casillas
+ * de una dirección: los desplazamientos alinean las 4 casillas de cada
+ * ventana en el bit de su casilla inicial y un sumador por bits cuenta las
+ * fichas de cada ventana sin bifurcaciones.
+ *
+ * evaluaLote() valora todos los hijos de un nodo en una sola llamada: primero
+ * empaqueta los tableros hijos en arrays de long y después los evalúa en un
+ * único bucle sobre esos arrays.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class HeuristicaBits {
+
+    private static final int PESO_TRES = 50000;
+    private static final int PESO_DOS = 1000;
+    private static final int PESO_CENTRO = 100;
+    private static final int AMENAZA = 90000000;
+
+    // Desplazamientos de las direcciones: horizontal, vertical, diagonal / y diagonal \
+    private static final int[] DESPLAZAMIENTO = {8, 1, 9, 7};
+
+    // Casillas iniciales válidas de cada dirección: INICIOS[mida][direccion]
+    private static final long[][] INICIOS = new long[TaulerBits.MIDA_MAX + 1][4];
+    private static final long[] TABLERO = new long[TaulerBits.MIDA_MAX + 1];
+    private static final long[] FONDO = new long[TaulerBits.MIDA_MAX + 1];
+    // Planos de bits del peso de centro (4 - distancia): CENTRO[mida][bit del peso]
+    private static final long[][] CENTRO = new long[TaulerBits.MIDA_MAX + 1][3];
+
+    static {
+        for (int m = 1; m <= TaulerBits.MIDA_MAX; m++) {
+            long[] guardadas = Tablas.lee("heuristicaBits" + m);
+            if (guardadas != null) {
+                System.arraycopy(guardadas, 0, INICIOS[m], 0, 4);
+                TABLERO[m] = guardadas[4];
+                FONDO[m] = guardadas[5];
+                System.arraycopy(guardadas, 6, CENTRO[m], 0, 3);
+                continue;
+            }
+            for (int col = 0; col < m; col++) {
+                FONDO[m] |= 1L << TaulerBits.bit(0, col);
+                int peso = 4 - Math.abs(col - m / 2);
+                for (int fila = 0; fila < m; fila++) {
+                    long b = 1L << TaulerBits.bit(fila, col);
+                    TABLERO[m] |= b;
+                    for (int k = 0; k < 3; k++) {
+                        if ((peso >> k & 1) != 0) {
+                            CENTRO[m][k] |= b;
+                        }
+                    }
+                    if (col <= m - 4) {
+                        INICIOS[m][0] |= b;
+                    }
+                    if (fila <= m - 4) {
+                        INICIOS[m][1] |= b;
+                    }
+                    if (fila <= m - 4 && col <= m - 4) {
+                        INICIOS[m][2] |= b;
+                    }
+                    if (fila >= 3 && col <= m - 4) {
+                        INICIOS[m][3] |= b;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Añade las máscaras de cada mida para la instantánea de Tablas:
+     * INICIOS, TABLERO, FONDO y CENTRO seguidos
+     *
+     * @param destino Tablas por nombre
+     */
+    static void exportaTablas(Map<String, long[]> destino) {
+        for (int m = 1; m <= TaulerBits.MIDA_MAX; m++) {
+            long[] t = new long[9];
+            System.arraycopy(INICIOS[m], 0, t, 0, 4);
+            t[4] = TABLERO[m];
+            t[5] = FONDO[m];
+            System.arraycopy(CENTRO[m], 0, t, 6, 3);
+            destino.put("heuristicaBits" + m, t);
+        }
+    }
+
+    // Tableros hijos empaquetados para evaluaLote()
+    private final long[] loteMias = new long[TaulerBits.MIDA_MAX];
+    private final long[] loteSuyas = new long[TaulerBits.MIDA_MAX];
+    private final long[] loteFicha = new long[TaulerBits.MIDA_MAX];
+
+    /**
+     * Evalúa una posición del tablero (igual que Heuristica.h)
+     *
+     * @param t       Tablero a evaluar
+     * @param miColor Color del jugador (1 o -1)
+     * @return Puntuación (positiva = buena, negativa = mala)
+     */
+    public int h(TaulerBits t, int miColor) {
+        return h(t.fichas(miColor), t.fichas(-miColor), t.getMida());
+    }
+
+    /**
+     * Evalúa una posición dada por sus máscaras
+     *
+     * @param mias  Fichas del jugador
+     * @param suyas Fichas del oponente
+     * @param mida  Tamaño del tablero
+     * @return Puntuación para el jugador de mias
+     */
+    public static int h(long mias, long suyas, int mida) {
+        int tresMias = 0;
+        int tresSuyas = 0;
+        int dosMias = 0;
+        int dosSuyas = 0;
+        long ocupadas = mias | suyas;
+        long jugables = jugables(ocupadas, mida);
+        long ganaMias = 0;
+        long ganaSuyas = 0;
+        long vacias = ~ocupadas & TABLERO[mida];
+
+        for (int d = 0; d < 4; d++) {
+            int s = DESPLAZAMIENTO[d];
+            long inicios = INICIOS[mida][d];
+
+            // Ventanas sin fichas del otro color
+            long libresMias = inicios & ~(suyas | suyas >>> s | suyas >>> 2 * s | suyas >>> 3 * s);
+            long libresSuyas = inicios & ~(mias | mias >>> s | mias >>> 2 * s | mias >>> 3 * s);
+
+            tresMias += Long.bitCount(libresMias & exactamente(mias, s, 3));
+            dosMias += Long.bitCount(libresMias & exactamente(mias, s, 2));
+            tresSuyas += Long.bitCount(libresSuyas & exactamente(suyas, s, 3));
+            dosSuyas += Long.bitCount(libresSuyas & exactamente(suyas, s, 2));
+
+            ganaMias |= casillasGanadoras(mias, vacias, inicios, s);
+            ganaSuyas |= casillasGanadoras(suyas, vacias, inicios, s);
+        }
+
+        int puntuacion = (tresMias - tresSuyas) * PESO_TRES + (dosMias - dosSuyas) * PESO_DOS;
+        long[] centro = CENTRO[mida];
+        puntuacion += (Long.bitCount(mias & centro[0]) + 2 * Long.bitCount(mias & centro[1])
+                + 4 * Long.bitCount(mias & centro[2])) * PESO_CENTRO;
+
+        if ((ganaMias & jugables) != 0) {
+            puntuacion += AMENAZA;
+        } else if ((ganaSuyas & jugables) != 0) {
+            puntuacion -= AMENAZA;
+        }
+        return puntuacion;
+    }
+
+    /**
+     * Evalúa todos los hijos de un nodo en una sola llamada. Un hijo que gana
+     * vale ±VICTORIA y uno que llena el tablero vale 0, como en la búsqueda.
+     *
+     * @param t              Tablero del nodo padre (no se modifica)
+     * @param color          Color que mueve en el padre
+     * @param jugadorInicial Color para el que se valora
+     * @param columnas       Columnas legales del padre
+     * @param n              Número de columnas
+     * @param salida         Valor de cada hijo para jugadorInicial
+     */
+    public void evaluaLote(TaulerBits t, int color, int jugadorInicial, int[] columnas, int n, int[] salida) {
+        int mida = t.getMida();
+        long propias = t.fichas(color);
+        long otras = t.fichas(-color);
+        boolean lleno = t.getJugadas() + 1 == mida * mida;
+
+        // Empaquetar los hijos desde el punto de vista de jugadorInicial
+        for (int i = 0; i < n; i++) {
+            int col = columnas[i];
+            loteFicha[i] = 1L << TaulerBits.bit(t.getAltura(col), col);
+            long nuevas = propias | loteFicha[i];
+            loteMias[i] = color == jugadorInicial ? nuevas : otras;
+            loteSuyas[i] = color == jugadorInicial ? otras : nuevas;
+        }
+
+        int signo = color == jugadorInicial ? 1 : -1;
+        for (int i = 0; i < n; i++) {
+            long nuevas = color == jugadorInicial ? loteMias[i] : loteSuyas[i];
+            if (ganaCon(nuevas, loteFicha[i], mida)) {
+                salida[i] = signo * BusquedaBits.VICTORIA;
+            } else if (lleno) {
+                salida[i] = 0;
+            } else {
+                salida[i] = h(loteMias[i], loteSuyas[i], mida);
+            }
+        }
+    }
+
+    /**
+     * @param fichas Fichas de un color, incluida la recién puesta
+     * @param ficha  Bit de la ficha recién puesta
+     * @param mida   Tamaño del tablero
+     * @return true si la ficha forma cuatro en línea
+     */
+    static boolean ganaCon(long fichas, long ficha, int mida) {
+        for (int d = 0; d < 4; d++) {
+            int s = DESPLAZAMIENTO[d];
+            long cuatro = INICIOS[mida][d] & fichas & fichas >>> s & fichas >>> 2 * s & fichas >>> 3 * s;
+            if (cuatro != 0 && ((cuatro | cuatro << s | cuatro << 2 * s | cuatro << 3 * s) & ficha) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param ocupadas Casillas ocupadas
+     * @param mida     Tamaño del tablero
+     * @return Casilla libre más baja de cada columna no llena
+     */
+    public static long jugables(long ocupadas, int mida) {
+        return ((ocupadas << 1) | FONDO[mida]) & ~ocupadas & TABLERO[mida];
+    }
+
+    /**
+     * @param fichas   Fichas de un color
+     * @param ocupadas Casillas ocupadas por cualquier color
+     * @param mida     Tamaño del tablero
+     * @return Casillas libres que darían cuatro en línea a ese color
+     */
+    public static long casillasGanadoras(long fichas, long ocupadas, int mida) {
+        long vacias = ~ocupadas & TABLERO[mida];
+        long gana = 0;
+        for (int d = 0; d < 4; d++) {
+            gana |= casillasGanadoras(fichas, vacias, INICIOS[mida][d], DESPLAZAMIENTO[d]);
+        }
+        return gana;
+    }
+
+    /**
+     * Cota de las jugadas que le faltan a un color para hacer cuatro en
+     * línea: las casillas vacías de su ventana sin fichas del rival más
+     * llena (sin contar las que hay que rellenar debajo)
+     *
+     * @param fichas Fichas del color
+     * @param otras  Fichas del rival
+     * @param mida   Tamaño del tablero
+     * @return De 1 a 4, o 0 si ya no puede ganar
+     */
+    static int jugadasParaGanar(long fichas, long otras, int mida) {
+        int minimo = 0;
+        for (int d = 0; d < 4; d++) {
+            int s = DESPLAZAMIENTO[d];
+            long libres = INICIOS[mida][d] & ~(otras | otras >>> s | otras >>> 2 * s | otras >>> 3 * s);
+            if (libres == 0) {
+                continue;
+            }
+            if ((libres & exactamente(fichas, s, 3)) != 0) {
+                return 1;
+            }
+            int faltan;
+            if ((libres & exactamente(fichas, s, 2)) != 0) {
+                faltan = 2;
+            } else if ((libres & (fichas | fichas >>> s | fichas >>> 2 * s | fichas >>> 3 * s)) != 0) {
+                faltan = 3;
+            } else {
+                faltan = 4;
+            }
+            if (minimo == 0 || faltan < minimo) {
+                minimo = faltan;
+            }
+        }
+        return minimo;
+    }
+
+    /**
+     * Marca en su casilla inicial las ventanas con exactamente k fichas
+     */
+    private static long exactamente(long b, int s, int k) {
+        long a0 = b;
+        long a1 = b >>> s;
+        long a2 = b >>> 2 * s;
+        long a3 = b >>> 3 * s;
+        // Sumador por bits: unos + 2 * doses + 4 * cuatros
+        long s0 = a0 ^ a1;
+        long c0 = a0 & a1;
+        long s1 = a2 ^ a3;
+        long c1 = a2 & a3;
+        long unos = s0 ^ s1;
+        long acarreo = s0 & s1;
+        long doses = c0 ^ c1 ^ acarreo;
+        long cuatros = (c0 & c1) | ((c0 ^ c1) & acarreo);
+        if (k == 3) {
+            return unos & doses & ~cuatros;
+        }
+        return ~unos & doses & ~cuatros;
+    }
+
+    /**
+     * Casillas vacías que completarían cuatro en línea en una dirección
+     */
+    private static long casillasGanadoras(long b, long vacias, long inicios, int s) {
+        long b1 = b >>> s;
+        long b2 = b >>> 2 * s;
+        long b3 = b >>> 3 * s;
+        return (inicios & vacias & b1 & b2 & b3)
+                | (inicios & b & vacias >>> s & b2 & b3) << s
+                | (inicios & b & b1 & vacias >>> 2 * s & b3) << 2 * s
+                | (inicios & b & b1 & b2 & vacias >>> 3 * s) << 3 * s;
+    }
+}
@@ -0,0 +1,18 @@
+package edu.epsevg.prop.lab.c4;
+
+/**
+ * Jugador que usa números aleatorios y puede repetir sus jugadas
+ *
+ * @author Alex Aranda Salinas
+ */
+public interface IAleatorio {
+
+    /**
+     * Se llama antes de cada partida. Con la misma semilla y las mismas
+     * jugadas del rival, el jugador repite las mismas jugadas (si no
+     * depende también del tiempo).
+     *
+     * @param semilla Semilla de la partida para este jugador
+     */
+    void setSemilla(long semilla);
+}
@@ -0,0 +1,24 @@
+package edu.epsevg.prop.lab.c4;
+
+/**
+ * Jugador que expone estadísticas de su última búsqueda
+ *
+ * @author Alex Aranda Salinas
+ */
+public interface IEstadisticas {
+
+    /**
+     * @return Valoración de la jugada elegida en el último moviment()
+     */
+    int getUltimoValor();
+
+    /**
+     * @return Nodos explorados en el último moviment()
+     */
+    long getNodosExplorados();
+
+    /**
+     * @return Profundidad alcanzada en el último moviment()
+     */
+    int getProfundidadAlcanzada();
+}
@@ -0,0 +1,18 @@
+package edu.epsevg.prop.lab.c4;
+
+/**
+ * Jugador que reparte su tiempo cuando la partida tiene reloj
+ *
+ * @author Alex Aranda Salinas
+ */
+public interface IReloj {
+
+    /**
+     * Se llama antes de cada moviment() de una partida con reloj. Si el
+     * jugador se pasa del tiempo restante, pierde la partida.
+     *
+     * @param restanteMs   Tiempo que le queda al jugador, o 0 para jugar sin reloj
+     * @param incrementoMs Tiempo que se le suma después de cada jugada
+     */
+    void setReloj(long restanteMs, long incrementoMs);
+}
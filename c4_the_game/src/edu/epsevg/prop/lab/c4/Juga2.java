@@ -1,10 +1,15 @@
 package edu.epsevg.prop.lab.c4;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import javax.swing.JDialog;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
@@ -32,6 +37,22 @@ public class Juga2 extends javax.swing.JFrame {
     int otherColor;
     boolean autoMode = true;
     boolean estaPensant = false;
+    RegistroPartidas.Partida partida;
+    // Rellotge de la partida (-Dc4.reloj, vegeu Reloj), o null sense rellotge
+    Reloj reloj;
+    // Inici del torn actual, per descomptar-lo del rellotge
+    long iniciTorn;
+    // Finestra d'anàlisi de cada posició (-Dc4.analisis=línies), o null
+    PanelAnalisis analisi;
+
+    // Interval mínim entre repintats: les peticions dins l'interval s'agrupen
+    static final int REFRESC_MS = 16;
+    // Imatge del tauler amb les fitxes ja dibuixades, i fitxes dibuixades per columna
+    BufferedImage imatgeTauler;
+    int[] fitxesDibuixades = new int[8];
+    // Fitxes precalculades (antialiasing fet una sola vegada)
+    BufferedImage spriteVermell;
+    BufferedImage spriteBlau;
 
     /**
      * Creates new form NewJFrame
@@ -58,13 +79,110 @@ public class Juga2 extends javax.swing.JFrame {
         currentColor = 1;
         otherColor = -1;
 
-        jTextField1.setText(player1.nom());
-        jTextField3.setText(player2.nom());
+        if (reloj != null) {
+            reloj.reinicia();
+        }
+        mostraNoms();
+
+        partida = new RegistroPartidas.Partida();
+        partida.mida = t.getMida();
+        partida.jugador1 = player1.nom();
+        partida.jugador2 = player2.nom();
 
         Dimension mides = jLayeredPane1.getSize();
         Ymax = mides.getHeight();
         Xmax = mides.getWidth();
         Step = (int) Xmax / 8;
+
+        preparaImatges();
+    }
+
+    /**
+     * Mostra el nom de cada jugador i, si n'hi ha, el temps que li queda
+     */
+    private void mostraNoms() {
+        jTextField1.setText(player1.nom() + temps(1));
+        jTextField3.setText(player2.nom() + temps(-1));
+    }
+
+    private String temps(int color) {
+        if (reloj == null) {
+            return "";
+        }
+        long ms = Math.max(0, reloj.getRestante(color));
+        return String.format(" %d:%02d.%d", ms / 60000, ms / 1000 % 60, ms / 100 % 10);
+    }
+
+    /**
+     * Crea la imatge buida del tauler i les fitxes precalculades
+     */
+    private void preparaImatges() {
+        int size = (int) (Step * REL_SIZE);
+        if (imatgeTauler == null || imatgeTauler.getWidth() != (int) Xmax || imatgeTauler.getHeight() != (int) Ymax) {
+            imatgeTauler = new BufferedImage(Math.max(1, (int) Xmax), Math.max(1, (int) Ymax), BufferedImage.TYPE_INT_ARGB);
+            spriteVermell = creaSprite(Color.RED, size);
+            spriteBlau = creaSprite(Color.BLUE, size);
+        } else {
+            Graphics2D g = imatgeTauler.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, imatgeTauler.getWidth(), imatgeTauler.getHeight());
+            g.dispose();
+        }
+        Arrays.fill(fitxesDibuixades, 0);
+        if (p != null) {
+            p.repaint();
+        }
+    }
+
+    private static BufferedImage creaSprite(Color color, int size) {
+        BufferedImage img = new BufferedImage(size + 1, size + 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(color);
+        g.fillOval(0, 0, size, size);
+        g.setColor(Color.BLACK);
+        g.drawOval(0, 0, size, size);
+        g.dispose();
+        return img;
+    }
+
+    /**
+     * Dibuixa a la imatge del tauler només les fitxes que encara no hi són
+     * (normalment, la del darrer moviment)
+     */
+    private void actualitzaImatge() {
+        Graphics2D g = null;
+        int m = (int) ((Step * (1 - REL_SIZE)) * 0.5);
+        for (int col = 0; col < 8; col++) {
+            int fil = fitxesDibuixades[col];
+            while (fil < 8 && t.getColor(fil, col) != 0) {
+                if (g == null) {
+                    g = imatgeTauler.createGraphics();
+                }
+                BufferedImage sprite = t.getColor(fil, col) == 1 ? spriteVermell : spriteBlau;
+                g.drawImage(sprite, Step * col + m, ((int) Ymax - (fil + 1) * (int) (Ymax / 8.0)) + m, null);
+                fil++;
+            }
+            fitxesDibuixades[col] = fil;
+        }
+        if (g != null) {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Demana repintar només la casella de la fitxa superior d'una columna
+     */
+    private void repintaCasella(int col) {
+        int fil = 0;
+        while (fil < 8 && t.getColor(fil, col) != 0) {
+            fil++;
+        }
+        int size = (int) (Step * REL_SIZE);
+        int m = (int) ((Step * (1 - REL_SIZE)) * 0.5);
+        int x = jLayeredPane1.getX() + Step * col + m;
+        int y = jLayeredPane1.getY() + ((int) Ymax - Math.max(1, fil) * (int) (Ymax / 8.0)) + m;
+        p.repaint(REFRESC_MS, x, y, size + 1, size + 1);
     }
 
     /**
@@ -94,28 +212,68 @@ public class Juga2 extends javax.swing.JFrame {
         }
         //</editor-fold>
 
-        // Definiu al vostre gust els jugadors a enfrontar.
-        Jugador p2 = new JugadorPropi(8);
-        // Jugador p1 = new Aleatori();
+        // Jugadors a enfrontar: arguments, -Dc4.jugador1/-Dc4.jugador2 o
+        // els de sempre. Vegeu FabricaJugadores per al format.
+        String spec1 = args.length > 0 ? args[0] : System.getProperty("c4.jugador1", "profe:2");
+        String spec2 = args.length > 1 ? args[1] : System.getProperty("c4.jugador2", "propi:8");
+        Jugador p1;
+        Jugador p2;
+        try {
+            p1 = FabricaJugadores.crea(spec1);
+            p2 = FabricaJugadores.crea(spec2);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(2);
+            return;
+        }
 
-        Jugador p1 = new Profe(2, false);
-        // Jugador p2 = new Manual();
- 
         boolean autoMode = true;
         final Juga2 j = new Juga2(p1, p2, autoMode);
+        if (System.getProperty("c4.reloj") != null) {
+            try {
+                j.reloj = Reloj.parsea(System.getProperty("c4.reloj"));
+            } catch (IllegalArgumentException ex) {
+                System.err.println(ex.getMessage());
+                System.exit(2);
+                return;
+            }
+            j.mostraNoms();
+        }
+        // Anàlisi de cada posició amb un jugador a part (-Dc4.analisis.jugador)
+        if (System.getProperty("c4.analisis") != null) {
+            try {
+                Jugador a = FabricaJugadores.crea(
+                        System.getProperty("c4.analisis.jugador", "propi:depth=8,motor=bits,nodos=false"));
+                if (!(a instanceof JugadorPropi)) {
+                    throw new IllegalArgumentException("Només analitzen els jugadors propi");
+                }
+                j.analisi = new PanelAnalisis((JugadorPropi) a, Integer.parseInt(System.getProperty("c4.analisis")));
+            } catch (IllegalArgumentException ex) {
+                System.err.println(ex.getMessage());
+                System.exit(2);
+                return;
+            }
+        }
 
         /* Create and display the form */
         java.awt.EventQueue.invokeLater(new Runnable() {
             @Override
             public void run() {
                 j.setVisible(true);
+                if (j.analisi != null) {
+                    j.analisi.setVisible(true);
+                }
                 j.mostraTornActual();
             }
         });
     }
 
     private void mostraTornActual() {
+        iniciTorn = System.currentTimeMillis();
         jTextField2.setText("TOCA JUGAR " + currentPlayer.nom() + " " + ((currentColor == 1) ? "P1(RED)" : "P2(BLUE)"));
+        if (analisi != null) {
+            analisi.analiza(new Tauler(t), currentColor);
+        }
         if (autoMode && currentPlayer instanceof IAuto) {
             runAuto();
         }
@@ -247,18 +405,21 @@ public class Juga2 extends javax.swing.JFrame {
         pack();
     }// </editor-fold>
 
-    private int whichx(int col) {
-        int m = (int)((Step * (1-REL_SIZE))*0.5);
-        return getInsets().left+  this.jLayeredPane1.getX()+(Step * col ) + m;//+ 70);
-    }
-
-    private int whichy(int fil) {
-        //return (446 - fil * 50);
-        int m = (int)((Step * (1-REL_SIZE))*0.5);
-        return getInsets().top+this.jLayeredPane1.getY()+((int)Ymax - (fil+1) * (int)(Ymax/8.0)) + m;
-    }
     private class MyPanel extends JPanel {
 
+        /**
+         * Les fitxes es pinten dins la jerarquia de Swing (amb el seu doble
+         * buffer), de manera que un repintat parcial també les inclou
+         */
+        @Override
+        protected void paintChildren(Graphics g) {
+            super.paintChildren(g);
+            if (imatgeTauler != null) {
+                // Només es copia la imatge del tauler: les fitxes noves s'hi afegeixen abans
+                actualitzaImatge();
+                g.drawImage(imatgeTauler, jLayeredPane1.getX(), jLayeredPane1.getY(), null);
+            }
+        }
     }
     private void jLayeredPane1MouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_jLayeredPane1MouseClicked
 //        // TODO add your handling code here:
@@ -283,10 +444,23 @@ public class Juga2 extends javax.swing.JFrame {
     } //GEN-LAST:event_jLayeredPane1MouseClicked
 
     private void mouCurrentPlayer(int colu) {
+        mouCurrentPlayer(new RegistroPartidas.Jugada(colu));
+    }
 
+    private void mouCurrentPlayer(RegistroPartidas.Jugada jugada) {
+        int colu = jugada.columna;
+        if (reloj != null && !reloj.descuenta(currentColor, System.currentTimeMillis() - iniciTorn)) {
+            // S'ha passat de temps: la jugada no compta i perd la partida
+            String guanya = currentPlayer == player1 ? "P2(" + otherPlayer.nom() + ")" : "P1(" + otherPlayer.nom() + ")";
+            acabaPartida(currentPlayer == player1 ? "FORA DE TEMPS" : "WINNER", "TEMPS ESGOTAT",
+                    currentPlayer == player1 ? "WINNER" : "FORA DE TEMPS", "GUANYA " + guanya, -currentColor);
+            return;
+        }
+        mostraNoms();
         try {
             t.afegeix(colu, currentColor);
-            repaint();
+            partida.jugadas.add(jugada);
+            repintaCasella(colu);
             verificaSiHaAcabat(colu, currentColor);
         } 
         catch (Exception ex) 
@@ -332,26 +506,57 @@ public class Juga2 extends javax.swing.JFrame {
                 dTitle = "TAULES";
             }
 
-            jTextField1.setText(text1);
-            jTextField2.setText(text2);
-            jTextField3.setText(text3);
-
-            int n = JOptionPane.showConfirmDialog(
-                    this, dTitle,
-                    "Tornar a jugar",
-                    JOptionPane.YES_NO_OPTION);
-            if (n == JOptionPane.YES_OPTION) {
-                init();
-            } else if (n == JOptionPane.NO_OPTION) {
-                System.exit(0);
+            acabaPartida(text1, text2, text3, dTitle, t.solucio(colu, color) ? color : 0);
+            return;
+        }
+        canviTorn();
+        mostraTornActual();
+    }
+
+    /**
+     * Mostra el resultat, guarda la partida i pregunta si es torna a jugar
+     */
+    private void acabaPartida(String text1, String text2, String text3, String dTitle, int resultat) {
+        jTextField1.setText(text1);
+        jTextField2.setText(text2);
+        jTextField3.setText(text3);
+
+        partida.resultado = resultat;
+        guardaPartida();
+        for (Jugador j : new Jugador[]{player1, player2}) {
+            if (j instanceof JugadorPropi) {
+                ((JugadorPropi) j).terminaPartida();
             }
-        } else {
-            canviTorn();
+        }
+
+        int n = JOptionPane.showConfirmDialog(
+                this, dTitle,
+                "Tornar a jugar",
+                JOptionPane.YES_NO_OPTION);
+        if (n == JOptionPane.YES_OPTION) {
+            init();
+        } else if (n == JOptionPane.NO_OPTION) {
+            System.exit(0);
         }
         mostraTornActual();
     }
 
-    class Mover extends SwingWorker<Integer, Object> {
+    /**
+     * Afegeix la partida acabada al fitxer indicat a -Dc4.registro, si n'hi ha
+     */
+    private void guardaPartida() {
+        String fitxer = System.getProperty("c4.registro");
+        if (fitxer == null) {
+            return;
+        }
+        try {
+            RegistroPartidas.anade(Paths.get(fitxer), partida);
+        } catch (IOException ex) {
+            System.err.println("No s'ha pogut guardar la partida: " + ex.getMessage());
+        }
+    }
+
+    class Mover extends SwingWorker<RegistroPartidas.Jugada, Object> {
 
         int color;
         Jugador jugador;
@@ -362,8 +567,11 @@ public class Juga2 extends javax.swing.JFrame {
         }
 
         @Override
-        public Integer doInBackground() {
-            return jugador.moviment(t, color);
+        public RegistroPartidas.Jugada doInBackground() {
+            if (reloj != null && jugador instanceof IReloj) {
+                ((IReloj) jugador).setReloj(reloj.getRestante(color), reloj.getIncremento());
+            }
+            return Enfrentamiento.mueve(jugador, t, color);
         }
 
         @Override
@@ -374,37 +582,12 @@ public class Juga2 extends javax.swing.JFrame {
                 jLayeredPane1.setEnabled(true);
 
                 mouCurrentPlayer(get());
-                repaint();
                 estaPensant = false;
             } catch (Exception ignore) {
             }
         }
     }
 
-    @Override
-    public void paint(Graphics g1) {
-        super.paint(g1);
-        Graphics2D g = (Graphics2D) g1;
-        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, // Anti-alias!
-        RenderingHints.VALUE_ANTIALIAS_ON);
-        int size = (int)(Step * REL_SIZE);
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                if (t.getColor(j, i) == 1) {
-                    g.setColor(Color.RED);                    
-                    g.fillOval(whichx(i), whichy(j), size, size);
-                    g.setColor(Color.BLACK);
-                    g.drawOval(whichx(i), whichy(j), size, size);
-                } else if (t.getColor(j, i) == -1) {
-                    g.setColor(Color.BLUE);                    
-                    g.fillOval(whichx(i), whichy(j), size, size);
-                    g.setColor(Color.BLACK);
-                    g.drawOval(whichx(i), whichy(j), size, size);
-                }
-            }
-        }
-    }
-
     // Variables declaration - do not modify
     private javax.swing.Box.Filler filler10;
     private javax.swing.Box.Filler filler2;
@@ -0,0 +1,539 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Jugador con búsqueda Monte Carlo en árbol (UCT).
+ *
+ * El árbol se guarda en arrays de tipos primitivos indexados por nodo: los
+ * hijos de un nodo ocupan posiciones consecutivas a partir de primerHijo.
+ * Los tableros no se guardan; cada iteración rehace el camino desde la raíz
+ * sobre un TaulerBits propio del hilo. Las partidas simuladas juegan al azar
+ * sobre las máscaras de bits, aunque ganan si pueden y tapan la victoria
+ * inmediata del rival.
+ *
+ * Varios hilos recorren el mismo árbol. Cada hilo suma la visita al bajar
+ * por un nodo y el resultado al volver (pérdida virtual): mientras tanto el
+ * nodo parece peor y los demás hilos tienden a explorar otros. La expansión
+ * de un nodo se reserva con un compareAndSet, así que nunca se bloquea.
+ *
+ * Entre jugadas se conserva el subárbol de la posición que se recibe, que se
+ * compacta al principio del array; el resto se descarta.
+ *
+ * Con un número fijo de simulaciones por jugada, un hilo y la misma semilla
+ * (setSemilla) las jugadas se repiten; por tiempo o con varios hilos no.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class JugadorMCTS implements Jugador, IAuto, IEstadisticas, IReloj, IAleatorio {
+
+    // Valores de primerHijo de un nodo sin hijos
+    private static final int SIN_EXPANDIR = -1;
+    private static final int EXPANDIENDO = -2;
+
+    // Puntos de cada resultado para quien hizo la jugada del nodo
+    private static final int PUNTOS_VICTORIA = 2;
+    private static final int PUNTOS_TABLAS = 1;
+
+    private static final int MAX_PLY = TaulerBits.MIDA_MAX * TaulerBits.MIDA_MAX + 1;
+
+    /**
+     * Árbol en arrays: un índice por nodo
+     */
+    private static class Arbol {
+        final byte[] columna;
+        final byte[] numHijos;
+        final AtomicIntegerArray primerHijo;
+        final AtomicIntegerArray visitas;
+        final AtomicIntegerArray puntos;
+        final AtomicInteger siguiente = new AtomicInteger();
+
+        Arbol(int capacidad) {
+            columna = new byte[capacidad];
+            numHijos = new byte[capacidad];
+            primerHijo = new AtomicIntegerArray(capacidad);
+            visitas = new AtomicIntegerArray(capacidad);
+            puntos = new AtomicIntegerArray(capacidad);
+        }
+
+        int capacidad() {
+            return columna.length;
+        }
+
+        /**
+         * Deja el árbol con solo la raíz
+         */
+        void reinicia() {
+            siguiente.set(1);
+            primerHijo.set(0, SIN_EXPANDIR);
+            visitas.set(0, 0);
+            puntos.set(0, 0);
+        }
+    }
+
+    private final String nom = "MCTS";
+    private final long tiempoMs;
+    // Simulaciones por jugada (0 = por tiempo)
+    private long iteraciones;
+    // Reloj de la partida (restante 0 = tiempoMs por jugada)
+    private long relojRestante;
+    private long relojIncremento;
+    private final GestorTiempo gestor = new GestorTiempo();
+    private final int hilos;
+    private final double exploracion;
+
+    private Arbol arbol;
+    private Arbol reserva;
+    // Nodo original de cada nodo compactado
+    private final int[] origen;
+    private final Trabajador[] trabajadores;
+    private ExecutorService pool;
+
+    // Posición de la raíz
+    private TaulerBits raizTablero;
+    private int raizColor;
+    private volatile long fin;
+
+    // Posición tras nuestra última jugada y su nodo, para reutilizar el árbol
+    private TaulerBits anterior;
+    private int raizSiguiente;
+
+    private long simulaciones;
+    private int ultimoValor;
+    private int profundidadAlcanzada;
+
+    /**
+     * Jugador de 1 hilo, 1 segundo por jugada
+     */
+    public JugadorMCTS() {
+        this(1000, 1, 1 << 20, Math.sqrt(2));
+    }
+
+    /**
+     * @param tiempoMs    Tiempo por jugada en milisegundos
+     * @param hilos       Hilos de búsqueda (incluido el que llama a moviment)
+     * @param capacidad   Máximo de nodos del árbol
+     * @param exploracion Constante de exploración de UCT
+     */
+    public JugadorMCTS(long tiempoMs, int hilos, int capacidad, double exploracion) {
+        if (hilos < 1 || capacidad < TaulerBits.MIDA_MAX + 1) {
+            throw new IllegalArgumentException("Hilos o capacidad no válidos: " + hilos + ", " + capacidad);
+        }
+        this.tiempoMs = tiempoMs;
+        this.hilos = hilos;
+        this.exploracion = exploracion;
+        arbol = new Arbol(capacidad);
+        reserva = new Arbol(capacidad);
+        origen = new int[capacidad];
+        trabajadores = new Trabajador[hilos];
+        SplittableRandom semillas = new SplittableRandom();
+        for (int i = 0; i < hilos; i++) {
+            trabajadores[i] = new Trabajador(semillas.split());
+        }
+    }
+
+    /**
+     * Cada hilo recibe un generador derivado de la semilla
+     */
+    @Override
+    public void setSemilla(long semilla) {
+        SplittableRandom semillas = new SplittableRandom(semilla);
+        for (Trabajador w : trabajadores) {
+            w.r = semillas.split();
+        }
+        // El árbol conservado viene de la partida anterior
+        anterior = null;
+    }
+
+    /**
+     * Juega con un número fijo de simulaciones por jugada en lugar de por
+     * tiempo (el reloj de la partida se ignora)
+     *
+     * @param n Simulaciones por jugada, repartidas entre los hilos, o 0
+     *          para volver a jugar por tiempo
+     */
+    public void setIteraciones(long n) {
+        iteraciones = n;
+    }
+
+    @Override
+    public int moviment(Tauler t, int color) {
+        TaulerBits actual = new TaulerBits(t);
+        int mida = actual.getMida();
+        if (raizTablero == null || raizTablero.getMida() != mida) {
+            raizTablero = new TaulerBits(mida);
+            for (Trabajador w : trabajadores) {
+                w.t = new TaulerBits(mida);
+            }
+            anterior = null;
+        }
+
+        // Victoria inmediata: no hace falta buscar
+        for (int col = 0; col < mida; col++) {
+            if (actual.movpossible(col)) {
+                actual.afegeix(col, color);
+                boolean gana = actual.solucio(col, color);
+                actual.treu(col);
+                if (gana) {
+                    anterior = null;
+                    simulaciones = 0;
+                    ultimoValor = 1000;
+                    profundidadAlcanzada = 1;
+                    return col;
+                }
+            }
+        }
+
+        preparaRaiz(actual, color);
+        trabajadores[0].t.copia(raizTablero);
+        trabajadores[0].expande(0);
+
+        long ms = tiempoMs;
+        if (relojRestante > 0 && iteraciones == 0) {
+            gestor.inicia(relojRestante, relojIncremento, mida * mida - actual.getJugadas());
+            ms = gestor.getObjetivoMs();
+        }
+        fin = System.nanoTime() + ms * 1000000;
+        ejecuta();
+
+        // La jugada más visitada
+        Arbol a = arbol;
+        int primero = a.primerHijo.get(0);
+        int mejor = primero;
+        for (int h = primero; h < primero + a.numHijos[0]; h++) {
+            if (a.visitas.get(h) > a.visitas.get(mejor)) {
+                mejor = h;
+            }
+        }
+        int visitas = a.visitas.get(mejor);
+        ultimoValor = visitas == 0 ? 500 : (int) (a.puntos.get(mejor) * 1000L / (PUNTOS_VICTORIA * (long) visitas));
+        simulaciones = 0;
+        profundidadAlcanzada = 0;
+        for (Trabajador w : trabajadores) {
+            simulaciones += w.simulaciones;
+            profundidadAlcanzada = Math.max(profundidadAlcanzada, w.profundidad);
+        }
+
+        int col = a.columna[mejor];
+        anterior = new TaulerBits(mida);
+        anterior.copia(actual);
+        anterior.afegeix(col, color);
+        raizSiguiente = mejor;
+        return col;
+    }
+
+    /**
+     * Coloca en la raíz (nodo 0) el subárbol de la posición recibida si
+     * viene de la jugada anterior; si no, empieza un árbol nuevo
+     */
+    private void preparaRaiz(TaulerBits actual, int color) {
+        int nueva = -1;
+        if (anterior != null && actual.getJugadas() == anterior.getJugadas() + 1
+                && (anterior.fichas(1) & ~actual.fichas(1)) == 0 && (anterior.fichas(-1) & ~actual.fichas(-1)) == 0) {
+            int primero = arbol.primerHijo.get(raizSiguiente);
+            for (int h = primero; primero >= 0 && h < primero + arbol.numHijos[raizSiguiente]; h++) {
+                int col = arbol.columna[h];
+                if (actual.getAltura(col) == anterior.getAltura(col) + 1) {
+                    nueva = h;
+                }
+            }
+        }
+        raizTablero.copia(actual);
+        raizColor = color;
+        if (nueva >= 0) {
+            compacta(nueva);
+        }
+        // Un subárbol que ocupa más de medio array deja poco sitio para crecer
+        if (nueva < 0 || arbol.siguiente.get() > arbol.capacidad() / 2) {
+            arbol.reinicia();
+        }
+    }
+
+    /**
+     * Copia el subárbol de un nodo al árbol de reserva, en anchura, y lo
+     * convierte en el árbol actual con ese nodo como raíz
+     */
+    private void compacta(int nodo) {
+        Arbol de = arbol;
+        Arbol a = reserva;
+        origen[0] = nodo;
+        int siguiente = 1;
+        for (int n = 0; n < siguiente; n++) {
+            int o = origen[n];
+            a.columna[n] = de.columna[o];
+            a.visitas.set(n, de.visitas.get(o));
+            a.puntos.set(n, de.puntos.get(o));
+            int primero = de.primerHijo.get(o);
+            int k = de.numHijos[o];
+            if (primero < 0 || siguiente + k > a.capacidad()) {
+                a.primerHijo.set(n, SIN_EXPANDIR);
+                continue;
+            }
+            a.primerHijo.set(n, siguiente);
+            a.numHijos[n] = (byte) k;
+            for (int i = 0; i < k; i++) {
+                origen[siguiente++] = primero + i;
+            }
+        }
+        a.siguiente.set(siguiente);
+        reserva = de;
+        arbol = a;
+    }
+
+    /**
+     * Ejecuta las iteraciones en todos los hilos hasta el fin del tiempo
+     */
+    private void ejecuta() {
+        for (Trabajador w : trabajadores) {
+            w.simulaciones = 0;
+            w.profundidad = 0;
+        }
+        if (hilos == 1) {
+            trabajadores[0].run();
+            return;
+        }
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(hilos - 1, r -> {
+                Thread h = new Thread(r, "mcts");
+                h.setDaemon(true);
+                return h;
+            });
+        }
+        Future<?>[] tareas = new Future<?>[hilos - 1];
+        for (int i = 1; i < hilos; i++) {
+            tareas[i - 1] = pool.submit(trabajadores[i]);
+        }
+        trabajadores[0].run();
+        try {
+            for (Future<?> f : tareas) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Estado de un hilo de búsqueda
+     */
+    private class Trabajador implements Runnable {
+        private SplittableRandom r;
+        private final int[] ruta = new int[MAX_PLY];
+        TaulerBits t = new TaulerBits(TaulerBits.MIDA_MAX);
+        long simulaciones;
+        int profundidad;
+
+        Trabajador(SplittableRandom r) {
+            this.r = r;
+        }
+
+        @Override
+        public void run() {
+            if (iteraciones > 0) {
+                long n = (iteraciones + hilos - 1) / hilos;
+                while (simulaciones < n) {
+                    itera();
+                }
+                return;
+            }
+            do {
+                for (int i = 0; i < 64; i++) {
+                    itera();
+                }
+            } while (System.nanoTime() < fin);
+        }
+
+        /**
+         * Selección, expansión, simulación y propagación
+         */
+        private void itera() {
+            Arbol a = arbol;
+            t.copia(raizTablero);
+            int color = raizColor;
+            int nodo = 0;
+            int n = 0;
+            ruta[n++] = 0;
+            a.visitas.getAndIncrement(0);
+            int ganador;
+
+            while (true) {
+                int primero = a.primerHijo.get(nodo);
+                if (primero == SIN_EXPANDIR && a.visitas.get(nodo) > 1) {
+                    primero = expande(nodo);
+                }
+                if (primero < 0) {
+                    ganador = simula(color);
+                    break;
+                }
+                nodo = selecciona(a, nodo, primero);
+                a.visitas.getAndIncrement(nodo);
+                ruta[n++] = nodo;
+                int col = a.columna[nodo];
+                t.afegeix(col, color);
+                if (t.solucio(col, color)) {
+                    ganador = color;
+                    break;
+                }
+                if (!t.espotmoure()) {
+                    ganador = 0;
+                    break;
+                }
+                color = -color;
+            }
+
+            // El nodo i lo ha jugado el color raizColor si i es impar
+            for (int i = 0; i < n; i++) {
+                int jugo = i % 2 == 1 ? raizColor : -raizColor;
+                int p = ganador == 0 ? PUNTOS_TABLAS : ganador == jugo ? PUNTOS_VICTORIA : 0;
+                if (p != 0) {
+                    a.puntos.getAndAdd(ruta[i], p);
+                }
+            }
+            simulaciones++;
+            profundidad = Math.max(profundidad, n - 1);
+        }
+
+        /**
+         * Crea los hijos de un nodo (sobre el tablero actual del hilo) si
+         * ningún otro hilo lo está haciendo y queda sitio
+         *
+         * @return Primer hijo, o un valor negativo si no se ha expandido
+         */
+        int expande(int nodo) {
+            Arbol a = arbol;
+            if (!a.primerHijo.compareAndSet(nodo, SIN_EXPANDIR, EXPANDIENDO)) {
+                return a.primerHijo.get(nodo);
+            }
+            int mida = t.getMida();
+            int k = 0;
+            for (int col = 0; col < mida; col++) {
+                if (t.movpossible(col)) {
+                    k++;
+                }
+            }
+            int primero = a.siguiente.getAndAdd(k);
+            if (primero + k > a.capacidad()) {
+                a.primerHijo.set(nodo, SIN_EXPANDIR);
+                return SIN_EXPANDIR;
+            }
+            // Centro primero: el orden decide qué hijo sin visitar se prueba antes
+            int h = primero;
+            for (int i = 0; i < mida; i++) {
+                int col = mida / 2 + (i % 2 == 0 ? i / 2 : -(i + 1) / 2);
+                if (t.movpossible(col)) {
+                    a.columna[h] = (byte) col;
+                    a.primerHijo.set(h, SIN_EXPANDIR);
+                    a.visitas.set(h, 0);
+                    a.puntos.set(h, 0);
+                    h++;
+                }
+            }
+            a.numHijos[nodo] = (byte) k;
+            a.primerHijo.set(nodo, primero);
+            return primero;
+        }
+
+        private int selecciona(Arbol a, int nodo, int primero) {
+            int k = a.numHijos[nodo];
+            double logPadre = Math.log(a.visitas.get(nodo));
+            int mejor = primero;
+            double mejorValor = Double.NEGATIVE_INFINITY;
+            for (int h = primero; h < primero + k; h++) {
+                int v = a.visitas.get(h);
+                if (v == 0) {
+                    return h;
+                }
+                double valor = a.puntos.get(h) / (double) (PUNTOS_VICTORIA * v)
+                        + exploracion * Math.sqrt(logPadre / v);
+                if (valor > mejorValor) {
+                    mejorValor = valor;
+                    mejor = h;
+                }
+            }
+            return mejor;
+        }
+
+        /**
+         * Partida al azar desde el tablero del hilo sobre las máscaras
+         *
+         * @param color Color que mueve
+         * @return Color ganador o 0 si son tablas
+         */
+        private int simula(int color) {
+            int mida = t.getMida();
+            long mias = t.fichas(color);
+            long suyas = t.fichas(-color);
+            while (true) {
+                long ocupadas = mias | suyas;
+                long libres = HeuristicaBits.jugables(ocupadas, mida);
+                if (libres == 0) {
+                    return 0;
+                }
+                if ((HeuristicaBits.casillasGanadoras(mias, ocupadas, mida) & libres) != 0) {
+                    return color;
+                }
+                long obligadas = HeuristicaBits.casillasGanadoras(suyas, ocupadas, mida) & libres;
+                long jugada;
+                if (obligadas != 0) {
+                    jugada = Long.lowestOneBit(obligadas);
+                } else {
+                    for (int i = r.nextInt(Long.bitCount(libres)); i > 0; i--) {
+                        libres &= libres - 1;
+                    }
+                    jugada = Long.lowestOneBit(libres);
+                }
+                long m = mias | jugada;
+                mias = suyas;
+                suyas = m;
+                color = -color;
+            }
+        }
+    }
+
+    /**
+     * @return Probabilidad de ganar estimada de la jugada elegida, en tanto por mil
+     */
+    @Override
+    public int getUltimoValor() {
+        return ultimoValor;
+    }
+
+    /**
+     * @return Partidas simuladas en la última jugada
+     */
+    @Override
+    public long getNodosExplorados() {
+        return simulaciones;
+    }
+
+    /**
+     * @return Profundidad máxima del árbol recorrida en la última jugada
+     */
+    @Override
+    public int getProfundidadAlcanzada() {
+        return profundidadAlcanzada;
+    }
+
+    /**
+     * Con reloj, cada jugada dura el objetivo del GestorTiempo en lugar del
+     * tiempo fijo del constructor
+     */
+    @Override
+    public void setReloj(long restanteMs, long incrementoMs) {
+        relojRestante = restanteMs;
+        relojIncremento = incrementoMs;
+    }
+
+    @Override
+    public String nom() {
+        return nom;
+    }
+}
@@ -1,19 +1,60 @@
 package edu.epsevg.prop.lab.c4;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
 /**
  * Jugador Propio - Implementación con Minimax y Poda Alfa-Beta
  * 
  * @author Alex Aranda Salinas
  */
-public class JugadorPropi implements Jugador, IAuto {
+public class JugadorPropi implements Jugador, IAuto, IEstadisticas, IReloj, IAleatorio {
   private String nom;
-  private Heuristica heuristica;
+  private Evaluador heuristica;
   private int profundidadMax;
-  private int nodosExplorados;
-
-  // Constantes para victoria y derrota
-  private static final int VICTORIA = 100000000;
-  private static final int DERROTA = -100000000;
+  private long nodosExplorados;
+  private int ultimoValor;
+  private int profundidadAlcanzada;
+  private boolean mostrarNodos = true;
+  private BusquedaBits busquedaBits;
+  // Búsqueda del análisis para la búsqueda clásica (se crea al usarla)
+  private BusquedaBits analisis;
+  private CacheBusqueda cache;
+  // Reloj de la partida (restante 0 = sin reloj) y reparto del tiempo
+  private long relojRestante;
+  private long relojIncremento;
+  // Tiempo fijo por jugada cuando no hay reloj (0 = profundidad fija)
+  private long tiempoJugada;
+  private final GestorTiempo gestor = new GestorTiempo();
+  private final Perfilador perfilador;
+  // Desempate al azar entre columnas con el mismo valor y su generador
+  private boolean desempateAleatorio;
+  private SplittableRandom azar = new SplittableRandom();
+  // Perfilador del movimiento en curso (null si el perfilado está apagado)
+  private Perfilador perfil;
+  // Traza del árbol de cada movimiento (null si no se traza) y motivo por
+  // el que ha terminado el último nodo de la búsqueda clásica
+  private TrazaBusqueda traza;
+  private int motivo;
+
+  // Constantes para victoria y derrota: una victoria a k plies de la raíz
+  // vale VICTORIA - k, para preferir las rápidas y retrasar las derrotas
+  private static final int VICTORIA = BusquedaBits.VICTORIA;
+  private static final int DERROTA = -BusquedaBits.VICTORIA;
+
+  // Valor de las tablas para este jugador
+  private int valorTablas;
+  // Profundidad de la búsqueda en curso (para calcular la distancia)
+  private int profundidadRaiz;
+
+  // Posición tras la última jugada con victoria demostrada y plies que
+  // faltaban desde ella hasta la victoria (0 si no hay ninguna)
+  private TaulerBits posicion;
+  private long demostradaRojas;
+  private long demostradaAzules;
+  private int pliesDemostrados;
 
   /**
    * Constructor por defecto
@@ -29,10 +70,39 @@ public class JugadorPropi implements Jugador, IAuto {
    * @param profundidad Profundidad máxima de búsqueda
    */
   public JugadorPropi(int profundidad) {
+    this(profundidad, false);
+  }
+
+  /**
+   * Constructor que permite elegir la búsqueda sin asignaciones de memoria
+   * 
+   * @param profundidad     Profundidad máxima de búsqueda
+   * @param sinAsignaciones true para buscar sobre TaulerBits con pilas
+   *                        reservadas al construir el jugador
+   */
+  public JugadorPropi(int profundidad, boolean sinAsignaciones) {
+    this(profundidad, sinAsignaciones, new Heuristica());
+  }
+
+  /**
+   * Constructor con una función de evaluación distinta de Heuristica
+   * 
+   * @param profundidad     Profundidad máxima de búsqueda
+   * @param sinAsignaciones true para buscar sobre TaulerBits
+   * @param evaluador       Evaluador de las hojas (propio de este jugador)
+   */
+  public JugadorPropi(int profundidad, boolean sinAsignaciones, Evaluador evaluador) {
     nom = "JugadorPropi";
-    heuristica = new Heuristica();
+    heuristica = evaluador;
     profundidadMax = profundidad;
     nodosExplorados = 0;
+    perfilador = new Perfilador(nom);
+    if (sinAsignaciones) {
+      busquedaBits = new BusquedaBits(heuristica);
+      busquedaBits.setEvaluacionLote(true);
+      busquedaBits.setPodaDemostrada(true);
+    }
+    setTraza(TrazaBusqueda.desdePropiedades(nom));
   }
 
   /**
@@ -70,11 +140,134 @@ public class JugadorPropi implements Jugador, IAuto {
    */
   @Override
   public int moviment(Tauler t, int color) {
+    perfil = Perfilador.activo() ? perfilador : null;
+    if (heuristica instanceof Heuristica) {
+      ((Heuristica) heuristica).setPerfilador(perfil);
+    }
+    if (busquedaBits != null) {
+      busquedaBits.setPerfilador(perfil);
+    }
+    if (perfil == null) {
+      return busca(t, color);
+    }
+
+    perfil.iniciaMovimiento(contarFichas(t));
+    perfil.entra(Perfilador.BUSQUEDA);
+    try {
+      return busca(t, color);
+    } finally {
+      perfil.sale();
+      perfil.terminaMovimiento();
+    }
+  }
+
+  /**
+   * Cuenta las fichas del tablero (para detectar el inicio de una partida)
+   * 
+   * @param t Tablero
+   * @return Número de fichas
+   */
+  private static int contarFichas(Tauler t) {
+    int fichas = 0;
+    for (int col = 0; col < t.getMida(); col++) {
+      for (int fila = 0; fila < t.getMida() && t.getColor(fila, col) != 0; fila++) {
+        fichas++;
+      }
+    }
+    return fichas;
+  }
+
+  /**
+   * Búsqueda del mejor movimiento
+   * 
+   * @param t     Tablero actual
+   * @param color Color del jugador
+   * @return Columna donde jugar
+   */
+  private int busca(Tauler t, int color) {
+    if (posicion == null || posicion.getMida() != t.getMida()) {
+      posicion = t.getMida() <= TaulerBits.MIDA_MAX ? new TaulerBits(t.getMida()) : null;
+    }
+    int profundidad = conReloj(t) ? Integer.MAX_VALUE : profundidadMax;
+    if (posicion != null) {
+      posicion.carga(t);
+      if (continuaDemostrada()) {
+        // La victoria sigue forzada con cualquier respuesta del rival y
+        // está a pliesDemostrados - 1: no hace falta buscar más allá
+        profundidad = Math.min(profundidad, pliesDemostrados - 1);
+      }
+    }
+
+    if (traza != null) {
+      traza.inicia(t, color, profundidad);
+    }
+    int col = busca(t, color, profundidad);
+    if (traza != null) {
+      traza.termina(col);
+    }
+
+    pliesDemostrados = 0;
+    if (posicion != null && col >= 0 && ultimoValor >= BusquedaBits.VICTORIA_DEMOSTRADA) {
+      int distancia = VICTORIA - ultimoValor;
+      if (distancia > 1) {
+        posicion.afegeix(col, color);
+        demostradaRojas = posicion.fichas(1);
+        demostradaAzules = posicion.fichas(-1);
+        pliesDemostrados = distancia - 1;
+      }
+    }
+    return col;
+  }
+
+  /**
+   * @return true si la posición de "posicion" es la de la última victoria
+   *         demostrada con una ficha más del rival
+   */
+  private boolean continuaDemostrada() {
+    if (pliesDemostrados < 2) {
+      return false;
+    }
+    long rojas = posicion.fichas(1);
+    long azules = posicion.fichas(-1);
+    return (rojas & demostradaRojas) == demostradaRojas && (azules & demostradaAzules) == demostradaAzules
+        && Long.bitCount(rojas | azules) == Long.bitCount(demostradaRojas | demostradaAzules) + 1;
+  }
+
+  /**
+   * Búsqueda a una profundidad dada
+   * 
+   * @param t           Tablero actual
+   * @param color       Color del jugador
+   * @param profundidad Profundidad de la búsqueda
+   * @return Columna donde jugar
+   */
+  private int busca(Tauler t, int color, int profundidad) {
     int mejorColumna = -1;
     int mejorValor = Integer.MIN_VALUE;
+    int empates = 0;
 
     nodosExplorados = 0;
+    profundidadAlcanzada = profundidad;
+    profundidadRaiz = profundidad;
+
+    if (conReloj(t)) {
+      return buscaConReloj(t, color, profundidad);
+    }
 
+    if (busquedaBits != null && t.getMida() <= TaulerBits.MIDA_MAX) {
+      busquedaBits.setValorTablas(valorTablas);
+      mejorColumna = busquedaBits.busca(t, color, profundidad);
+      nodosExplorados = busquedaBits.getNodos();
+      ultimoValor = busquedaBits.getValorRaiz();
+      if (mostrarNodos) {
+        System.out.println("Nodos explorados: " + nodosExplorados);
+      }
+      return mejorColumna;
+    }
+
+    if (traza != null) {
+      traza.entra(-1, profundidad, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
     // Probar cada columna posible (orden centro-primero para mejor poda)
     int[] ordenColumnas = generarOrdenCentroPrimero(t.getMida());
     for (int i = 0; i < ordenColumnas.length; i++) {
@@ -82,26 +275,114 @@ public class JugadorPropi implements Jugador, IAuto {
       if (!t.movpossible(col))
         continue;
 
+      if (perfil != null) {
+        perfil.entra(Perfilador.COPIA);
+      }
       Tauler copia = new Tauler(t);
       copia.afegeix(col, color);
+      if (perfil != null) {
+        perfil.sale();
+      }
 
       // Comprobar victoria inmediata
       if (copia.solucio(col, color)) {
+        ultimoValor = VICTORIA - 1;
+        profundidadAlcanzada = 1;
+        if (traza != null) {
+          traza.sale(ultimoValor, TrazaBusqueda.VICTORIA);
+        }
         return col;
       }
 
       int alpha = Integer.MIN_VALUE;
       int beta = Integer.MAX_VALUE;
 
-      int valor = minValor(copia, -color, col, profundidadMax - 1, color, alpha, beta);
+      int valor = minValor(copia, -color, col, profundidad - 1, color, alpha, beta);
 
       if (valor > mejorValor) {
         mejorValor = valor;
         mejorColumna = col;
+        empates = 1;
+      } else if (desempateAleatorio && valor == mejorValor && azar.nextInt(++empates) == 0) {
+        mejorColumna = col;
       }
     }
 
-    System.out.println("Nodos explorados: " + nodosExplorados);
+    ultimoValor = mejorValor;
+    if (traza != null) {
+      traza.sale(ultimoValor, TrazaBusqueda.RECORRIDO);
+    }
+    if (mostrarNodos) {
+      System.out.println("Nodos explorados: " + nodosExplorados);
+    }
+    return mejorColumna;
+  }
+
+  /**
+   * @param t Tablero actual
+   * @return true si la jugada se busca con el reloj de la partida o con el
+   *         tiempo fijo por jugada
+   */
+  private boolean conReloj(Tauler t) {
+    return (relojRestante > 0 || tiempoJugada > 0) && busquedaBits != null && t.getMida() <= TaulerBits.MIDA_MAX;
+  }
+
+  /**
+   * Profundización iterativa hasta que el gestor de tiempo decide parar o
+   * se llega al máximo de la jugada (la iteración a medias se descarta)
+   * 
+   * @param t           Tablero actual
+   * @param color       Color del jugador
+   * @param profundidad Profundidad máxima (solo limita tras una victoria
+   *                    demostrada)
+   * @return Columna donde jugar
+   */
+  private int buscaConReloj(Tauler t, int color, int profundidad) {
+    int libres = t.getMida() * t.getMida() - contarFichas(t);
+    if (relojRestante > 0) {
+      gestor.inicia(relojRestante, relojIncremento, libres);
+    } else {
+      gestor.iniciaFijo(tiempoJugada);
+    }
+    busquedaBits.setValorTablas(valorTablas);
+    busquedaBits.setLimite(gestor.getLimiteNanos());
+    int mejorColumna = -1;
+    try {
+      for (int d = 1; d <= Math.min(profundidad, libres); d++) {
+        int col = busquedaBits.busca(t, color, d);
+        nodosExplorados += busquedaBits.getNodos();
+        if (col < 0) {
+          break;
+        }
+        mejorColumna = col;
+        ultimoValor = busquedaBits.getValorRaiz();
+        profundidadAlcanzada = d;
+        if (Math.abs(ultimoValor) >= BusquedaBits.VICTORIA_DEMOSTRADA) {
+          break;
+        }
+        gestor.iteracion(col, ultimoValor);
+        if (!gestor.sigue()) {
+          break;
+        }
+      }
+    } finally {
+      busquedaBits.setLimite(0);
+    }
+
+    if (mejorColumna < 0) {
+      // Ni la primera iteración ha cabido: cualquier jugada legal
+      for (int col : generarOrdenCentroPrimero(t.getMida())) {
+        if (t.movpossible(col)) {
+          mejorColumna = col;
+          ultimoValor = 0;
+          profundidadAlcanzada = 0;
+          break;
+        }
+      }
+    }
+    if (mostrarNodos) {
+      System.out.println("Nodos explorados: " + nodosExplorados + " (profundidad " + profundidadAlcanzada + ")");
+    }
     return mejorColumna;
   }
 
@@ -118,24 +399,64 @@ public class JugadorPropi implements Jugador, IAuto {
    * @return Valoración de la posición
    */
   private int minValor(Tauler t, int color, int ultimaCol, int profundidad, int jugadorInicial, int alpha, int beta) {
+    if (traza == null) {
+      return nodoMin(t, color, ultimaCol, profundidad, jugadorInicial, alpha, beta);
+    }
+    traza.entra(ultimaCol, profundidad, alpha, beta);
+    int v = nodoMin(t, color, ultimaCol, profundidad, jugadorInicial, alpha, beta);
+    traza.sale(v, motivo);
+    return v;
+  }
+
+  /**
+   * Cuerpo de minValor. Cada salida deja en motivo por qué termina el nodo.
+   */
+  private int nodoMin(Tauler t, int color, int ultimaCol, int profundidad, int jugadorInicial, int alpha, int beta) {
     // Comprobar si el movimiento anterior fue ganador
-    if (t.solucio(ultimaCol, -color)) {
+    if (perfil != null) {
+      perfil.entra(Perfilador.SOLUCIO);
+    }
+    boolean gana = t.solucio(ultimaCol, -color);
+    if (perfil != null) {
+      perfil.sale();
+    }
+    int ply = profundidadRaiz - profundidad;
+    if (gana) {
+      motivo = TrazaBusqueda.VICTORIA;
       if (-color == jugadorInicial) {
-        return VICTORIA;
+        return VICTORIA - ply;
       } else {
-        return DERROTA;
+        return DERROTA + ply;
       }
     }
 
     // Tablero lleno (empate)
     if (!t.espotmoure()) {
-      return 0;
+      motivo = TrazaBusqueda.TABLAS;
+      return valorTablas;
     }
 
     // Profundidad máxima alcanzada - evaluar con heurística
     if (profundidad == 0) {
+      motivo = TrazaBusqueda.HOJA;
       nodosExplorados++;
-      return heuristica.h(t, jugadorInicial);
+      if (perfil != null) {
+        perfil.entra(Perfilador.HEURISTICA);
+      }
+      int h = heuristica.h(t, jugadorInicial);
+      if (perfil != null) {
+        perfil.sale();
+      }
+      return h;
+    }
+
+    // Poda por distancia: el rival gana como pronto en esta jugada y
+    // pierde como pronto en la siguiente
+    alpha = Math.max(alpha, DERROTA + ply + 1);
+    beta = Math.min(beta, VICTORIA - (ply + 2));
+    if (alpha >= beta) {
+      motivo = TrazaBusqueda.DISTANCIA;
+      return alpha;
     }
 
     int valor = Integer.MAX_VALUE;
@@ -147,18 +468,26 @@ public class JugadorPropi implements Jugador, IAuto {
       if (!t.movpossible(col))
         continue;
 
+      if (perfil != null) {
+        perfil.entra(Perfilador.COPIA);
+      }
       Tauler copia = new Tauler(t);
       copia.afegeix(col, color);
+      if (perfil != null) {
+        perfil.sale();
+      }
 
       valor = Math.min(valor, maxValor(copia, -color, col, profundidad - 1, jugadorInicial, alpha, beta));
 
       // Poda alfa
       if (valor <= alpha) {
+        motivo = TrazaBusqueda.CORTE;
         return valor;
       }
       beta = Math.min(beta, valor);
     }
 
+    motivo = TrazaBusqueda.RECORRIDO;
     return valor;
   }
 
@@ -175,24 +504,64 @@ public class JugadorPropi implements Jugador, IAuto {
    * @return Valoración de la posición
    */
   private int maxValor(Tauler t, int color, int ultimaCol, int profundidad, int jugadorInicial, int alpha, int beta) {
+    if (traza == null) {
+      return nodoMax(t, color, ultimaCol, profundidad, jugadorInicial, alpha, beta);
+    }
+    traza.entra(ultimaCol, profundidad, alpha, beta);
+    int v = nodoMax(t, color, ultimaCol, profundidad, jugadorInicial, alpha, beta);
+    traza.sale(v, motivo);
+    return v;
+  }
+
+  /**
+   * Cuerpo de maxValor. Cada salida deja en motivo por qué termina el nodo.
+   */
+  private int nodoMax(Tauler t, int color, int ultimaCol, int profundidad, int jugadorInicial, int alpha, int beta) {
     // Comprobar si el movimiento anterior fue ganador
-    if (t.solucio(ultimaCol, -color)) {
+    if (perfil != null) {
+      perfil.entra(Perfilador.SOLUCIO);
+    }
+    boolean gana = t.solucio(ultimaCol, -color);
+    if (perfil != null) {
+      perfil.sale();
+    }
+    int ply = profundidadRaiz - profundidad;
+    if (gana) {
+      motivo = TrazaBusqueda.VICTORIA;
       if (-color == jugadorInicial) {
-        return VICTORIA;
+        return VICTORIA - ply;
       } else {
-        return DERROTA;
+        return DERROTA + ply;
       }
     }
 
     // Tablero lleno (empate)
     if (!t.espotmoure()) {
-      return 0;
+      motivo = TrazaBusqueda.TABLAS;
+      return valorTablas;
     }
 
     // Profundidad máxima alcanzada - evaluar con heurística
     if (profundidad == 0) {
+      motivo = TrazaBusqueda.HOJA;
       nodosExplorados++;
-      return heuristica.h(t, jugadorInicial);
+      if (perfil != null) {
+        perfil.entra(Perfilador.HEURISTICA);
+      }
+      int h = heuristica.h(t, jugadorInicial);
+      if (perfil != null) {
+        perfil.sale();
+      }
+      return h;
+    }
+
+    // Poda por distancia: se gana como pronto en esta jugada y se pierde
+    // como pronto en la siguiente
+    beta = Math.min(beta, VICTORIA - (ply + 1));
+    alpha = Math.max(alpha, DERROTA + ply + 2);
+    if (alpha >= beta) {
+      motivo = TrazaBusqueda.DISTANCIA;
+      return beta;
     }
 
     int valor = Integer.MIN_VALUE;
@@ -204,21 +573,292 @@ public class JugadorPropi implements Jugador, IAuto {
       if (!t.movpossible(col))
         continue;
 
+      if (perfil != null) {
+        perfil.entra(Perfilador.COPIA);
+      }
       Tauler copia = new Tauler(t);
       copia.afegeix(col, color);
+      if (perfil != null) {
+        perfil.sale();
+      }
 
       valor = Math.max(valor, minValor(copia, -color, col, profundidad - 1, jugadorInicial, alpha, beta));
 
       // Poda beta
       if (beta <= valor) {
+        motivo = TrazaBusqueda.CORTE;
         return valor;
       }
       alpha = Math.max(alpha, valor);
     }
 
+    motivo = TrazaBusqueda.RECORRIDO;
     return valor;
   }
 
+  /**
+   * Análisis multi-PV a la profundidad del jugador
+   * 
+   * @see #analiza(Tauler, int, int, int)
+   */
+  public List<Analisis.Linea> analiza(Tauler t, int color, int lineas) {
+    return analiza(t, color, profundidadMax, lineas);
+  }
+
+  /**
+   * Análisis multi-PV: las mejores columnas con su valor exacto, la
+   * profundidad y la variación principal, todas de una misma búsqueda
+   * (ver BusquedaBits.analiza). Con la búsqueda clásica se analiza con una
+   * búsqueda sin asignaciones con la misma heurística. No usa el reloj.
+   * 
+   * @param t           Tablero actual
+   * @param color       Color que mueve
+   * @param profundidad Profundidad del análisis
+   * @param lineas      Número de líneas
+   * @return Las líneas de mejor a peor (menos si hay menos columnas)
+   * @throws IllegalArgumentException Si lineas es menor que 1 o el
+   *                                  tablero es demasiado grande
+   */
+  public List<Analisis.Linea> analiza(Tauler t, int color, int profundidad, int lineas) {
+    if (lineas < 1 || t.getMida() > TaulerBits.MIDA_MAX) {
+      throw new IllegalArgumentException("Análisis no válido: " + lineas + " líneas, tablero de " + t.getMida());
+    }
+    BusquedaBits b = busquedaBits;
+    if (b == null) {
+      if (analisis == null) {
+        analisis = new BusquedaBits(heuristica);
+        analisis.setEvaluacionLote(true);
+        analisis.setPodaDemostrada(true);
+      }
+      b = analisis;
+    }
+    b.setValorTablas(valorTablas);
+    Analisis.Linea[] resultado = b.analiza(t, color, profundidad, lineas);
+    nodosExplorados = b.getNodos();
+    profundidadAlcanzada = resultado.length > 0 ? resultado[0].profundidad : 0;
+    ultimoValor = resultado.length > 0 ? resultado[0].valor : 0;
+    return Arrays.asList(resultado);
+  }
+
+  /**
+   * Valor de las tablas para este jugador: 0 por defecto, negativo para
+   * evitarlas contra rivales más débiles, positivo para buscarlas
+   * 
+   * @param valor Valor en puntos de la heurística
+   */
+  public void setValorTablas(int valor) {
+    valorTablas = valor;
+  }
+
+  /**
+   * Con reloj, la búsqueda sin asignaciones profundiza hasta que el
+   * GestorTiempo da la jugada por buena, sin el límite de profundidad del
+   * constructor. La búsqueda clásica no tiene reloj y sigue buscando a
+   * profundidad fija.
+   * 
+   * @param restanteMs   Tiempo restante, o 0 para volver a profundidad fija
+   * @param incrementoMs Incremento por jugada
+   */
+  @Override
+  public void setReloj(long restanteMs, long incrementoMs) {
+    relojRestante = restanteMs;
+    relojIncremento = incrementoMs;
+  }
+
+  /**
+   * Tiempo fijo por jugada para jugar sin reloj de partida: la búsqueda sin
+   * asignaciones profundiza como con reloj hasta agotarlo. Si hay reloj de
+   * partida (setReloj), manda el reloj.
+   * 
+   * @param ms Tiempo por jugada, o 0 para volver a profundidad fija
+   */
+  public void setTiempoJugada(long ms) {
+    tiempoJugada = ms;
+  }
+
+  /**
+   * Elige al azar entre las columnas con el mismo valor en lugar de la
+   * primera en orden centro-primero, para variar las partidas entre
+   * motores deterministas
+   * 
+   * @param activo true para desempatar al azar
+   */
+  public void setDesempateAleatorio(boolean activo) {
+    desempateAleatorio = activo;
+    if (busquedaBits != null) {
+      busquedaBits.setDesempate(activo ? azar : null);
+    }
+  }
+
+  /**
+   * Semilla del desempate aleatorio: la misma semilla repite las mismas
+   * elecciones entre empates (sin reloj ni tabla compartida)
+   */
+  @Override
+  public void setSemilla(long semilla) {
+    azar = new SplittableRandom(semilla);
+    setDesempateAleatorio(desempateAleatorio);
+  }
+
+  /**
+   * Usa una tabla de transposición en la búsqueda sin asignaciones. Si la
+   * tabla tiene fichero, se vuelca en él al terminar cada partida.
+   * 
+   * @param c Tabla propia de este jugador, o null para buscar sin ella
+   */
+  public void setCache(CacheBusqueda c) {
+    cache = c;
+    if (busquedaBits != null) {
+      busquedaBits.setCache(c);
+    }
+  }
+
+  /**
+   * Activa o desactiva el mensaje de nodos explorados por consola
+   * 
+   * @param mostrar true para mostrarlo después de cada movimiento
+   */
+  public void setMostrarNodos(boolean mostrar) {
+    mostrarNodos = mostrar;
+  }
+
+  /**
+   * Activa o desactiva la evaluación por lotes del último nivel (solo en la
+   * búsqueda sin asignaciones, donde está activa por defecto)
+   * 
+   * @param activa true para evaluar juntos todos los hijos de la frontera
+   */
+  public void setEvaluacionLote(boolean activa) {
+    if (busquedaBits != null) {
+      busquedaBits.setEvaluacionLote(activa);
+    }
+  }
+
+  /**
+   * Activa la extensión de amenazas en la frontera (solo en la búsqueda sin
+   * asignaciones): en las hojas se siguen victorias inmediatas, bloqueos
+   * obligados y dobles amenazas antes de aplicar la heurística
+   * 
+   * @param plies Máximo de bloqueos forzados por hoja (0 = desactivada)
+   */
+  public void setExtensionAmenazas(int plies) {
+    if (busquedaBits != null) {
+      busquedaBits.setExtensionAmenazas(plies);
+    }
+  }
+
+  /**
+   * Activa o desactiva la poda por resultados demostrados (solo en la
+   * búsqueda sin asignaciones, donde está activa por defecto): antes de
+   * bajar a los hijos se descartan los nodos que ya no pueden mejorar una
+   * victoria encontrada y se consultan los hijos ya demostrados
+   * 
+   * @param activa true para podar
+   */
+  public void setPodaDemostrada(boolean activa) {
+    if (busquedaBits != null) {
+      busquedaBits.setPodaDemostrada(activa);
+    }
+  }
+
+  /**
+   * Graba el árbol de cada búsqueda en la traza (por defecto la de
+   * -Dc4.traza, si está)
+   * 
+   * @param tr Traza de este jugador, o null para no trazar
+   */
+  public void setTraza(TrazaBusqueda tr) {
+    traza = tr;
+    if (busquedaBits != null) {
+      busquedaBits.setTraza(tr);
+    }
+  }
+
+  /**
+   * @return Traza de este jugador, o null si no traza
+   */
+  public TrazaBusqueda getTraza() {
+    return traza;
+  }
+
+  /**
+   * Juega contra sí mismo durante un tiempo para que el JIT compile la
+   * búsqueda antes de la primera jugada de verdad. Las estadísticas quedan
+   * a cero, no se perfila, no se traza y no se usa la tabla de
+   * transposición.
+   * 
+   * @param ms Tiempo de calentamiento en milisegundos
+   */
+  public void precalienta(long ms) {
+    boolean mostrar = mostrarNodos;
+    mostrarNodos = false;
+    TrazaBusqueda tr = traza;
+    setTraza(null);
+    perfil = null;
+    if (heuristica instanceof Heuristica) {
+      ((Heuristica) heuristica).setPerfilador(null);
+    }
+    if (busquedaBits != null) {
+      busquedaBits.setPerfilador(null);
+      // Sin tabla: con ella las partidas repetidas no calentarían la búsqueda
+      busquedaBits.setCache(null);
+    }
+
+    long fin = System.nanoTime() + ms * 1000000;
+    Tauler t = new Tauler(8);
+    int color = 1;
+    while (System.nanoTime() < fin) {
+      int col = busca(t, color);
+      t.afegeix(col, color);
+      if (t.solucio(col, color) || !t.espotmoure()) {
+        t = new Tauler(8);
+        color = 1;
+      } else {
+        color = -color;
+      }
+    }
+
+    mostrarNodos = mostrar;
+    setTraza(tr);
+    if (busquedaBits != null) {
+      busquedaBits.setCache(cache);
+    }
+    nodosExplorados = 0;
+    ultimoValor = 0;
+    profundidadAlcanzada = 0;
+  }
+
+  /**
+   * Avisa de que la partida ha terminado para escribir su perfil acumulado
+   * (si el perfilado está activo) y mezclar la tabla de transposición en
+   * su fichero (si tiene)
+   */
+  public void terminaPartida() {
+    perfilador.terminaPartida();
+    if (cache != null) {
+      try {
+        cache.vuelca();
+      } catch (IOException e) {
+        System.err.println("No se puede guardar la tabla de transposición: " + e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public int getUltimoValor() {
+    return ultimoValor;
+  }
+
+  @Override
+  public long getNodosExplorados() {
+    return nodosExplorados;
+  }
+
+  @Override
+  public int getProfundidadAlcanzada() {
+    return profundidadAlcanzada;
+  }
+
   /**
    * Devuelve el nombre del jugador
    * 
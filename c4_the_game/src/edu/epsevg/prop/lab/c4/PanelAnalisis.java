@@ -0,0 +1,117 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.awt.Font;
+import java.util.List;
+import javax.swing.JFrame;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingWorker;
+
+/**
+ * Ventana con el análisis de la posición en curso: las mejores columnas del
+ * jugador que mueve con su valor, profundidad y variación principal (ver
+ * JugadorPropi.analiza).
+ *
+ * El análisis corre en segundo plano con un jugador propio, distinto de los
+ * de la partida. Solo hay un análisis a la vez: si llega una posición nueva
+ * mientras se analiza otra, se guarda la última y se analiza al terminar; el
+ * resultado de una posición ya superada no se muestra.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class PanelAnalisis extends JFrame {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JugadorPropi jugador;
+    private final int lineas;
+    private final JTextArea texto;
+
+    /** Análisis en curso, o null */
+    private Analizador enCurso;
+    /** Última posición pedida mientras había un análisis en curso, o null */
+    private Tauler pendiente;
+    private int colorPendiente;
+    /** Número de la última posición pedida */
+    private int peticion;
+
+    /**
+     * @param jugador Jugador que analiza (no debe jugar la partida)
+     * @param lineas  Número de columnas a mostrar
+     */
+    public PanelAnalisis(JugadorPropi jugador, int lineas) {
+        super("Análisis");
+        this.jugador = jugador;
+        this.lineas = lineas;
+        texto = new JTextArea(lineas + 2, 48);
+        texto.setEditable(false);
+        texto.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        getContentPane().add(new JScrollPane(texto));
+        pack();
+    }
+
+    /**
+     * Pide el análisis de una posición. Se llama desde el hilo de Swing.
+     *
+     * @param t     Copia del tablero (el panel se la queda)
+     * @param color Color que mueve
+     */
+    public void analiza(Tauler t, int color) {
+        peticion++;
+        if (enCurso != null) {
+            pendiente = t;
+            colorPendiente = color;
+            return;
+        }
+        lanza(t, color);
+    }
+
+    private void lanza(Tauler t, int color) {
+        texto.setText("Analizando (mueve " + color + ")...");
+        enCurso = new Analizador(t, color, peticion);
+        enCurso.execute();
+    }
+
+    class Analizador extends SwingWorker<String, Object> {
+
+        final Tauler t;
+        final int color;
+        final int numero;
+
+        Analizador(Tauler t, int color, int numero) {
+            this.t = t;
+            this.color = color;
+            this.numero = numero;
+        }
+
+        @Override
+        protected String doInBackground() {
+            long inicio = System.nanoTime();
+            List<Analisis.Linea> resultado = jugador.analiza(t, color, lineas);
+            long ms = (System.nanoTime() - inicio) / 1000000;
+            StringBuilder sb = new StringBuilder("Mueve " + color + "\n");
+            for (Analisis.Linea l : resultado) {
+                sb.append(l).append('\n');
+            }
+            sb.append(jugador.getNodosExplorados()).append(" nodos en ").append(ms).append(" ms");
+            return sb.toString();
+        }
+
+        @Override
+        protected void done() {
+            enCurso = null;
+            try {
+                if (numero == peticion) {
+                    texto.setText(get());
+                }
+            } catch (Exception e) {
+                texto.setText("Error en el análisis: " + e.getMessage());
+            }
+            if (pendiente != null) {
+                Tauler t = pendiente;
+                pendiente = null;
+                lanza(t, colorPendiente);
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.GridLayout;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+/**
+ * Panel con muchas partidas simultáneas en directo.
+ *
+ * Las partidas publican cada jugada (Enfrentamiento.Observador) sustituyendo
+ * una instantánea inmutable de su tablero; nunca esperan a la interfaz. Un
+ * temporizador de Swing repinta como mucho REFRESCO_MS veces por segundo
+ * con la última instantánea de cada partida, de modo que las jugadas
+ * intermedias se descartan si los motores van más rápido que la pantalla.
+ *
+ * Uso: PanelPartidas [tableros] [jugador] [rival] (ver FabricaJugadores)
+ *
+ * @author Alex Aranda Salinas
+ */
+public class PanelPartidas extends JFrame {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int REFRESCO_MS = 100;
+
+    /**
+     * Estado de una partida en un instante (inmutable)
+     */
+    static final class Estado {
+        final String jugadores;
+        final int mida;
+        final long rojas;
+        final long azules;
+        final int ply;
+        final int partidas;
+        final String resultado;
+        final int profundidad;
+        final long nodos;
+        final long tiempoMs;
+        final long tiempoTotalMs;
+        final int jugadasMedidas;
+
+        Estado(String jugadores, int mida, long rojas, long azules, int ply, int partidas, String resultado,
+                int profundidad, long nodos, long tiempoMs, long tiempoTotalMs, int jugadasMedidas) {
+            this.jugadores = jugadores;
+            this.mida = mida;
+            this.rojas = rojas;
+            this.azules = azules;
+            this.ply = ply;
+            this.partidas = partidas;
+            this.resultado = resultado;
+            this.profundidad = profundidad;
+            this.nodos = nodos;
+            this.tiempoMs = tiempoMs;
+            this.tiempoTotalMs = tiempoTotalMs;
+            this.jugadasMedidas = jugadasMedidas;
+        }
+    }
+
+    private final AtomicReferenceArray<Estado> estados;
+    private final Tablero[] tableros;
+
+    /**
+     * @param n Número de tableros
+     */
+    public PanelPartidas(int n) {
+        super("Partidas en directo");
+        estados = new AtomicReferenceArray<>(n);
+        tableros = new Tablero[n];
+        int columnas = (int) Math.ceil(Math.sqrt(n));
+        getContentPane().setLayout(new GridLayout(0, columnas, 4, 4));
+        for (int i = 0; i < n; i++) {
+            tableros[i] = new Tablero(i);
+            getContentPane().add(tableros[i]);
+        }
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        pack();
+
+        new Timer(REFRESCO_MS, e -> {
+            for (Tablero t : tableros) {
+                t.refresca();
+            }
+        }).start();
+    }
+
+    /**
+     * Crea el observador que publica los eventos de una partida en un tablero
+     *
+     * @param i        Tablero
+     * @param partidas Partidas ya terminadas en ese tablero
+     * @return Observador sin bloqueos para Enfrentamiento.juega
+     */
+    public Enfrentamiento.Observador observador(final int i, final int partidas) {
+        return new Enfrentamiento.Observador() {
+            private long tiempoTotal;
+            private int medidas;
+
+            @Override
+            public void jugada(RegistroPartidas.Partida p, RegistroPartidas.Jugada j, long rojas, long azules) {
+                if (j.anotada) {
+                    tiempoTotal += j.tiempoMs;
+                    medidas++;
+                }
+                estados.set(i, new Estado(p.jugador1 + " - " + p.jugador2, p.mida, rojas, azules, p.jugadas.size(),
+                        partidas, null, j.profundidad, j.nodos, j.tiempoMs, tiempoTotal, medidas));
+            }
+
+            @Override
+            public void fin(RegistroPartidas.Partida p) {
+                Estado e = estados.get(i);
+                if (e == null) {
+                    return;
+                }
+                String r = p.resultado == 0 ? "tablas" : "gana " + (p.resultado == 1 ? p.jugador1 : p.jugador2);
+                estados.set(i, new Estado(e.jugadores, e.mida, e.rojas, e.azules, e.ply, partidas + 1, r,
+                        e.profundidad, e.nodos, e.tiempoMs, e.tiempoTotalMs, e.jugadasMedidas));
+            }
+        };
+    }
+
+    /**
+     * Tablero pequeño con las estadísticas de su partida
+     */
+    private class Tablero extends JPanel {
+        private static final long serialVersionUID = 1L;
+        private final int indice;
+        private Estado pintado;
+
+        Tablero(int indice) {
+            this.indice = indice;
+            setPreferredSize(new Dimension(180, 210));
+            setBackground(Color.WHITE);
+            setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 10));
+        }
+
+        void refresca() {
+            if (estados.get(indice) != pintado) {
+                repaint();
+            }
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Estado e = estados.get(indice);
+            pintado = e;
+            if (e == null) {
+                return;
+            }
+            int alto = getHeight() - 42;
+            int paso = Math.max(1, Math.min(getWidth(), alto) / e.mida);
+            for (int col = 0; col < e.mida; col++) {
+                for (int fila = 0; fila < e.mida; fila++) {
+                    long b = 1L << TaulerBits.bit(fila, col);
+                    if ((e.rojas & b) != 0) {
+                        g.setColor(Color.RED);
+                    } else if ((e.azules & b) != 0) {
+                        g.setColor(Color.BLUE);
+                    } else {
+                        continue;
+                    }
+                    g.fillOval(col * paso + 1, (e.mida - 1 - fila) * paso + 1, paso - 2, paso - 2);
+                }
+            }
+            g.setColor(Color.BLACK);
+            int y = e.mida * paso + 12;
+            g.drawString(e.jugadores, 2, y);
+            long nps = e.tiempoMs > 0 ? e.nodos * 1000 / e.tiempoMs : 0;
+            double media = e.jugadasMedidas > 0 ? (double) e.tiempoTotalMs / e.jugadasMedidas : 0;
+            g.drawString(String.format("ply %d  prof %d  %,d nodos/s", e.ply, e.profundidad, nps), 2, y + 12);
+            g.drawString(String.format("%.0f ms/jugada  #%d %s", media, e.partidas + 1,
+                    e.resultado != null ? e.resultado : ""), 2, y + 24);
+        }
+    }
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+        final String spec1 = args.length > 1 ? args[1] : "propi:depth=8,motor=bits,nodos=false";
+        final String spec2 = args.length > 2 ? args[2] : "profe:2";
+        final Supplier<Jugador> jugador;
+        final Supplier<Jugador> rival;
+        try {
+            jugador = FabricaJugadores.proveedor(spec1);
+            rival = FabricaJugadores.proveedor(spec2);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(2);
+            return;
+        }
+        final String registro = System.getProperty("c4.registro");
+        final PanelPartidas panel = new PanelPartidas(n);
+        java.awt.EventQueue.invokeLater(() -> panel.setVisible(true));
+
+        for (int i = 0; i < n; i++) {
+            final int tablero = i;
+            Thread hilo = new Thread(() -> {
+                for (int partida = 0; ; partida++) {
+                    Jugador a = jugador.get();
+                    Jugador b = rival.get();
+                    boolean empieza = (tablero + partida) % 2 == 0;
+                    RegistroPartidas.Partida p = Enfrentamiento.juega(empieza ? a : b, empieza ? b : a, 8,
+                            panel.observador(tablero, partida));
+                    if (registro != null) {
+                        try {
+                            RegistroPartidas.anade(Paths.get(registro), p);
+                        } catch (IOException ex) {
+                            System.err.println("No se ha podido guardar la partida: " + ex.getMessage());
+                        }
+                    }
+                }
+            }, "partida-" + i);
+            hilo.setDaemon(true);
+            hilo.start();
+        }
+    }
+}
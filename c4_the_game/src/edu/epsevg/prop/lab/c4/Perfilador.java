@@ -0,0 +1,319 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import javax.management.ObjectName;
+
+/**
+ * Perfilado por muestreo de las fases de la búsqueda.
+ *
+ * El motor marca la fase en la que está con entra()/sale(), que solo
+ * recorren un árbol de fases y publican el nodo actual. Un hilo muestreador
+ * común lee periódicamente el nodo actual de cada motor activo y lo cuenta.
+ * Al terminar cada movimiento se añaden las pilas al fichero de movimientos
+ * y al acabar la partida se escribe el acumulado, ambos en formato de pilas
+ * colapsadas ("a;b;c muestras") que leen directamente las herramientas de
+ * flame graphs.
+ *
+ * Se activa al arrancar con -Dc4.perfil=directorio o en cualquier momento
+ * desde JMX (jconsole) con el MBean edu.epsevg.prop.lab.c4:type=Perfilador.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class Perfilador {
+
+    // Fases de la búsqueda
+    public static final int MOVIMIENTO = 0;
+    public static final int BUSQUEDA = 1;
+    public static final int COPIA = 2;
+    public static final int SOLUCIO = 3;
+    public static final int HEURISTICA = 4;
+    public static final int CARGA = 5;
+    public static final int CONTAR_LINEAS = 6;
+    public static final int CENTRO = 7;
+    public static final int AMENAZAS = 8;
+    public static final int LOTE = 9;
+    public static final int EXTENSION = 10;
+
+    private static final String[] NOMBRES = {
+        "moviment", "busqueda", "copiaTauler", "solucio", "Heuristica.h", "carga",
+        "contarLineas", "evaluarCentro", "detectarAmenazas", "evaluaLote", "extension"
+    };
+
+    private static final int MAX_NODOS = 128;
+
+    /**
+     * Control del perfilado desde JMX
+     */
+    public interface ControlMBean {
+        boolean isActivo();
+
+        void setActivo(boolean activo);
+
+        String getDirectorio();
+
+        void setDirectorio(String directorio);
+
+        long getIntervaloMicros();
+
+        void setIntervaloMicros(long micros);
+    }
+
+    private static class Control implements ControlMBean {
+        @Override
+        public boolean isActivo() {
+            return activo;
+        }
+
+        @Override
+        public void setActivo(boolean a) {
+            activo = a;
+            if (a) {
+                arrancaMuestreador();
+            }
+        }
+
+        @Override
+        public String getDirectorio() {
+            return directorio;
+        }
+
+        @Override
+        public void setDirectorio(String d) {
+            directorio = d;
+        }
+
+        @Override
+        public long getIntervaloMicros() {
+            return intervaloMicros;
+        }
+
+        @Override
+        public void setIntervaloMicros(long micros) {
+            intervaloMicros = Math.max(10, micros);
+        }
+    }
+
+    private static volatile boolean activo;
+    private static volatile String directorio = ".";
+    private static volatile long intervaloMicros = 250;
+    private static final CopyOnWriteArraySet<Perfilador> enCurso = new CopyOnWriteArraySet<>();
+    private static volatile Thread muestreador;
+    private static final AtomicInteger contador = new AtomicInteger();
+
+    static {
+        String dir = System.getProperty("c4.perfil");
+        if (dir != null) {
+            directorio = dir;
+            activo = true;
+        }
+        // Arrancar el servidor de MBeans cuesta unos 200 ms: se registra en
+        // segundo plano para no retrasar la primera jugada
+        Thread registro = new Thread(() -> {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Control(),
+                        new ObjectName("edu.epsevg.prop.lab.c4:type=Perfilador"));
+            } catch (Exception e) {
+                // Sin JMX solo se puede activar con -Dc4.perfil
+            }
+        }, "perfilador-jmx");
+        registro.setDaemon(true);
+        registro.start();
+        if (activo) {
+            arrancaMuestreador();
+        }
+    }
+
+    /**
+     * @return true si el perfilado está activado
+     */
+    public static boolean activo() {
+        return activo;
+    }
+
+    /**
+     * Activa o desactiva el perfilado de todos los motores
+     *
+     * @param a   true para activarlo
+     * @param dir Directorio de salida de los ficheros .folded
+     */
+    public static void setActivo(boolean a, String dir) {
+        directorio = dir;
+        activo = a;
+        if (a) {
+            arrancaMuestreador();
+        }
+    }
+
+    /**
+     * Arranca el muestreador o lo despierta. Mientras el perfilado está
+     * apagado o no hay ningún motor buscando se queda aparcado sin
+     * despertarse cada intervalo.
+     */
+    private static synchronized void arrancaMuestreador() {
+        if (muestreador != null) {
+            LockSupport.unpark(muestreador);
+            return;
+        }
+        muestreador = new Thread(() -> {
+            while (true) {
+                // Si lo despiertan entre la comprobación y park, park vuelve enseguida
+                if (!activo || enCurso.isEmpty()) {
+                    LockSupport.park();
+                    continue;
+                }
+                for (Perfilador p : enCurso) {
+                    p.muestra();
+                }
+                LockSupport.parkNanos(intervaloMicros * 1000);
+            }
+        }, "perfilador");
+        muestreador.setDaemon(true);
+        muestreador.start();
+    }
+
+    private final String nom;
+    private final int id = contador.incrementAndGet();
+
+    // Árbol de fases: cada nodo es una pila de fases
+    private final int[] padre = new int[MAX_NODOS];
+    private final int[] fase = new int[MAX_NODOS];
+    private final int[][] hijos = new int[MAX_NODOS][NOMBRES.length];
+    private int numNodos = 1;
+
+    private final AtomicInteger actual = new AtomicInteger();
+    private final long[] muestrasMovimiento = new long[MAX_NODOS];
+    private final long[] muestrasPartida = new long[MAX_NODOS];
+    private int movimiento;
+    private int partida = 1;
+    private int ultimasFichas = -1;
+
+    /**
+     * @param nom Nombre del motor, usado en los ficheros de salida
+     */
+    public Perfilador(String nom) {
+        this.nom = nom;
+        fase[0] = MOVIMIENTO;
+    }
+
+    /**
+     * Entra en una fase hija de la actual
+     *
+     * @param f Fase
+     */
+    public void entra(int f) {
+        int n = actual.get();
+        int h = hijos[n][f];
+        if (h == 0) {
+            h = nuevoNodo(n, f);
+        }
+        actual.lazySet(h);
+    }
+
+    /**
+     * Vuelve a la fase padre
+     */
+    public void sale() {
+        actual.lazySet(padre[actual.get()]);
+    }
+
+    private int nuevoNodo(int p, int f) {
+        if (numNodos == MAX_NODOS) {
+            return p;
+        }
+        int h = numNodos++;
+        padre[h] = p;
+        fase[h] = f;
+        hijos[p][f] = h;
+        return h;
+    }
+
+    /**
+     * Empieza a muestrear un movimiento. Si el tablero tiene menos fichas que
+     * en el movimiento anterior se considera que ha empezado otra partida.
+     *
+     * @param fichas Fichas del tablero recibido
+     */
+    public void iniciaMovimiento(int fichas) {
+        if (fichas <= ultimasFichas) {
+            terminaPartida();
+        }
+        ultimasFichas = fichas;
+        actual.set(0);
+        enCurso.add(this);
+        Thread m = muestreador;
+        if (m != null) {
+            LockSupport.unpark(m);
+        }
+    }
+
+    /**
+     * Deja de muestrear y añade las pilas del movimiento a su fichero
+     */
+    public void terminaMovimiento() {
+        enCurso.remove(this);
+        movimiento++;
+        synchronized (this) {
+            escribe(fichero("movimientos"), muestrasMovimiento, "partida" + partida + ";mov" + movimiento + ";", true);
+            for (int i = 0; i < numNodos; i++) {
+                muestrasPartida[i] += muestrasMovimiento[i];
+                muestrasMovimiento[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Escribe el acumulado de la partida actual y empieza otra
+     */
+    public synchronized void terminaPartida() {
+        if (movimiento > 0) {
+            escribe(fichero("partida" + partida), muestrasPartida, "", false);
+            partida++;
+        }
+        movimiento = 0;
+        ultimasFichas = -1;
+        Arrays.fill(muestrasPartida, 0);
+    }
+
+    private synchronized void muestra() {
+        muestrasMovimiento[actual.get()]++;
+    }
+
+    private Path fichero(String sufijo) {
+        return Paths.get(directorio, nom + "-" + id + "-" + sufijo + ".folded");
+    }
+
+    private void escribe(Path destino, long[] muestras, String prefijo, boolean anadir) {
+        try (BufferedWriter out = anadir
+                ? Files.newBufferedWriter(destino, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                : Files.newBufferedWriter(destino, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < numNodos; i++) {
+                if (muestras[i] > 0) {
+                    out.write(prefijo + pila(i) + " " + muestras[i]);
+                    out.newLine();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("No se ha podido escribir el perfil: " + e.getMessage());
+        }
+    }
+
+    private String pila(int n) {
+        String s = NOMBRES[fase[n]];
+        while (n != 0) {
+            n = padre[n];
+            s = NOMBRES[fase[n]] + ";" + s;
+        }
+        return s;
+    }
+}
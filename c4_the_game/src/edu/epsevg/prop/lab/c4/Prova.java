@@ -1,13 +1,51 @@
 package edu.epsevg.prop.lab.c4;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
 /**
  * Clase de prueba para verificar el comportamiento del JugadorPropi
  * en situaciones difíciles y casos extremos.
+ *
+ * Cada test comprueba su resultado con comprueba(); main termina con código
+ * 1 si alguno falla, de modo que "ant prova" falla la construcción.
+ * El presupuesto de tiempo del test de rendimiento se puede cambiar con
+ * -Dc4.presupuesto=ms para máquinas más lentas.
  * 
  * @author Alex Aranda Salinas
  */
 public class Prova {
 
+    // Presupuesto por defecto del test de tiempo, con margen amplio sobre
+    // lo que tarda en un portátil (unos 60 ms)
+    private static final long PRESUPUESTO_MS = 1000;
+
+    private static int pruebas;
+    private static int fallos;
+
+    /**
+     * Anota el resultado de un test
+     *
+     * @param ok true si el test ha pasado
+     */
+    static void comprueba(boolean ok) {
+        pruebas++;
+        if (!ok) {
+            fallos++;
+        }
+        System.out.println("Test " + (ok ? "PASADO" : "FALLADO"));
+    }
+
     /**
      * Prueba que el jugador detecta y aprovecha una victoria inmediata
      */
@@ -28,7 +66,7 @@ public class Prova {
 
         System.out.println("Columna elegida: " + columna);
         System.out.println("Esperado: 3 (victoria horizontal)");
-        System.out.println("Test " + (columna == 3 ? "PASADO" : "FALLADO"));
+        comprueba(columna == 3);
     }
 
     /**
@@ -51,7 +89,7 @@ public class Prova {
 
         System.out.println("Columna elegida: " + columna);
         System.out.println("Esperado: 3 (bloquear amenaza)");
-        System.out.println("Test " + (columna == 3 ? "PASADO" : "FALLADO"));
+        comprueba(columna == 3);
     }
 
     /**
@@ -74,7 +112,8 @@ public class Prova {
         int columna = jugador.moviment(t, 1); // ROJO
 
         System.out.println("Columna elegida: " + columna);
-        System.out.println("Debería crear amenazas múltiples");
+        System.out.println("Esperado: 2 (dos en línea horizontal y vertical a la vez)");
+        comprueba(columna == 2);
     }
 
     /**
@@ -96,7 +135,7 @@ public class Prova {
 
         System.out.println("Columna elegida: " + columna);
         System.out.println("Esperado: 4 (victoria vertical)");
-        System.out.println("Test " + (columna == 4 ? "PASADO" : "FALLADO"));
+        comprueba(columna == 4);
     }
 
     /**
@@ -128,7 +167,7 @@ public class Prova {
 
         System.out.println("Columna elegida: " + columna);
         System.out.println("Esperado: 3 (victoria diagonal)");
-        System.out.println("Test " + (columna == 3 ? "PASADO" : "FALLADO"));
+        comprueba(columna == 3);
     }
 
     /**
@@ -153,7 +192,851 @@ public class Prova {
 
         System.out.println("Columna elegida: " + columna);
         System.out.println("Esperado: 7 (única columna disponible)");
-        System.out.println("Test " + (columna == 7 ? "PASADO" : "FALLADO"));
+        comprueba(columna == 7);
+    }
+
+    /**
+     * Prueba que la búsqueda sin asignaciones no reserva memoria por
+     * movimiento una vez calentada, y que elige lo mismo que la clásica
+     */
+    public static void testSinAsignaciones() {
+        System.out.println("\n=== TEST 7: Búsqueda Sin Asignaciones ===");
+        Tauler t = new Tauler(8);
+        t.afegeix(3, 1);
+        t.afegeix(4, -1);
+        t.afegeix(3, 1);
+        t.afegeix(2, -1);
+
+        JugadorPropi clasico = new JugadorPropi(6);
+        clasico.setMostrarNodos(false);
+        JugadorPropi jugador = new JugadorPropi(6, true);
+        jugador.setMostrarNodos(false);
+
+        boolean mismaJugada = clasico.moviment(t, 1) == jugador.moviment(t, 1)
+                && clasico.getUltimoValor() == jugador.getUltimoValor();
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().getId();
+
+        // Calentamiento para que el JIT compile la búsqueda
+        for (int i = 0; i < 20; i++) {
+            jugador.moviment(t, 1);
+        }
+
+        long base = mx.getThreadAllocatedBytes(hilo);
+        long medida = mx.getThreadAllocatedBytes(hilo) - base;
+        int repeticiones = 10;
+        long antes = mx.getThreadAllocatedBytes(hilo);
+        for (int i = 0; i < repeticiones; i++) {
+            jugador.moviment(t, 1);
+        }
+        long bytes = mx.getThreadAllocatedBytes(hilo) - antes - medida;
+
+        System.out.println("Misma jugada que la búsqueda clásica: " + mismaJugada);
+        System.out.println("Bytes reservados por moviment(): " + bytes / repeticiones);
+        System.out.println("Esperado: 0 bytes");
+        comprueba(mismaJugada && bytes <= 0);
+    }
+
+    /**
+     * Prueba que la extensión de amenazas demuestra con poca profundidad
+     * una victoria por doble amenaza que la búsqueda normal no ve
+     */
+    public static void testExtensionAmenazas() {
+        System.out.println("\n=== TEST 8: Extensión de Amenazas ===");
+        Tauler t = new Tauler(8);
+        t.afegeix(2, 1); // ROJO
+        t.afegeix(7, -1); // AZUL
+        t.afegeix(3, 1); // ROJO
+        t.afegeix(7, -1); // AZUL
+        // ROJO en 1 o 4 deja tres en línea abierto por los dos lados
+
+        t.pintaTaulerALaConsola();
+
+        JugadorPropi normal = new JugadorPropi(2, true);
+        normal.setMostrarNodos(false);
+        normal.moviment(t, 1);
+
+        JugadorPropi jugador = new JugadorPropi(2, true);
+        jugador.setMostrarNodos(false);
+        jugador.setExtensionAmenazas(8);
+        int columna = jugador.moviment(t, 1);
+
+        System.out.println("Valor sin extensión: " + normal.getUltimoValor() + " (" + normal.getNodosExplorados() + " nodos)");
+        System.out.println("Valor con extensión: " + jugador.getUltimoValor() + " (" + jugador.getNodosExplorados() + " nodos)");
+        System.out.println("Columna elegida: " + columna);
+        System.out.println("Esperado: 1 o 4 con victoria demostrada");
+        boolean ok = (columna == 1 || columna == 4) && jugador.getUltimoValor() >= BusquedaBits.VICTORIA_DEMOSTRADA;
+        comprueba(ok);
+    }
+
+    /**
+     * Cuenta las posiciones hoja a una profundidad dada sin seguir jugando
+     * tras una victoria o con el tablero lleno (perft)
+     */
+    static long perft(Tauler t, int color, int profundidad) {
+        long n = 0;
+        for (int col = 0; col < t.getMida(); col++) {
+            if (!t.movpossible(col)) {
+                continue;
+            }
+            Tauler hijo = new Tauler(t);
+            hijo.afegeix(col, color);
+            if (profundidad == 1 || hijo.solucio(col, color) || !hijo.espotmoure()) {
+                n++;
+            } else {
+                n += perft(hijo, -color, profundidad - 1);
+            }
+        }
+        return n;
+    }
+
+    static long perft(TaulerBits t, int color, int profundidad) {
+        long n = 0;
+        for (int col = 0; col < t.getMida(); col++) {
+            if (!t.movpossible(col)) {
+                continue;
+            }
+            t.afegeix(col, color);
+            if (profundidad == 1 || t.solucio(col, color) || !t.espotmoure()) {
+                n++;
+            } else {
+                n += perft(t, -color, profundidad - 1);
+            }
+            t.treu(col);
+        }
+        return n;
+    }
+
+    /**
+     * Prueba que Tauler y TaulerBits generan exactamente el mismo árbol de
+     * jugadas que los recuentos fijados desde varias posiciones
+     */
+    public static void testPerft() {
+        System.out.println("\n=== TEST 9: Perft ===");
+        // Posición (TaulerBits.codifica), profundidad, posiciones esperadas
+        Object[][] casos = {
+            {"///////", 6, 262144L},
+            {"//O/XOO/XXO/X//", 6, 183980L},
+            {"////", 9, 1878140L},
+            {"///", 10, 697164L}
+        };
+        boolean ok = true;
+        for (Object[] c : casos) {
+            Tauler t = TaulerBits.descodifica((String) c[0]);
+            TaulerBits bits = new TaulerBits(t);
+            int color = bits.getJugadas() % 2 == 0 ? 1 : -1;
+            int profundidad = (Integer) c[1];
+            long esperado = (Long) c[2];
+            long clasico = perft(t, color, profundidad);
+            long rapido = perft(bits, color, profundidad);
+            System.out.println(c[0] + " profundidad " + profundidad + ": Tauler " + clasico
+                    + ", TaulerBits " + rapido + ", esperado " + esperado);
+            ok &= clasico == esperado && rapido == esperado;
+        }
+        comprueba(ok);
+    }
+
+    /**
+     * Prueba que un movimiento a profundidad 8 en una posición de medio
+     * juego termina dentro del presupuesto de tiempo
+     */
+    public static void testPresupuestoTiempo() {
+        System.out.println("\n=== TEST 10: Presupuesto de Tiempo ===");
+        long presupuesto = Long.getLong("c4.presupuesto", PRESUPUESTO_MS);
+        Tauler t = TaulerBits.descodifica("//O/XOO/XXO/X//");
+
+        JugadorPropi jugador = new JugadorPropi(8, true);
+        jugador.setMostrarNodos(false);
+        // Calentamiento para que el JIT compile la búsqueda
+        for (int i = 0; i < 3; i++) {
+            jugador.moviment(t, 1);
+        }
+        long inicio = System.nanoTime();
+        jugador.moviment(t, 1);
+        long ms = (System.nanoTime() - inicio) / 1000000;
+
+        System.out.println("Tiempo: " + ms + " ms (" + jugador.getNodosExplorados() + " nodos)");
+        System.out.println("Esperado: como mucho " + presupuesto + " ms");
+        comprueba(ms <= presupuesto);
+    }
+
+    /**
+     * Prueba que TaulerBits coincide con Tauler en partidas aleatorias
+     * (la validación completa está en ValidadorTauler)
+     */
+    public static void testValidadorTauler() {
+        System.out.println("\n=== TEST 11: TaulerBits contra Tauler ===");
+        long diferencias;
+        try {
+            diferencias = ValidadorTauler.valida(20000, 1, 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            diferencias = -1;
+        }
+        System.out.println("Diferencias en 20000 partidas: " + diferencias);
+        System.out.println("Esperado: 0");
+        comprueba(diferencias == 0);
+    }
+
+    /**
+     * Prueba que MCTS con varios hilos bloquea una amenaza y aprovecha una
+     * victoria inmediata
+     */
+    public static void testMCTS() {
+        System.out.println("\n=== TEST 12: MCTS ===");
+        Tauler t = new Tauler(8);
+        t.afegeix(0, -1); // AZUL
+        t.afegeix(1, -1); // AZUL
+        t.afegeix(2, -1); // AZUL
+        t.afegeix(7, 1); // ROJO
+
+        JugadorMCTS jugador = new JugadorMCTS(200, 2, 1 << 16, Math.sqrt(2));
+        int bloqueo = jugador.moviment(t, 1);
+        System.out.println("Bloqueo: columna " + bloqueo + " (" + jugador.getNodosExplorados() + " simulaciones)");
+
+        t.afegeix(7, 1);
+        t.afegeix(7, 1);
+        int victoria = jugador.moviment(t, 1);
+        System.out.println("Victoria: columna " + victoria);
+        System.out.println("Esperado: 3 y 7");
+        comprueba(bloqueo == 3 && victoria == 7);
+    }
+
+    /**
+     * TEST 13: La red actualizada con las fichas cambiadas da lo mismo que
+     * recalculada desde cero, y sobrevive a guardarla y leerla
+     */
+    public static void testRedIncremental() {
+        System.out.println("\n=== TEST 13: Red Neuronal Incremental ===");
+        SplittableRandom r = new SplittableRandom(1);
+        int ocultas = 16;
+        short[] w1 = new short[RedNeuronal.ENTRADAS * ocultas];
+        short[] b1 = new short[ocultas];
+        short[] w2 = new short[2 * ocultas];
+        for (short[] pesos : new short[][]{w1, b1, w2}) {
+            for (int i = 0; i < pesos.length; i++) {
+                pesos[i] = (short) (r.nextInt(200) - 100);
+            }
+        }
+        RedNeuronal red = new RedNeuronal(ocultas, w1, b1, w2, 1234);
+        RedNeuronal leida;
+        try {
+            Path fichero = Files.createTempFile("c4", ".red");
+            red.guarda(fichero);
+            leida = RedNeuronal.lee(fichero);
+            Files.delete(fichero);
+        } catch (IOException e) {
+            System.out.println("Error al guardar o leer la red: " + e.getMessage());
+            comprueba(false);
+            return;
+        }
+
+        int diferencias = 0;
+        TaulerBits t = new TaulerBits(8);
+        for (int partida = 0; partida < 200; partida++) {
+            int color = 1;
+            int[] jugadas = new int[64];
+            int n = 0;
+            while (t.espotmoure()) {
+                int col = r.nextInt(8);
+                if (!t.movpossible(col)) {
+                    continue;
+                }
+                t.afegeix(col, color);
+                jugadas[n++] = col;
+                color = -color;
+                if (red.h(t, color) != red.copia().h(t, color) || red.h(t, -color) != leida.h(t, -color)) {
+                    diferencias++;
+                }
+                // Deshacer a veces para evaluar también al volver atrás
+                if (n > 1 && r.nextInt(4) == 0) {
+                    t.treu(jugadas[--n]);
+                    color = -color;
+                }
+            }
+            while (n > 0) {
+                t.treu(jugadas[--n]);
+            }
+        }
+        System.out.println("Diferencias: " + diferencias);
+        System.out.println("Esperado: 0");
+        comprueba(diferencias == 0);
+    }
+
+    /**
+     * Prueba que la tabla de transposición no cambia el resultado de la
+     * búsqueda y que, guardada en un fichero, otro jugador contesta la misma
+     * posición sin buscar
+     */
+    public static void testCacheBusqueda() {
+        System.out.println("\n=== TEST 14: Tabla de Transposición Persistente ===");
+        Tauler t = new Tauler(8);
+        t.afegeix(3, 1);
+        t.afegeix(4, -1);
+        t.afegeix(3, 1);
+        t.afegeix(2, -1);
+
+        JugadorPropi sinTabla = new JugadorPropi(8, true);
+        sinTabla.setMostrarNodos(false);
+        int columna = sinTabla.moviment(t, 1);
+
+        Path fichero;
+        JugadorPropi primero = new JugadorPropi(8, true);
+        JugadorPropi segundo = new JugadorPropi(8, true);
+        int escritas;
+        try {
+            fichero = Files.createTempFile("c4", ".tt");
+            Files.delete(fichero);
+            CacheBusqueda tabla = new CacheBusqueda(16, fichero);
+            primero.setMostrarNodos(false);
+            primero.setCache(tabla);
+            primero.moviment(t, 1);
+            escritas = tabla.vuelca();
+
+            segundo.setMostrarNodos(false);
+            segundo.setCache(new CacheBusqueda(16, fichero));
+            segundo.moviment(t, 1);
+            Files.delete(fichero);
+        } catch (IOException e) {
+            System.out.println("Error al guardar o leer la tabla: " + e.getMessage());
+            comprueba(false);
+            return;
+        }
+
+        System.out.println("Sin tabla: columna " + columna + ", " + sinTabla.getNodosExplorados() + " nodos");
+        System.out.println("Con tabla: columna " + primero.moviment(t, 1) + ", " + primero.getNodosExplorados()
+                + " nodos la segunda vez");
+        System.out.println("Entradas guardadas: " + escritas);
+        System.out.println("Desde el fichero: columna " + segundo.moviment(t, 1) + ", "
+                + segundo.getNodosExplorados() + " nodos");
+        System.out.println("Esperado: misma columna y valor, 0 nodos desde el fichero");
+        boolean ok = primero.moviment(t, 1) == columna && segundo.moviment(t, 1) == columna
+                && primero.getUltimoValor() == sinTabla.getUltimoValor()
+                && segundo.getUltimoValor() == sinTabla.getUltimoValor()
+                && segundo.getNodosExplorados() == 0 && escritas > 0;
+        // Una tabla que no cabe en una proyección se rechaza al crearla
+        try {
+            FabricaJugadores.crea("propi:depth=4,motor=bits,tt=memoria,ttbits=" + (CacheBusqueda.BITS_MAX + 1));
+            System.out.println("Tabla de 2^" + (CacheBusqueda.BITS_MAX + 1) + " aceptada");
+            ok = false;
+        } catch (IllegalArgumentException e) {
+            System.out.println("Tabla demasiado grande: " + e.getMessage());
+        }
+        comprueba(ok);
+    }
+
+    /**
+     * Prueba la cola de autojuego con dos trabajadores en procesos
+     * distintos, un trabajo reclamado por un trabajador caído y otro que
+     * falla
+     */
+    public static void testColaAutojuego() {
+        System.out.println("\n=== TEST 15: Cola de Autojuego ===");
+        String spec = "propi:depth=4,motor=bits,nodos=false";
+        ColaAutojuego.Estado s;
+        int partidas;
+        boolean rechazado;
+        try {
+            Path dir = Files.createTempDirectory("c4cola");
+            ColaAutojuego cola = new ColaAutojuego(dir);
+            int trabajos = cola.encolaPartidas(12, spec, spec, 2, 4, 1);
+            // Con 0 partidas por trabajo no se acabaría nunca de encolar
+            try {
+                cola.encolaPartidas(2, spec, spec, 0, 4, 1);
+                rechazado = false;
+            } catch (IllegalArgumentException e) {
+                rechazado = true;
+            }
+
+            // Un trabajador que reclama un trabajo y se cae sin terminarlo
+            Path caido = cola.reclama("caido");
+            Files.setLastModifiedTime(caido, FileTime.fromMillis(0));
+            // Un trabajo con un jugador que no existe: no debe parar la cola
+            Files.write(dir.resolve("pendientes").resolve("0-malo"),
+                    Collections.singletonList("partidas\tnadie\tnadie\t2\t4\t1"));
+
+            String ejecutable = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            List<Process> procesos = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                procesos.add(new ProcessBuilder(ejecutable, "-cp", System.getProperty("java.class.path"),
+                        ColaAutojuego.class.getName(), "trabaja", dir.toString(), "t" + i, "5")
+                        .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start());
+            }
+            for (Process pr : procesos) {
+                pr.waitFor();
+            }
+
+            s = cola.estado();
+            Path juegos = dir.resolve("partidas.txt");
+            cola.recoge(ColaAutojuego.PARTIDAS, juegos);
+            partidas = RegistroPartidas.lee(juegos).size();
+            System.out.println("Trabajos: " + trabajos + ", hechos: " + s.hechos + ", fallidos: " + s.fallidos
+                    + ", partidas: " + partidas);
+            System.out.println("Total: " + s.total);
+            try (Stream<Path> ficheros = Files.walk(dir)) {
+                ficheros.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Error en la cola: " + e.getMessage());
+            comprueba(false);
+            return;
+        }
+        // No se exige que los dos trabajadores reciban trabajo: uno puede
+        // terminarlos todos antes de que arranque el otro
+        System.out.println("Esperado: 6 trabajos hechos, 1 fallido, 12 partidas, nada pendiente, 0 por trabajo"
+                + " rechazado (" + rechazado + ")");
+        comprueba(s.hechos == 6 && s.fallidos == 1 && s.pendientes == 0 && s.reclamados == 0 && partidas == 12
+                && !s.trabajadores.containsKey("caido") && rechazado);
+    }
+
+    /**
+     * Prueba que con reloj la búsqueda respeta el máximo de la jugada y
+     * que una partida con poco tiempo termina sin derrotas por tiempo
+     */
+    public static void testReloj() {
+        System.out.println("\n=== TEST 16: Reloj ===");
+        Tauler t = new Tauler(8);
+        t.afegeix(3, 1);
+        t.afegeix(4, -1);
+
+        JugadorPropi jugador = new JugadorPropi(8, true);
+        jugador.setMostrarNodos(false);
+        jugador.precalienta(200);
+        GestorTiempo g = new GestorTiempo();
+        g.inicia(400, 0, 62);
+        jugador.setReloj(400, 0);
+        long inicio = System.nanoTime();
+        int columna = jugador.moviment(t, 1);
+        long ms = (System.nanoTime() - inicio) / 1000000;
+        System.out.println("Columna " + columna + " a profundidad " + jugador.getProfundidadAlcanzada() + " en " + ms
+                + " ms (objetivo " + g.getObjetivoMs() + " ms, máximo " + g.getMaximoMs() + " ms)");
+
+        Reloj reloj = new Reloj(1000, 0);
+        JugadorPropi rojo = new JugadorPropi(8, true);
+        JugadorPropi azul = new JugadorPropi(8, true);
+        rojo.setMostrarNodos(false);
+        azul.setMostrarNodos(false);
+        RegistroPartidas.Partida p = Enfrentamiento.juega(rojo, azul, 8, Enfrentamiento.NINGUNO, reloj);
+        System.out.println("Partida a 1 s: " + p.jugadas.size() + " jugadas, restante " + reloj.getRestante(1) + " / "
+                + reloj.getRestante(-1) + " ms");
+        System.out.println("Esperado: jugada legal dentro del máximo (con margen) y ninguna derrota por tiempo");
+        comprueba(t.movpossible(columna) && jugador.getProfundidadAlcanzada() >= 4 && ms <= g.getMaximoMs() + 50
+                && reloj.getRestante(1) >= 0 && reloj.getRestante(-1) >= 0);
+    }
+
+    /**
+     * Prueba la tabla compartida: lo que escribe una proyección del fichero
+     * lo ve otra, y con escrituras simultáneas en la misma entrada nunca se
+     * lee una entrada mezclada
+     */
+    public static void testCacheCompartida() {
+        System.out.println("\n=== TEST 17: Tabla Compartida ===");
+        final CacheBusqueda a;
+        final CacheBusqueda b;
+        Path fichero;
+        try {
+            fichero = Files.createTempFile("c4", ".tt");
+            Files.delete(fichero);
+            a = CacheBusqueda.compartida(10, fichero);
+            b = CacheBusqueda.compartida(16, fichero);
+        } catch (IOException e) {
+            System.out.println("Error al abrir la tabla: " + e.getMessage());
+            comprueba(false);
+            return;
+        }
+
+        a.guarda(12345, 777, 9, CacheBusqueda.EXACTA, 3);
+        long d = b.lee(12345);
+        boolean visible = d != 0 && CacheBusqueda.valor(d) == 777 && CacheBusqueda.jugada(d) == 3;
+
+        // Claves del mismo cubo, cada una con un valor que depende de ella
+        final long[] claves = {1L << 40, 2L << 40, 3L << 40};
+        final AtomicBoolean fin = new AtomicBoolean();
+        Thread[] escritores = new Thread[claves.length];
+        for (int k = 0; k < claves.length; k++) {
+            final long clave = claves[k];
+            escritores[k] = new Thread(() -> {
+                // Unos escriben por una proyección y otros por la otra
+                CacheBusqueda c = (clave >>> 40) % 2 == 0 ? a : b;
+                for (int prof = 0; !fin.get(); prof = (prof + 1) & 63) {
+                    c.guarda(clave, (int) (clave >>> 40), prof, CacheBusqueda.EXACTA, (int) (clave >>> 40));
+                }
+            });
+            escritores[k].start();
+        }
+        int mezcladas = 0;
+        int aciertos = 0;
+        long limite = System.nanoTime() + 200000000L;
+        while (System.nanoTime() < limite) {
+            for (long clave : claves) {
+                long e = b.lee(clave);
+                if (e != 0) {
+                    aciertos++;
+                    if (CacheBusqueda.valor(e) != (int) (clave >>> 40) || CacheBusqueda.jugada(e) != (int) (clave >>> 40)) {
+                        mezcladas++;
+                    }
+                }
+            }
+        }
+        fin.set(true);
+        try {
+            for (Thread h : escritores) {
+                h.join();
+            }
+            Files.delete(fichero);
+        } catch (InterruptedException | IOException e) {
+            // Solo limpieza
+        }
+
+        System.out.println("Visible desde la otra proyección: " + visible);
+        System.out.println("Lecturas con acierto: " + aciertos + ", mezcladas: " + mezcladas);
+        System.out.println("Esperado: visible y 0 mezcladas");
+        comprueba(visible && aciertos > 0 && mezcladas == 0);
+    }
+
+    /**
+     * Prueba que la Heuristica con tablas de líneas da lo mismo que
+     * HeuristicaBits en tableros de todas las mides
+     */
+    public static void testTablasHeuristica() {
+        System.out.println("\n=== TEST 18: Tablas de Heuristica ===");
+        SplittableRandom r = new SplittableRandom(3);
+        Heuristica heuristica = new Heuristica();
+        HeuristicaBits bits = new HeuristicaBits();
+        int posiciones = 0;
+        int diferencias = 0;
+        for (int mida = 4; mida <= TaulerBits.MIDA_MAX; mida++) {
+            for (int partida = 0; partida < 300; partida++) {
+                TaulerBits t = new TaulerBits(mida);
+                int color = 1;
+                while (t.espotmoure()) {
+                    int col = r.nextInt(mida);
+                    if (!t.movpossible(col)) {
+                        continue;
+                    }
+                    t.afegeix(col, color);
+                    if (t.solucio(col, color)) {
+                        break;
+                    }
+                    color = -color;
+                    posiciones++;
+                    if (heuristica.h(t, color) != bits.h(t, color) || heuristica.h(t, -color) != bits.h(t, -color)) {
+                        diferencias++;
+                    }
+                }
+            }
+        }
+        System.out.println("Posiciones: " + posiciones + ", diferencias: " + diferencias);
+        System.out.println("Esperado: 0");
+        comprueba(diferencias == 0);
+    }
+
+    /**
+     * Prueba la poda por resultados demostrados: la búsqueda elige la misma
+     * columna con el mismo valor que sin ella y evalúa menos hojas
+     */
+    public static void testPodaDemostrada() {
+        System.out.println("\n=== TEST 19: Poda por Resultados Demostrados ===");
+        TaulerBits[] posiciones = Rendimiento.posicionesAleatorias(100, 5);
+        BusquedaBits sin = new BusquedaBits(new Heuristica());
+        BusquedaBits con = new BusquedaBits(new Heuristica());
+        con.setPodaDemostrada(true);
+        long hojasSin = 0;
+        long hojasCon = 0;
+        int distintas = 0;
+        for (TaulerBits p : posiciones) {
+            Tauler t = TaulerBits.descodifica(p.codifica());
+            int color = Rendimiento.colorQueMueve(p);
+            int colSin = sin.busca(t, color, 7);
+            int colCon = con.busca(t, color, 7);
+            hojasSin += sin.getNodos();
+            hojasCon += con.getNodos();
+            if (colSin != colCon || sin.getValorRaiz() != con.getValorRaiz()) {
+                distintas++;
+            }
+        }
+        System.out.println("Hojas sin poda: " + hojasSin + ", con poda: " + hojasCon + ", distintas: " + distintas);
+        System.out.println("Esperado: 0 distintas y menos hojas con poda");
+        comprueba(distintas == 0 && hojasCon < hojasSin);
+    }
+
+    /**
+     * Prueba las semillas: la misma semilla repite la partida entre
+     * jugadores aleatorios (Aleatori, MCTS por simulaciones y JugadorPropi
+     * con desempate al azar), otra semilla la cambia y la semilla se
+     * conserva en el registro
+     */
+    public static void testSemillas() {
+        System.out.println("\n=== TEST 20: Semillas ===");
+        String[][] parejas = {{"aleatori", "mcts:iter=2000"}, {"propi:depth=4,nodos=false,azar=true,motor=bits",
+                "propi:depth=4,nodos=false,azar=true"}};
+        boolean repetidas = true;
+        boolean cambian = false;
+        boolean registro = true;
+        for (String[] pareja : parejas) {
+            String[] columnas = new String[3];
+            long[] semillas = {11, 11, 12};
+            for (int k = 0; k < 3; k++) {
+                RegistroPartidas.Partida p = Enfrentamiento.juega(FabricaJugadores.crea(pareja[0]),
+                        FabricaJugadores.crea(pareja[1]), 8, Enfrentamiento.NINGUNO, null, semillas[k]);
+                StringBuilder sb = new StringBuilder();
+                for (RegistroPartidas.Jugada j : p.jugadas) {
+                    sb.append(j.columna);
+                }
+                columnas[k] = sb.toString();
+                registro &= RegistroPartidas.parsea(RegistroPartidas.formatea(p)).semilla == semillas[k];
+            }
+            System.out.println(pareja[0] + " - " + pareja[1] + ": " + columnas[0] + " / " + columnas[1] + " / "
+                    + columnas[2]);
+            repetidas &= columnas[0].equals(columnas[1]);
+            cambian |= !columnas[0].equals(columnas[2]);
+        }
+        System.out.println("Esperado: misma partida con la misma semilla, otra con otra semilla y semilla en el registro");
+        comprueba(repetidas && cambian && registro);
+    }
+
+    /**
+     * Test 21: La traza de una búsqueda se lee entera, con cada nodo
+     * cerrado, y da el mismo valor y columna que la búsqueda sin traza
+     */
+    public static void testTrazaBusqueda() {
+        System.out.println("\n=== TEST 21: Traza de búsqueda ===");
+        String posicion = "/XX/X/O/O///";
+        boolean ok = true;
+        try {
+            Path dir = Files.createTempDirectory("c4traza");
+            for (boolean bits : new boolean[]{true, false}) {
+                for (int maxNodos : new int[]{TrazaBusqueda.MAX_NODOS, 100}) {
+                    JugadorPropi sin = new JugadorPropi(5, bits);
+                    sin.setMostrarNodos(false);
+                    int colSin = sin.moviment(TaulerBits.descodifica(posicion), 1);
+
+                    JugadorPropi con = new JugadorPropi(5, bits);
+                    con.setMostrarNodos(false);
+                    TrazaBusqueda traza = new TrazaBusqueda("prova", dir, maxNodos);
+                    con.setTraza(traza);
+                    int col = con.moviment(TaulerBits.descodifica(posicion), 1);
+                    Path fichero = traza.getUltimoFichero();
+                    ExploradorTraza.Arbol a = ExploradorTraza.Arbol.lee(fichero);
+                    Files.delete(fichero);
+
+                    boolean cerrados = true;
+                    for (int i = 1; i < a.n; i++) {
+                        cerrados &= a.motivo[i] >= 0;
+                    }
+                    int raiz = a.primerHijo[0];
+                    System.out.println((bits ? "bits" : "clásico") + ", máximo " + maxNodos + ": columna " + col
+                            + " (sin traza " + colSin + "), valor " + a.valor[raiz] + " (" + con.getUltimoValor()
+                            + "), " + a.nodos() + " nodos grabados, " + a.omitidos + " omitidos");
+                    ok &= col == colSin && col == a.columnaElegida && a.valor[raiz] == con.getUltimoValor()
+                            && a.valor[raiz] == sin.getUltimoValor() && cerrados && a.columna[raiz] == -1;
+                    ok &= maxNodos == 100 ? a.nodos() == 100 && a.omitidos > 0 : a.omitidos == 0;
+                }
+            }
+            Files.delete(dir);
+        } catch (IOException e) {
+            System.out.println("Error: " + e.getMessage());
+            ok = false;
+        }
+        System.out.println("Esperado: mismo resultado con y sin traza, nodos cerrados y el límite respetado");
+        comprueba(ok);
+    }
+
+    /**
+     * Test 22: El SPRT de Regresion acepta cada hipótesis con resultados
+     * claros y el jugador del jar base se carga con sus propias clases
+     */
+    public static void testRegresion() {
+        System.out.println("\n=== TEST 22: Control de regresiones ===");
+        double iguales = Regresion.llrPartidas(150, 30, 150, 0, -50);
+        double peor = Regresion.llrPartidas(70, 20, 130, 0, -50);
+        double todoVictorias = Regresion.llrPartidas(40, 0, 0, 300, 250);
+        double velocidadIgual = Regresion.llrNormal(0.01, 0.0003, 5, Math.log(0.9));
+        double velocidadPeor = Regresion.llrNormal(5 * Math.log(0.7), 5 * Math.log(0.7) * Math.log(0.7), 5,
+                Math.log(0.9));
+        System.out.printf("LLR iguales %.2f, 35%% %.2f, todo victorias %.2f, nps igual %.2f, nps -30%% %.2f%n",
+                iguales, peor, todoVictorias, velocidadIgual, velocidadPeor);
+        boolean ok = Regresion.decide(iguales) == Regresion.SIN_REGRESION
+                && Regresion.decide(peor) == Regresion.REGRESION
+                && Regresion.decide(todoVictorias) == Regresion.SIN_REGRESION
+                && Regresion.decide(velocidadIgual) == Regresion.SIN_REGRESION
+                && Regresion.decide(velocidadPeor) == Regresion.REGRESION;
+
+        // Las clases compiladas hacen de jar base
+        try (Regresion.CargadorBase cargador = new Regresion.CargadorBase(
+                Paths.get(Regresion.class.getProtectionDomain().getCodeSource().getLocation().toURI()))) {
+            Jugador base = cargador.crea("propi:depth=4,motor=bits,nodos=false");
+            boolean otraClase = base.getClass() != JugadorPropi.class
+                    && base.getClass().getName().equals(JugadorPropi.class.getName());
+            Tauler t = TaulerBits.descodifica("/XX/X/O/O///");
+            int col = base.moviment(t, 1);
+            long nodos = Regresion.nodos(base);
+            System.out.println("Jugador base de otra clase: " + otraClase + ", columna " + col + ", " + nodos + " nodos");
+            ok &= otraClase && t.movpossible(col) && nodos > 0;
+        } catch (Exception e) {
+            System.out.println("Error: " + e);
+            ok = false;
+        }
+        System.out.println("Esperado: H0 con iguales, H1 con regresión y el jugador base cargado aparte");
+        comprueba(ok);
+    }
+
+    /**
+     * Test 23: El análisis multi-PV da a cada columna el valor de un minimax
+     * sin poda, las k mejores coinciden con el análisis de todas y las
+     * variaciones son legales y empiezan por su columna
+     */
+    public static void testAnalisis() {
+        System.out.println("\n=== TEST 23: Análisis multi-PV ===");
+        int d = 6;
+        boolean ok = true;
+        TaulerBits[] posiciones = Rendimiento.posicionesAleatorias(6, 3);
+        for (int p = 0; p < posiciones.length; p++) {
+            String posicion = p == 0 ? "/XX/X/O/O///" : posiciones[p].codifica();
+            int color = Rendimiento.colorQueMueve(new TaulerBits(TaulerBits.descodifica(posicion)));
+            for (boolean bits : new boolean[]{true, false}) {
+                JugadorPropi j = new JugadorPropi(d, bits);
+                j.setMostrarNodos(false);
+                List<Analisis.Linea> todas = j.analiza(TaulerBits.descodifica(posicion), color, TaulerBits.MIDA_MAX);
+                List<Analisis.Linea> tres = j.analiza(TaulerBits.descodifica(posicion), color, 3);
+                for (int i = 0; i < tres.size(); i++) {
+                    ok &= tres.get(i).valor == todas.get(i).valor && tres.get(i).profundidad == d;
+                }
+                for (int i = 0; i < todas.size(); i++) {
+                    Analisis.Linea l = todas.get(i);
+                    ok &= l.variacion.length > 0 && l.variacion[0] == l.columna;
+                    ok &= i == 0 || todas.get(i - 1).valor >= l.valor;
+                    // La variación se juega entera
+                    Tauler t = TaulerBits.descodifica(posicion);
+                    int c = color;
+                    boolean fin = false;
+                    for (int col : l.variacion) {
+                        ok &= !fin && t.movpossible(col);
+                        if (!t.movpossible(col)) {
+                            break;
+                        }
+                        t.afegeix(col, c);
+                        fin = t.solucio(col, c);
+                        c = -c;
+                    }
+                    // Mismo valor que un minimax sin poda de la columna
+                    Tauler hijo = TaulerBits.descodifica(posicion);
+                    hijo.afegeix(l.columna, color);
+                    int v = -minimax(new TaulerBits(hijo), -color, color, l.columna, d - 1, 1);
+                    if (v != l.valor) {
+                        System.out.println("Columna " + l.columna + ": " + l.valor + " en el análisis, " + v
+                                + " aparte");
+                        ok = false;
+                    }
+                }
+                if (p == 0) {
+                    System.out.println((bits ? "bits" : "clásico") + " " + posicion + ": " + todas);
+                }
+            }
+        }
+        try {
+            new JugadorPropi(4, true).analiza(new Tauler(8), 1, 0);
+            ok = false;
+        } catch (IllegalArgumentException e) {
+            System.out.println("0 líneas: " + e.getMessage());
+        }
+        System.out.println("Esperado: valores iguales al minimax sin poda y variaciones legales");
+        comprueba(ok);
+    }
+
+    /**
+     * Test 24: Los tableros más grandes que TaulerBits se siguen jugando
+     * con la búsqueda y la heurística sobre Tauler
+     */
+    public static void testTableroGrande() {
+        System.out.println("\n=== TEST 24: Tablero de 9 ===");
+        boolean ok = true;
+        for (boolean bits : new boolean[]{false, true}) {
+            Tauler t = new Tauler(9);
+            t.afegeix(4, 1);
+            t.afegeix(4, -1);
+            t.afegeix(3, 1);
+            JugadorPropi j = new JugadorPropi(4, bits);
+            j.setMostrarNodos(false);
+            try {
+                int col = j.moviment(t, -1);
+                System.out.println((bits ? "bits" : "clásico") + ": columna " + col);
+                ok &= t.movpossible(col);
+            } catch (RuntimeException e) {
+                System.out.println((bits ? "bits" : "clásico") + ": " + e);
+                ok = false;
+            }
+        }
+        System.out.println("Esperado: una columna legal con los dos motores");
+        comprueba(ok);
+    }
+
+    /**
+     * Test 25: Las especificaciones con valores fuera de rango se rechazan
+     * al validarlas, antes de crear el jugador
+     */
+    public static void testEspecificaciones() {
+        System.out.println("\n=== TEST 25: Especificaciones no válidas ===");
+        String[] malas = {"propi:0", "propi:-1", "propi:depth=0,motor=bits", "propi:motor=bits,ttbits=0",
+                "mcts:threads=0", "mcts:nodes=0", "profe:0", "profe:depth=2,h=3", "propi:motor=bits,tt=4GB",
+                "propi:motor=bits,tt=256", "propi:motor=bits,tt=1MB,ttbits=10", "propi:depth=4,motor=bits,time=1s",
+                "propi:time=1s"};
+        boolean ok = true;
+        for (String spec : malas) {
+            try {
+                FabricaJugadores.proveedor(spec);
+                System.out.println(spec + ": aceptada");
+                ok = false;
+            } catch (IllegalArgumentException e) {
+                System.out.println(spec + ": " + e.getMessage());
+            }
+        }
+        for (String spec : new String[]{"propi:1", "mcts:threads=1,nodes=9", "profe:depth=1,h=2"}) {
+            try {
+                FabricaJugadores.proveedor(spec).get();
+            } catch (RuntimeException e) {
+                System.out.println(spec + ": " + e);
+                ok = false;
+            }
+        }
+        // Tiempo fijo por jugada y tabla en memoria por tamaño
+        Jugador j = FabricaJugadores.crea("propi:motor=bits,time=100ms,tt=1MB,nodos=false");
+        Tauler t = new Tauler(8);
+        j.moviment(t, 1);
+        long inicio = System.nanoTime();
+        int col = j.moviment(t, 1);
+        long ms = (System.nanoTime() - inicio) / 1000000;
+        System.out.println("time=100ms: columna " + col + " en " + ms + " ms");
+        System.out.println("Esperado: todas rechazadas con IllegalArgumentException, los límites aceptados y la"
+                + " jugada con time=100ms en menos de 300 ms");
+        comprueba(ok && t.movpossible(col) && ms < 300);
+    }
+
+    /**
+     * Negamax sin poda ni tabla con la heurística evaluada para el color
+     * de la raíz, como BusquedaBits
+     */
+    private static int minimax(TaulerBits t, int color, int raiz, int ultimaCol, int profundidad, int ply) {
+        if (t.solucio(ultimaCol, -color)) {
+            return -(BusquedaBits.VICTORIA - ply);
+        }
+        if (!t.espotmoure()) {
+            return 0;
+        }
+        if (profundidad == 0) {
+            int v = new Heuristica().h(t, raiz);
+            return color == raiz ? v : -v;
+        }
+        int mejor = -BusquedaBits.INFINITO;
+        for (int col = 0; col < t.getMida(); col++) {
+            if (t.movpossible(col)) {
+                t.afegeix(col, color);
+                mejor = Math.max(mejor, -minimax(t, -color, raiz, col, profundidad - 1, ply + 1));
+                t.treu(col);
+            }
+        }
+        return mejor;
     }
 
     /**
@@ -170,9 +1053,32 @@ public class Prova {
         testVictoriaVertical();
         testVictoriaDiagonal();
         testTableroLleno();
+        testSinAsignaciones();
+        testExtensionAmenazas();
+        testPerft();
+        testPresupuestoTiempo();
+        testValidadorTauler();
+        testMCTS();
+        testRedIncremental();
+        testCacheBusqueda();
+        testColaAutojuego();
+        testReloj();
+        testCacheCompartida();
+        testTablasHeuristica();
+        testPodaDemostrada();
+        testSemillas();
+        testTrazaBusqueda();
+        testRegresion();
+        testAnalisis();
+        testTableroGrande();
+        testEspecificaciones();
 
         System.out.println("\n╔════════════════════════════════════════╗");
         System.out.println("║         TESTS COMPLETADOS              ║");
         System.out.println("╚════════════════════════════════════════╝");
+        System.out.println(pruebas - fallos + "/" + pruebas + " tests pasados");
+        if (fallos > 0) {
+            System.exit(1);
+        }
     }
 }
@@ -0,0 +1,228 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Evaluación con una red neuronal pequeña al estilo NNUE, con pesos
+ * enteros de 16 bits y cálculo solo con enteros.
+ *
+ * Entradas: 128 casillas (64 bits de las fichas propias y 64 de las del
+ * rival, con la disposición de bits de TaulerBits). La primera capa tiene
+ * un acumulador por perspectiva (rojas y azules) con los mismos pesos; la
+ * salida mira los dos acumuladores recortados a [0, QA], primero el del
+ * color evaluado.
+ *
+ * Los acumuladores recuerdan la posición que representan. Al evaluar solo
+ * se suman o restan las columnas de pesos de las fichas que han cambiado
+ * desde la hoja anterior (en una búsqueda en profundidad, las jugadas
+ * hechas y deshechas entre dos hojas); si han cambiado muchas se
+ * recalculan enteros. Una instancia no debe compartirse entre hilos.
+ *
+ * Fichero (ver EntrenadorRed): magia, versión, neuronas ocultas, pesos y
+ * sesgos de la primera capa, pesos de la salida, sesgo de la salida y
+ * CRC32 de todo lo anterior.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class RedNeuronal implements Evaluador {
+
+    private static final int MAGIA = 0x43344E4E;
+    static final int VERSION = 1;
+
+    static final int ENTRADAS = 128;
+    // Escala de la primera capa: la activación 1.0 vale QA
+    static final int QA = 255;
+    // Escala de los pesos de la salida
+    static final int QB = 64;
+    // Puntos de evaluación por unidad de salida de la red
+    static final int ESCALA = 100000;
+    // Cota del valor, muy por debajo de las victorias de la búsqueda
+    private static final int LIMITE = 10000000;
+    // Con más fichas cambiadas se recalculan los acumuladores enteros
+    private static final int MAX_CAMBIOS = 12;
+
+    private final int ocultas;
+    // Pesos de la primera capa por entrada: w1[entrada * ocultas + j]
+    private final short[] w1;
+    private final short[] b1;
+    // Pesos de la salida: los del color evaluado y luego los del rival
+    private final short[] w2;
+    private final int b2;
+
+    private final int[] acumRojas;
+    private final int[] acumAzules;
+    // Posición que representan los acumuladores
+    private long rojas;
+    private long azules;
+
+    // Tablero auxiliar para evaluar un Tauler sin copiarlo
+    private TaulerBits auxiliar;
+
+    RedNeuronal(int ocultas, short[] w1, short[] b1, short[] w2, int b2) {
+        if (w1.length != ENTRADAS * ocultas || b1.length != ocultas || w2.length != 2 * ocultas) {
+            throw new IllegalArgumentException("Dimensiones de la red incorrectas");
+        }
+        this.ocultas = ocultas;
+        this.w1 = w1;
+        this.b1 = b1;
+        this.w2 = w2;
+        this.b2 = b2;
+        acumRojas = new int[ocultas];
+        acumAzules = new int[ocultas];
+        recalcula(0, 0);
+    }
+
+    /**
+     * @return Red con los mismos pesos y acumuladores propios (para otro hilo)
+     */
+    public RedNeuronal copia() {
+        return new RedNeuronal(ocultas, w1, b1, w2, b2);
+    }
+
+    /**
+     * @return Neuronas de la capa oculta
+     */
+    public int getOcultas() {
+        return ocultas;
+    }
+
+    @Override
+    public int h(Tauler t, int miColor) {
+        if (auxiliar == null || auxiliar.getMida() != t.getMida()) {
+            auxiliar = new TaulerBits(t.getMida());
+        }
+        auxiliar.carga(t);
+        return h(auxiliar, miColor);
+    }
+
+    @Override
+    public int h(TaulerBits t, int miColor) {
+        long r = t.fichas(1);
+        long a = t.fichas(-1);
+        if (Long.bitCount(r ^ rojas) + Long.bitCount(a ^ azules) > MAX_CAMBIOS) {
+            recalcula(r, a);
+        } else {
+            actualiza(rojas & ~r, 0, -1);
+            actualiza(r & ~rojas, 0, 1);
+            actualiza(azules & ~a, 64, -1);
+            actualiza(a & ~azules, 64, 1);
+            rojas = r;
+            azules = a;
+        }
+
+        int[] mio = miColor == 1 ? acumRojas : acumAzules;
+        int[] suyo = miColor == 1 ? acumAzules : acumRojas;
+        long s = b2;
+        for (int j = 0; j < ocultas; j++) {
+            s += w2[j] * activacion(mio[j]) + w2[ocultas + j] * activacion(suyo[j]);
+        }
+        long v = s * ESCALA / (QA * QB);
+        return (int) Math.max(-LIMITE, Math.min(LIMITE, v));
+    }
+
+    private static int activacion(int x) {
+        return x < 0 ? 0 : (x > QA ? QA : x);
+    }
+
+    /**
+     * Suma o resta las fichas de un color en los dos acumuladores. Para
+     * las rojas la entrada es propia en el acumulador de rojas y del rival
+     * en el de azules; para las azules, al revés.
+     *
+     * @param fichas Fichas cambiadas
+     * @param rival  0 para fichas rojas, 64 para azules
+     * @param signo  1 al poner, -1 al quitar
+     */
+    private void actualiza(long fichas, int rival, int signo) {
+        while (fichas != 0) {
+            int bit = Long.numberOfTrailingZeros(fichas);
+            fichas &= fichas - 1;
+            int enRojas = (rival + bit) * ocultas;
+            int enAzules = (64 - rival + bit) * ocultas;
+            for (int j = 0; j < ocultas; j++) {
+                acumRojas[j] += signo * w1[enRojas + j];
+                acumAzules[j] += signo * w1[enAzules + j];
+            }
+        }
+    }
+
+    private void recalcula(long r, long a) {
+        for (int j = 0; j < ocultas; j++) {
+            acumRojas[j] = b1[j];
+            acumAzules[j] = b1[j];
+        }
+        rojas = 0;
+        azules = 0;
+        actualiza(r, 0, 1);
+        actualiza(a, 64, 1);
+        rojas = r;
+        azules = a;
+    }
+
+    /**
+     * Lee una red de un fichero
+     *
+     * @param fichero Fichero escrito por guarda()
+     * @return Red leída
+     * @throws IOException Si no se puede leer o no es una red válida
+     */
+    public static RedNeuronal lee(Path fichero) throws IOException {
+        byte[] bytes = Files.readAllBytes(fichero);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        if (bytes.length < 20 || buf.getInt(0) != MAGIA || buf.getInt(4) != VERSION) {
+            throw new IOException(fichero + " no es una red de la versión " + VERSION);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        if (crc.getValue() != buf.getLong(bytes.length - 8)) {
+            throw new IOException(fichero + ": CRC incorrecto");
+        }
+        buf.position(8);
+        int ocultas = buf.getInt();
+        if (ocultas <= 0 || bytes.length != 12 + 2 * (ENTRADAS * ocultas + 3 * ocultas) + 4 + 8) {
+            throw new IOException(fichero + ": tamaño incorrecto para " + ocultas + " neuronas ocultas");
+        }
+        short[] w1 = new short[ENTRADAS * ocultas];
+        short[] b1 = new short[ocultas];
+        short[] w2 = new short[2 * ocultas];
+        buf.asShortBuffer().get(w1);
+        buf.position(buf.position() + 2 * w1.length);
+        buf.asShortBuffer().get(b1);
+        buf.position(buf.position() + 2 * b1.length);
+        buf.asShortBuffer().get(w2);
+        buf.position(buf.position() + 2 * w2.length);
+        return new RedNeuronal(ocultas, w1, b1, w2, buf.getInt());
+    }
+
+    /**
+     * Escribe la red en un fichero
+     *
+     * @param destino Fichero destino
+     * @throws IOException Si no se puede escribir
+     */
+    public void guarda(Path destino) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIA);
+        out.writeInt(VERSION);
+        out.writeInt(ocultas);
+        for (short[] pesos : new short[][]{w1, b1, w2}) {
+            for (short w : pesos) {
+                out.writeShort(w);
+            }
+        }
+        out.writeInt(b2);
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+        Files.write(destino, bytes.toByteArray());
+    }
+}
@@ -0,0 +1,183 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lectura y escritura de partidas guardadas en texto.
+ * Cada línea es una partida con los campos separados por tabuladores:
+ * mida, jugador 1, jugador 2, resultado (1, -1, 0 o ?), las jugadas y,
+ * opcionalmente, la semilla de la partida (ver Enfrentamiento.siembra).
+ * Cada jugada es la columna o bien columna:valor:profundidad:nodos:ms
+ * cuando el jugador ha dejado estadísticas. Las líneas con # se ignoran.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class RegistroPartidas {
+
+    /** Resultado de una partida sin terminar */
+    public static final int PENDIENTE = 2;
+
+    /**
+     * Una jugada de la partida con las estadísticas opcionales del motor
+     */
+    public static class Jugada {
+        public int columna;
+        public boolean anotada;
+        public int valor;
+        public int profundidad;
+        public long nodos;
+        public long tiempoMs;
+
+        public Jugada(int columna) {
+            this.columna = columna;
+        }
+
+        public Jugada(int columna, int valor, int profundidad, long nodos, long tiempoMs) {
+            this.columna = columna;
+            this.anotada = true;
+            this.valor = valor;
+            this.profundidad = profundidad;
+            this.nodos = nodos;
+            this.tiempoMs = tiempoMs;
+        }
+    }
+
+    /**
+     * Una partida completa. El jugador 1 juega con color 1 y empieza.
+     */
+    public static class Partida {
+        public int mida = 8;
+        public String jugador1 = "";
+        public String jugador2 = "";
+        public int resultado = PENDIENTE;
+        public final List<Jugada> jugadas = new ArrayList<>();
+        // Semilla de los jugadores aleatorios (0 = desconocida)
+        public long semilla;
+
+        /**
+         * @param ply Número de jugadas a reproducir
+         * @return Tablero tras las primeras ply jugadas
+         */
+        public Tauler tablero(int ply) {
+            Tauler t = new Tauler(mida);
+            int color = 1;
+            for (int i = 0; i < ply; i++) {
+                t.afegeix(jugadas.get(i).columna, color);
+                color = -color;
+            }
+            return t;
+        }
+    }
+
+    /**
+     * Convierte una partida en una línea de texto
+     *
+     * @param p Partida
+     * @return Línea sin salto final
+     */
+    public static String formatea(Partida p) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(p.mida).append('\t').append(limpia(p.jugador1)).append('\t').append(limpia(p.jugador2)).append('\t');
+        sb.append(p.resultado == PENDIENTE ? "?" : String.valueOf(p.resultado)).append('\t');
+        for (int i = 0; i < p.jugadas.size(); i++) {
+            Jugada j = p.jugadas.get(i);
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(j.columna);
+            if (j.anotada) {
+                sb.append(':').append(j.valor).append(':').append(j.profundidad)
+                        .append(':').append(j.nodos).append(':').append(j.tiempoMs);
+            }
+        }
+        if (p.semilla != 0) {
+            sb.append('\t').append(p.semilla);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Interpreta una línea de texto
+     *
+     * @param linea Línea de la partida
+     * @return Partida, o null si es un comentario o está vacía
+     */
+    public static Partida parsea(String linea) {
+        if (linea.isEmpty() || linea.charAt(0) == '#') {
+            return null;
+        }
+        String[] campos = linea.split("\t", -1);
+        if (campos.length < 5) {
+            throw new IllegalArgumentException("Partida mal formada: " + linea);
+        }
+        Partida p = new Partida();
+        p.mida = Integer.parseInt(campos[0]);
+        p.jugador1 = campos[1];
+        p.jugador2 = campos[2];
+        p.resultado = "?".equals(campos[3]) ? PENDIENTE : Integer.parseInt(campos[3]);
+        String jugadas = campos[4].trim();
+        if (!jugadas.isEmpty()) {
+            for (String tok : jugadas.split(" ")) {
+                String[] f = tok.split(":");
+                if (f.length == 5) {
+                    p.jugadas.add(new Jugada(Integer.parseInt(f[0]), Integer.parseInt(f[1]),
+                            Integer.parseInt(f[2]), Long.parseLong(f[3]), Long.parseLong(f[4])));
+                } else {
+                    p.jugadas.add(new Jugada(Integer.parseInt(f[0])));
+                }
+            }
+        }
+        if (campos.length > 5 && !campos[5].isEmpty()) {
+            p.semilla = Long.parseLong(campos[5].trim());
+        }
+        return p;
+    }
+
+    /**
+     * Lee todas las partidas de un fichero
+     *
+     * @param fichero Fichero de partidas
+     * @return Lista de partidas
+     * @throws IOException Si no se puede leer
+     */
+    public static List<Partida> lee(Path fichero) throws IOException {
+        List<Partida> partidas = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(fichero, StandardCharsets.UTF_8)) {
+            String linea;
+            while ((linea = in.readLine()) != null) {
+                Partida p = parsea(linea);
+                if (p != null) {
+                    partidas.add(p);
+                }
+            }
+        }
+        return partidas;
+    }
+
+    /**
+     * Añade una partida al final de un fichero
+     *
+     * @param fichero Fichero de partidas (se crea si no existe)
+     * @param p       Partida
+     * @throws IOException Si no se puede escribir
+     */
+    public static synchronized void anade(Path fichero, Partida p) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(fichero, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(formatea(p));
+            out.newLine();
+        }
+    }
+
+    private static String limpia(String nom) {
+        return nom.replace('\t', ' ');
+    }
+}
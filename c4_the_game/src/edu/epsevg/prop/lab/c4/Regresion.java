@@ -0,0 +1,390 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.SplittableRandom;
+
+/**
+ * Control de regresiones de fuerza y velocidad del motor, para ant regresion.
+ *
+ * Juega parejas de partidas con semilla fija (cada apertura al azar con los
+ * dos colores) contra Profe y contra el jugador del jar base, el último
+ * publicado, cargado con su propio cargador de clases en la misma máquina
+ * virtual. Después compara los nodos por segundo de los dos motores sobre
+ * las mismas posiciones, alternando las muestras.
+ *
+ * Cada comparación es un SPRT con alfa = beta = 5%: H0 es "sin regresión"
+ * y H1 "regresión" (la fuerza baja el margen de Elo, o los nodos por
+ * segundo caen la fracción indicada). Se para en cuanto se acepta una de
+ * las dos; si se acaban las partidas o las muestras sin decidir, no falla.
+ * La construcción falla si alguna comparación acepta H1. Cada ejecución
+ * escribe su informe en el directorio de informes.
+ *
+ * Propiedades (todas con valor por defecto en build.xml):
+ *   c4.regresion.jugador      Jugador candidato (FabricaJugadores)
+ *   c4.regresion.base         Jar base (si no existe, solo contra Profe)
+ *   c4.regresion.baseJugador  Especificación del jugador en el jar base
+ *   c4.regresion.profe        Rival de referencia
+ *   c4.regresion.eloProfe     Elo esperado del candidato contra Profe
+ *   c4.regresion.margen       Pérdida de Elo que se considera regresión
+ *   c4.regresion.caida        Caída de nodos por segundo que lo es (0.10)
+ *   c4.regresion.parejas      Máximo de parejas de partidas por rival
+ *   c4.regresion.aperturas    Jugadas al azar al principio de cada partida
+ *   c4.regresion.informes     Directorio de los informes
+ *   c4.semilla                Semilla de las aperturas y las posiciones
+ *
+ * Uso: Regresion
+ *
+ * @author Alex Aranda Salinas
+ */
+public class Regresion {
+
+    // Errores de tipo I y II de cada SPRT
+    static final double ALFA = 0.05;
+    static final double BETA = 0.05;
+    static final double COTA_H0 = Math.log(BETA / (1 - ALFA));
+    static final double COTA_H1 = Math.log((1 - BETA) / ALFA);
+
+    // Micro-ejecución de nodos por segundo
+    private static final int POSICIONES = 24;
+    private static final int PROFUNDIDAD_NPS = 8;
+    private static final int MUESTRAS_CALENTAMIENTO = 2;
+    private static final int MUESTRAS_MIN = 3;
+    private static final int MUESTRAS_MAX = 20;
+    // Desviación mínima del logaritmo de la razón entre muestras
+    private static final double DESVIACION_MIN = 0.01;
+
+    /** Decisión de un SPRT */
+    static final int SIN_DECIDIR = 0;
+    static final int SIN_REGRESION = 1;
+    static final int REGRESION = 2;
+
+    private static final String[] DECISIONES = {"sin decidir", "sin regresión (H0)", "REGRESIÓN (H1)"};
+
+    /**
+     * Carga primero del jar base las clases que contiene; el resto (las de
+     * libc4_obfs: Jugador, Tauler, Profe) las comparte con el candidato,
+     * así que el jugador base se usa como cualquier Jugador
+     */
+    static class CargadorBase extends URLClassLoader {
+
+        CargadorBase(Path jar) throws IOException {
+            super(new URL[]{jar.toUri().toURL()}, Regresion.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String nombre, boolean resolver) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(nombre)) {
+                Class<?> c = findLoadedClass(nombre);
+                if (c == null && findResource(nombre.replace('.', '/') + ".class") != null) {
+                    c = findClass(nombre);
+                }
+                if (c == null) {
+                    return super.loadClass(nombre, resolver);
+                }
+                if (resolver) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+
+        /**
+         * @param especificacion Jugador para la FabricaJugadores del jar base
+         * @return Jugador creado con las clases del jar base
+         * @throws IllegalArgumentException Si el jar base no lo puede crear
+         */
+        Jugador crea(String especificacion) {
+            try {
+                Method crea = loadClass(FabricaJugadores.class.getName()).getMethod("crea", String.class);
+                return (Jugador) crea.invoke(null, especificacion);
+            } catch (InvocationTargetException e) {
+                throw new IllegalArgumentException("El jar base no crea '" + especificacion + "': "
+                        + e.getCause().getMessage());
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("El jar base no tiene FabricaJugadores: " + e);
+            }
+        }
+    }
+
+    /**
+     * @param elo Diferencia de Elo
+     * @return Puntuación esperada por partida
+     */
+    static double puntuacion(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /**
+     * @param puntos Puntuación media por partida
+     * @return Diferencia de Elo estimada (acotada a ±1000)
+     */
+    static double elo(double puntos) {
+        if (puntos <= 0 || puntos >= 1) {
+            return puntos <= 0 ? -1000 : 1000;
+        }
+        return Math.max(-1000, Math.min(1000, 400 * Math.log10(puntos / (1 - puntos))));
+    }
+
+    /**
+     * Logaritmo de la razón de verosimilitud de H1 (elo1) frente a H0 (elo0)
+     * con la aproximación normal del modelo de victorias, tablas y derrotas.
+     * Sin varianza (todo victorias, por ejemplo) se cuenta unas tablas más.
+     *
+     * @return LLR; mayor que COTA_H1 acepta H1, menor que COTA_H0 acepta H0
+     */
+    static double llrPartidas(int victorias, int tablas, int derrotas, double elo0, double elo1) {
+        double n = victorias + tablas + derrotas;
+        if (n == 0) {
+            return 0;
+        }
+        double media = (victorias + tablas / 2.0) / n;
+        double varianza = (victorias + tablas / 4.0) / n - media * media;
+        if (varianza <= 0) {
+            n++;
+            media = (victorias + (tablas + 1) / 2.0) / n;
+            varianza = (victorias + (tablas + 1) / 4.0) / n - media * media;
+        }
+        double s0 = puntuacion(elo0);
+        double s1 = puntuacion(elo1);
+        return n * (s1 - s0) * (2 * media - s0 - s1) / (2 * varianza);
+    }
+
+    /**
+     * LLR de muestras normales con media mu1 (H1) frente a 0 (H0), con la
+     * varianza estimada de las propias muestras
+     *
+     * @param suma      Suma de las muestras
+     * @param sumaCuad  Suma de sus cuadrados
+     * @param n         Número de muestras
+     * @param mu1       Media bajo H1
+     * @return LLR
+     */
+    static double llrNormal(double suma, double sumaCuad, int n, double mu1) {
+        if (n < 2) {
+            return 0;
+        }
+        double media = suma / n;
+        double varianza = Math.max((sumaCuad - n * media * media) / (n - 1), DESVIACION_MIN * DESVIACION_MIN);
+        return (mu1 * suma - n * mu1 * mu1 / 2) / varianza;
+    }
+
+    /**
+     * @return Decisión para un LLR
+     */
+    static int decide(double llr) {
+        return llr >= COTA_H1 ? REGRESION : llr <= COTA_H0 ? SIN_REGRESION : SIN_DECIDIR;
+    }
+
+    private final StringWriter texto = new StringWriter();
+    private final PrintWriter informe = new PrintWriter(texto);
+    private boolean falla;
+
+    private void linea(String s) {
+        System.out.println(s);
+        informe.println(s);
+    }
+
+    /**
+     * Parejas de partidas del candidato contra un rival hasta que el SPRT
+     * decide o se acaban las parejas
+     *
+     * @return Decisión del SPRT
+     */
+    int enfrenta(String titulo, Jugador candidato, Jugador rival, double elo0, double elo1, int parejas,
+                 int aperturas, long semilla) {
+        SplittableRandom r = new SplittableRandom(semilla);
+        int[] resultados = new int[3];
+        double llr = 0;
+        int decision = SIN_DECIDIR;
+        int n = 0;
+        while (n < parejas && decision == SIN_DECIDIR) {
+            long apertura = r.nextLong();
+            RegistroPartidas.Partida p = EntrenadorRed.juega(candidato, rival, aperturas, apertura);
+            resultados[p.resultado + 1]++;
+            p = EntrenadorRed.juega(rival, candidato, aperturas, apertura);
+            resultados[1 - p.resultado]++;
+            n++;
+            llr = llrPartidas(resultados[2], resultados[1], resultados[0], elo0, elo1);
+            decision = decide(llr);
+        }
+        int partidas = 2 * n;
+        double puntos = (resultados[2] + resultados[1] / 2.0) / partidas;
+        linea(String.format("%s: %d partidas, +%d =%d -%d (%.1f%%, Elo %+.0f)", titulo, partidas, resultados[2],
+                resultados[1], resultados[0], 100 * puntos, elo(puntos)));
+        linea(String.format("  SPRT Elo %+.0f contra %+.0f: LLR %.2f [%.2f, %.2f] -> %s", elo0, elo1, llr,
+                COTA_H0, COTA_H1, DECISIONES[decision]));
+        falla |= decision == REGRESION;
+        return decision;
+    }
+
+    /**
+     * Nodos por segundo del candidato frente al jugador base sobre las
+     * mismas posiciones, alternando qué motor empieza cada muestra
+     *
+     * @return Decisión del SPRT
+     */
+    int velocidad(Jugador candidato, Jugador base, double caida, long semilla) {
+        TaulerBits[] bits = Rendimiento.posicionesAleatorias(POSICIONES, semilla);
+        Tauler[] posiciones = new Tauler[bits.length];
+        int[] colores = new int[bits.length];
+        for (int i = 0; i < bits.length; i++) {
+            posiciones[i] = TaulerBits.descodifica(bits[i].codifica());
+            colores[i] = Rendimiento.colorQueMueve(bits[i]);
+        }
+        double mu1 = Math.log(1 - caida);
+        double suma = 0;
+        double sumaCuad = 0;
+        double npsCandidato = 0;
+        double npsBase = 0;
+        int n = 0;
+        double llr = 0;
+        int decision = SIN_DECIDIR;
+        for (int k = 0; k < MUESTRAS_CALENTAMIENTO + MUESTRAS_MAX && decision == SIN_DECIDIR; k++) {
+            double a;
+            double b;
+            if (k % 2 == 0) {
+                a = nps(candidato, posiciones, colores);
+                b = nps(base, posiciones, colores);
+            } else {
+                b = nps(base, posiciones, colores);
+                a = nps(candidato, posiciones, colores);
+            }
+            if (k < MUESTRAS_CALENTAMIENTO) {
+                continue;
+            }
+            double x = Math.log(a / b);
+            suma += x;
+            sumaCuad += x * x;
+            npsCandidato += a;
+            npsBase += b;
+            n++;
+            llr = llrNormal(suma, sumaCuad, n, mu1);
+            if (n >= MUESTRAS_MIN) {
+                decision = decide(llr);
+            }
+        }
+        linea(String.format("Nodos por segundo (%d posiciones, profundidad %d, %d muestras): candidato %.0f, base %.0f"
+                + " (%+.1f%%)", POSICIONES, PROFUNDIDAD_NPS, n, npsCandidato / n, npsBase / n,
+                100 * (Math.exp(suma / n) - 1)));
+        linea(String.format("  SPRT caída 0%% contra %.0f%%: LLR %.2f [%.2f, %.2f] -> %s", 100 * caida, llr,
+                COTA_H0, COTA_H1, DECISIONES[decision]));
+        falla |= decision == REGRESION;
+        return decision;
+    }
+
+    /**
+     * @return Nodos por segundo de un jugador sobre las posiciones
+     */
+    private static double nps(Jugador j, Tauler[] posiciones, int[] colores) {
+        long nodos = 0;
+        long inicio = System.nanoTime();
+        for (int i = 0; i < posiciones.length; i++) {
+            j.moviment(new Tauler(posiciones[i]), colores[i]);
+            nodos += nodos(j);
+        }
+        return nodos * 1e9 / Math.max(1, System.nanoTime() - inicio);
+    }
+
+    /**
+     * Nodos del último movimiento, también de un jugador del jar base (cuya
+     * IEstadisticas es otra clase)
+     */
+    static long nodos(Jugador j) {
+        if (j instanceof IEstadisticas) {
+            return ((IEstadisticas) j).getNodosExplorados();
+        }
+        try {
+            return (Long) j.getClass().getMethod("getNodosExplorados").invoke(j);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("El jugador no da sus nodos explorados: " + j.nom());
+        }
+    }
+
+    /**
+     * @return Especificación de profundidad fija para la medida de velocidad
+     */
+    private static String aProfundidad(String especificacion, int profundidad) {
+        String spec = especificacion.replaceAll("depth=\\d+", "depth=" + profundidad);
+        return spec.contains("depth=") ? spec : spec + (spec.contains(":") ? "," : ":") + "depth=" + profundidad;
+    }
+
+    /**
+     * Escribe el informe de la ejecución
+     *
+     * @return Fichero escrito
+     */
+    Path guarda(Path directorio) throws IOException {
+        informe.flush();
+        Files.createDirectories(directorio);
+        String marca = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        Path fichero = directorio.resolve("regresion-" + marca + ".txt");
+        Files.write(fichero, texto.toString().getBytes(StandardCharsets.UTF_8));
+        return fichero;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String jugador = System.getProperty("c4.regresion.jugador", "propi:depth=6,motor=bits,nodos=false");
+        String base = System.getProperty("c4.regresion.base", "");
+        String baseJugador = System.getProperty("c4.regresion.baseJugador", jugador);
+        String profe = System.getProperty("c4.regresion.profe", "profe:depth=4,h=2");
+        double eloProfe = Double.parseDouble(System.getProperty("c4.regresion.eloProfe", "300"));
+        double margen = Double.parseDouble(System.getProperty("c4.regresion.margen", "50"));
+        double caida = Double.parseDouble(System.getProperty("c4.regresion.caida", "0.10"));
+        int parejas = Integer.getInteger("c4.regresion.parejas", 100);
+        int aperturas = Integer.getInteger("c4.regresion.aperturas", 4);
+        Path informes = Paths.get(System.getProperty("c4.regresion.informes", "regresion"));
+        long semilla = Long.getLong("c4.semilla", 1);
+
+        Regresion r = new Regresion();
+        r.linea("Regresión " + new Date() + ", semilla " + semilla);
+        r.linea("Candidato: " + jugador);
+
+        Jugador candidato;
+        Jugador rival;
+        try {
+            candidato = FabricaJugadores.crea(jugador);
+            rival = FabricaJugadores.crea(profe);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        r.enfrenta("Contra " + profe, candidato, rival, eloProfe, eloProfe - margen, parejas, aperturas, semilla);
+
+        Path jar = base.isEmpty() ? null : Paths.get(base);
+        if (jar == null || !Files.isRegularFile(jar)) {
+            r.linea("Sin jar base" + (jar == null ? "" : " en " + jar) + " (ant regresion-base lo crea):"
+                    + " no se compara con la versión anterior");
+        } else {
+            r.linea("Base: " + jar + " (" + new Date(Files.getLastModifiedTime(jar).toMillis()) + "), " + baseJugador);
+            try (CargadorBase cargador = new CargadorBase(jar)) {
+                r.enfrenta("Contra la base", candidato, cargador.crea(baseJugador), 0, -margen, parejas, aperturas,
+                        semilla);
+                r.velocidad(FabricaJugadores.crea(aProfundidad(jugador, PROFUNDIDAD_NPS)),
+                        cargador.crea(aProfundidad(baseJugador, PROFUNDIDAD_NPS)), caida, semilla);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(2);
+                return;
+            }
+        }
+
+        r.linea(r.falla ? "RESULTADO: REGRESIÓN" : "RESULTADO: sin regresiones");
+        System.out.println("Informe: " + r.guarda(informes));
+        if (r.falla) {
+            System.exit(1);
+        }
+    }
+}
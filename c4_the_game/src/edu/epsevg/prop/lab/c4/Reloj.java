@@ -0,0 +1,113 @@
+package edu.epsevg.prop.lab.c4;
+
+/**
+ * Reloj de una partida: cada jugador tiene un tiempo para toda la partida
+ * y, opcionalmente, un incremento que se le suma después de cada jugada.
+ * Sin incremento es muerte súbita.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class Reloj {
+
+    private final long baseMs;
+    private final long incrementoMs;
+    // Tiempo restante del color 1 y del color -1
+    private final long[] restante = new long[2];
+
+    /**
+     * @param baseMs       Tiempo de cada jugador para toda la partida
+     * @param incrementoMs Tiempo sumado después de cada jugada
+     */
+    public Reloj(long baseMs, long incrementoMs) {
+        if (baseMs <= 0 || incrementoMs < 0) {
+            throw new IllegalArgumentException("Reloj no válido: " + baseMs + "+" + incrementoMs);
+        }
+        this.baseMs = baseMs;
+        this.incrementoMs = incrementoMs;
+        reinicia();
+    }
+
+    /**
+     * Interpreta un reloj como "60s", "2m+1s" o "5000+100" (sin unidad, ms)
+     *
+     * @param texto Tiempo base y, tras un +, el incremento
+     * @return Reloj nuevo
+     * @throws IllegalArgumentException Si el texto no es un reloj
+     */
+    public static Reloj parsea(String texto) {
+        int mas = texto.indexOf('+');
+        try {
+            long base = milisegundos(mas < 0 ? texto : texto.substring(0, mas));
+            long incremento = mas < 0 ? 0 : milisegundos(texto.substring(mas + 1));
+            return new Reloj(base, incremento);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Reloj no válido: " + texto);
+        }
+    }
+
+    /**
+     * @param texto Tiempo como "500", "500ms", "2s" o "1m"
+     * @return Milisegundos
+     * @throws NumberFormatException Si el texto no es un tiempo
+     */
+    static long milisegundos(String texto) {
+        String s = texto.trim().toLowerCase();
+        long factor = 1;
+        if (s.endsWith("ms")) {
+            s = s.substring(0, s.length() - 2);
+        } else if (s.endsWith("s")) {
+            s = s.substring(0, s.length() - 1);
+            factor = 1000;
+        } else if (s.endsWith("m")) {
+            s = s.substring(0, s.length() - 1);
+            factor = 60000;
+        }
+        return Long.parseLong(s.trim()) * factor;
+    }
+
+    /**
+     * Vuelve a dar el tiempo base a los dos jugadores (partida nueva)
+     */
+    public final void reinicia() {
+        restante[0] = baseMs;
+        restante[1] = baseMs;
+    }
+
+    /**
+     * Descuenta el tiempo de una jugada y suma el incremento
+     *
+     * @param color Color que ha jugado
+     * @param ms    Tiempo que ha tardado
+     * @return false si se ha pasado de tiempo (y pierde la partida)
+     */
+    public boolean descuenta(int color, long ms) {
+        int i = color == 1 ? 0 : 1;
+        restante[i] -= ms;
+        if (restante[i] < 0) {
+            return false;
+        }
+        restante[i] += incrementoMs;
+        return true;
+    }
+
+    /**
+     * @param color Color del jugador
+     * @return Tiempo que le queda (negativo si se ha pasado)
+     */
+    public long getRestante(int color) {
+        return restante[color == 1 ? 0 : 1];
+    }
+
+    public long getBase() {
+        return baseMs;
+    }
+
+    public long getIncremento() {
+        return incrementoMs;
+    }
+
+    @Override
+    public String toString() {
+        return baseMs + "ms+" + incrementoMs + "ms";
+    }
+}
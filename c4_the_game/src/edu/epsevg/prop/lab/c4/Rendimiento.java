@@ -0,0 +1,390 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Medidas de rendimiento de los componentes del motor.
+ * Cada medida se repite varias rondas y se informa la última, cuando el
+ * JIT ya ha compilado el código.
+ *
+ * Uso: Rendimiento [evaluacion|red|poda|multipv|partidas] [posiciones o partidas] [fichero de la red | profundidad]
+ *
+ * @author Alex Aranda Salinas
+ */
+public class Rendimiento {
+
+    private static final int RONDAS = 5;
+
+    // Evita que el JIT elimine los cálculos medidos
+    static volatile long sumidero;
+
+    /**
+     * Genera posiciones no terminales jugando al azar
+     *
+     * @param n       Número de posiciones
+     * @param semilla Semilla del generador
+     * @return Posiciones de tamaño 8 con su color a mover en getJugadas()
+     */
+    static TaulerBits[] posicionesAleatorias(int n, long semilla) {
+        Random r = new Random(semilla);
+        TaulerBits[] posiciones = new TaulerBits[n];
+        int i = 0;
+        while (i < n) {
+            TaulerBits t = new TaulerBits(8);
+            int objetivo = r.nextInt(40);
+            int color = 1;
+            boolean terminal = false;
+            while (t.getJugadas() < objetivo && !terminal) {
+                int col = r.nextInt(8);
+                if (!t.movpossible(col)) {
+                    continue;
+                }
+                t.afegeix(col, color);
+                terminal = t.solucio(col, color);
+                color = -color;
+            }
+            if (!terminal) {
+                posiciones[i++] = t;
+            }
+        }
+        return posiciones;
+    }
+
+    /**
+     * @param t Posición
+     * @return Color que mueve (empieza el color 1)
+     */
+    static int colorQueMueve(TaulerBits t) {
+        return t.getJugadas() % 2 == 0 ? 1 : -1;
+    }
+
+    /**
+     * Compara la evaluación hoja a hoja de Heuristica con la evaluación
+     * por lotes de HeuristicaBits sobre los hijos de cada posición
+     *
+     * @param n Número de posiciones
+     */
+    public static void evaluacion(int n) {
+        TaulerBits[] posiciones = posicionesAleatorias(n, 1);
+        Heuristica heuristica = new Heuristica();
+        HeuristicaBits bits = new HeuristicaBits();
+        int[] columnas = new int[8];
+        int[] salida = new int[8];
+
+        // Comprobar que ambas evaluaciones coinciden
+        int diferencias = 0;
+        for (TaulerBits t : posiciones) {
+            int color = colorQueMueve(t);
+            int k = legales(t, columnas);
+            bits.evaluaLote(t, color, color, columnas, k, salida);
+            for (int i = 0; i < k; i++) {
+                t.afegeix(columnas[i], color);
+                if (!t.solucio(columnas[i], color) && t.espotmoure() && heuristica.h(t, color) != salida[i]) {
+                    diferencias++;
+                }
+                t.treu(columnas[i]);
+            }
+        }
+        System.out.println("Evaluaciones distintas: " + diferencias);
+
+        double porHoja = 0;
+        double porLote = 0;
+        long suma = 0;
+        for (int ronda = 0; ronda < RONDAS; ronda++) {
+            long evals = 0;
+            long inicio = System.nanoTime();
+            for (TaulerBits t : posiciones) {
+                int color = colorQueMueve(t);
+                int k = legales(t, columnas);
+                for (int i = 0; i < k; i++) {
+                    t.afegeix(columnas[i], color);
+                    suma += heuristica.h(t, color);
+                    t.treu(columnas[i]);
+                }
+                evals += k;
+            }
+            porHoja = evals / ((System.nanoTime() - inicio) / 1e9);
+
+            evals = 0;
+            inicio = System.nanoTime();
+            for (TaulerBits t : posiciones) {
+                int color = colorQueMueve(t);
+                int k = legales(t, columnas);
+                bits.evaluaLote(t, color, color, columnas, k, salida);
+                suma += salida[0];
+                evals += k;
+            }
+            porLote = evals / ((System.nanoTime() - inicio) / 1e9);
+        }
+        System.out.printf("Heuristica hoja a hoja: %,.0f evaluaciones/s%n", porHoja);
+        System.out.printf("HeuristicaBits por lotes: %,.0f evaluaciones/s (x%.1f)%n", porLote, porLote / porHoja);
+        sumidero = suma;
+    }
+
+    /**
+     * Compara Heuristica con RedNeuronal sobre las hojas a dos plies de
+     * cada posición, recorridas en profundidad como en la búsqueda (la red
+     * actualiza sus acumuladores con las fichas cambiadas), y la red
+     * evaluando posiciones sueltas (recalcula los acumuladores enteros)
+     *
+     * @param n   Número de posiciones
+     * @param red Red a medir
+     */
+    public static void red(int n, RedNeuronal red) {
+        TaulerBits[] posiciones = posicionesAleatorias(n, 1);
+        Evaluador heuristica = new Heuristica();
+
+        // La red incremental debe dar lo mismo que una red recién creada
+        int diferencias = 0;
+        int[] columnas = new int[8];
+        int[] columnas2 = new int[8];
+        for (TaulerBits t : posiciones) {
+            int color = colorQueMueve(t);
+            int k = legales(t, columnas);
+            for (int i = 0; i < k; i++) {
+                t.afegeix(columnas[i], color);
+                int k2 = legales(t, columnas2);
+                for (int i2 = 0; i2 < k2; i2++) {
+                    t.afegeix(columnas2[i2], -color);
+                    if (red.h(t, color) != red.copia().h(t, color)) {
+                        diferencias++;
+                    }
+                    t.treu(columnas2[i2]);
+                }
+                t.treu(columnas[i]);
+            }
+        }
+        System.out.println("Evaluaciones incrementales distintas: " + diferencias);
+
+        Evaluador[] evaluadores = {heuristica, red};
+        double[] porHoja = new double[2];
+        double sueltas = 0;
+        long suma = 0;
+        for (int ronda = 0; ronda < RONDAS; ronda++) {
+            for (int e = 0; e < evaluadores.length; e++) {
+                Evaluador ev = evaluadores[e];
+                long evals = 0;
+                long inicio = System.nanoTime();
+                for (TaulerBits t : posiciones) {
+                    int color = colorQueMueve(t);
+                    int k = legales(t, columnas);
+                    for (int i = 0; i < k; i++) {
+                        t.afegeix(columnas[i], color);
+                        int k2 = legales(t, columnas2);
+                        for (int i2 = 0; i2 < k2; i2++) {
+                            t.afegeix(columnas2[i2], -color);
+                            suma += ev.h(t, color);
+                            t.treu(columnas2[i2]);
+                        }
+                        evals += k2;
+                        t.treu(columnas[i]);
+                    }
+                }
+                porHoja[e] = evals / ((System.nanoTime() - inicio) / 1e9);
+            }
+
+            long inicio = System.nanoTime();
+            for (TaulerBits t : posiciones) {
+                suma += red.h(t, colorQueMueve(t));
+            }
+            sueltas = posiciones.length / ((System.nanoTime() - inicio) / 1e9);
+        }
+        System.out.printf("Heuristica: %,.0f evaluaciones/s%n", porHoja[0]);
+        System.out.printf("RedNeuronal (%d ocultas) incremental: %,.0f evaluaciones/s (x%.2f)%n",
+                red.getOcultas(), porHoja[1], porHoja[1] / porHoja[0]);
+        System.out.printf("RedNeuronal en posiciones sueltas: %,.0f evaluaciones/s%n", sueltas);
+        sumidero = suma;
+    }
+
+    /**
+     * Compara la búsqueda sin asignaciones con y sin la poda por resultados
+     * demostrados, profundidad a profundidad, sobre las mismas posiciones.
+     * Cada profundidad empieza con tablas de resultados vacías.
+     *
+     * @param n              Número de posiciones
+     * @param profundidadMax Última profundidad medida
+     */
+    public static void poda(int n, int profundidadMax) {
+        TaulerBits[] posiciones = posicionesAleatorias(n, 1);
+        Tauler[] tableros = new Tauler[n];
+        for (int i = 0; i < n; i++) {
+            tableros[i] = TaulerBits.descodifica(posiciones[i].codifica());
+        }
+        System.out.println("prof       hojas sin       hojas con  reduccion  cortes cota  cortes hijos  ms sin  ms con  distintas");
+        long totalSin = 0;
+        long totalCon = 0;
+        for (int d = 1; d <= profundidadMax; d++) {
+            BusquedaBits sin = new BusquedaBits(new Heuristica());
+            sin.setEvaluacionLote(true);
+            BusquedaBits con = new BusquedaBits(new Heuristica());
+            con.setEvaluacionLote(true);
+            con.setPodaDemostrada(true);
+            long hojasSin = 0;
+            long hojasCon = 0;
+            long cortesCota = 0;
+            long cortesHijos = 0;
+            long nanosSin = 0;
+            long nanosCon = 0;
+            int distintas = 0;
+            for (int i = 0; i < n; i++) {
+                int color = colorQueMueve(posiciones[i]);
+                long inicio = System.nanoTime();
+                int colSin = sin.busca(tableros[i], color, d);
+                nanosSin += System.nanoTime() - inicio;
+                inicio = System.nanoTime();
+                int colCon = con.busca(tableros[i], color, d);
+                nanosCon += System.nanoTime() - inicio;
+                hojasSin += sin.getNodos();
+                hojasCon += con.getNodos();
+                cortesCota += con.getCortesCota();
+                cortesHijos += con.getCortesHijos();
+                if (colSin != colCon || sin.getValorRaiz() != con.getValorRaiz()) {
+                    distintas++;
+                }
+            }
+            totalSin += hojasSin;
+            totalCon += hojasCon;
+            System.out.printf("%4d  %14d  %14d  %8.1f%%  %11d  %12d  %6d  %6d  %9d%n", d, hojasSin, hojasCon,
+                    100.0 * (hojasSin - hojasCon) / Math.max(1, hojasSin), cortesCota, cortesHijos,
+                    nanosSin / 1000000, nanosCon / 1000000, distintas);
+        }
+        System.out.printf("total %13d  %14d  %8.1f%%%n", totalSin, totalCon,
+                100.0 * (totalSin - totalCon) / Math.max(1, totalSin));
+    }
+
+    /**
+     * Coste del análisis de k líneas frente a k búsquedas completas de la
+     * raíz (lo que cuesta sacar cada línea con una búsqueda aparte), sobre
+     * las mismas posiciones
+     *
+     * @param n           Número de posiciones
+     * @param profundidad Profundidad de las búsquedas
+     */
+    public static void multipv(int n, int profundidad) {
+        TaulerBits[] posiciones = posicionesAleatorias(n, 1);
+        Tauler[] tableros = new Tauler[n];
+        for (int i = 0; i < n; i++) {
+            tableros[i] = TaulerBits.descodifica(posiciones[i].codifica());
+        }
+        BusquedaBits b = new BusquedaBits(new Heuristica());
+        b.setEvaluacionLote(true);
+        b.setPodaDemostrada(true);
+        long hojasBusca = 0;
+        long nanosBusca = 0;
+        for (int i = 0; i < n; i++) {
+            long inicio = System.nanoTime();
+            b.busca(tableros[i], colorQueMueve(posiciones[i]), profundidad);
+            nanosBusca += System.nanoTime() - inicio;
+            hojasBusca += b.getNodos();
+        }
+        System.out.printf("Una búsqueda: %d hojas, %d ms%n", hojasBusca, nanosBusca / 1000000);
+        System.out.println("lineas  hojas analisis  ms analisis  hojas k busquedas  ms k busquedas  coste");
+        for (int k = 1; k <= TaulerBits.MIDA_MAX; k++) {
+            BusquedaBits a = new BusquedaBits(new Heuristica());
+            a.setEvaluacionLote(true);
+            a.setPodaDemostrada(true);
+            long hojas = 0;
+            long nanos = 0;
+            for (int i = 0; i < n; i++) {
+                long inicio = System.nanoTime();
+                a.analiza(tableros[i], colorQueMueve(posiciones[i]), profundidad, k);
+                nanos += System.nanoTime() - inicio;
+                hojas += a.getNodos();
+            }
+            System.out.printf("%6d  %14d  %11d  %17d  %14d  %4.0f%%%n", k, hojas, nanos / 1000000, k * hojasBusca,
+                    k * nanosBusca / 1000000, 100.0 * nanos / Math.max(1, k * nanosBusca));
+        }
+    }
+
+    /**
+     * Partidas por segundo entre dos Aleatori con 1, 2, 4... hilos hasta el
+     * número de procesadores. Cada partida tiene su semilla y cada jugador
+     * su generador, así que los hilos no comparten nada.
+     *
+     * @param n Partidas por hilo
+     */
+    public static void partidas(int n) throws Exception {
+        int procesadores = Runtime.getRuntime().availableProcessors();
+        double base = 0;
+        int hilos = 1;
+        while (true) {
+            double porSegundo = 0;
+            for (int ronda = 0; ronda < RONDAS; ronda++) {
+                ExecutorService pool = Executors.newFixedThreadPool(hilos);
+                Future<?>[] tareas = new Future<?>[hilos];
+                long inicio = System.nanoTime();
+                for (int h = 0; h < hilos; h++) {
+                    final long semilla = (long) h * n;
+                    tareas[h] = pool.submit(() -> {
+                        Aleatori a = new Aleatori();
+                        Aleatori b = new Aleatori();
+                        long jugadas = 0;
+                        for (int i = 0; i < n; i++) {
+                            jugadas += Enfrentamiento.juega(a, b, 8, Enfrentamiento.NINGUNO, null, semilla + i)
+                                    .jugadas.size();
+                        }
+                        return jugadas;
+                    });
+                }
+                long suma = 0;
+                for (Future<?> f : tareas) {
+                    suma += (Long) f.get();
+                }
+                porSegundo = (double) hilos * n / ((System.nanoTime() - inicio) / 1e9);
+                pool.shutdown();
+                sumidero = suma;
+            }
+            if (hilos == 1) {
+                base = porSegundo;
+            }
+            System.out.printf("%d hilos: %,.0f partidas/s (x%.2f)%n", hilos, porSegundo, porSegundo / base);
+            if (hilos == procesadores) {
+                break;
+            }
+            hilos = Math.min(procesadores, 2 * hilos);
+        }
+    }
+
+    private static int legales(TaulerBits t, int[] columnas) {
+        int k = 0;
+        for (int col = 0; col < t.getMida(); col++) {
+            if (t.movpossible(col)) {
+                columnas[k++] = col;
+            }
+        }
+        return k;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String medida = args.length > 0 ? args[0] : "evaluacion";
+        int n = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        switch (medida) {
+            case "evaluacion":
+                evaluacion(n);
+                break;
+            case "red":
+                if (args.length < 3) {
+                    System.err.println("Uso: Rendimiento red <posiciones> <fichero de la red>");
+                    System.exit(2);
+                }
+                red(n, RedNeuronal.lee(Paths.get(args[2])));
+                break;
+            case "multipv":
+                multipv(args.length > 1 ? n : 100, args.length > 2 ? Integer.parseInt(args[2]) : 8);
+                break;
+            case "partidas":
+                partidas(n);
+                break;
+            case "poda":
+                poda(args.length > 1 ? n : 300, args.length > 2 ? Integer.parseInt(args[2]) : 9);
+                break;
+            default:
+                System.err.println("Medida desconocida: " + medida);
+                System.exit(2);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Instantánea binaria de las tablas estáticas del motor (ventanas de
+ * TaulerBits y máscaras de HeuristicaBits).
+ *
+ * Con -Dc4.tablas=fichero las clases toman sus tablas del fichero, que se
+ * abre proyectado en memoria, en lugar de calcularlas al cargarse. Si el
+ * fichero no existe, es de otra versión o su CRC no cuadra, se avisa y se
+ * calculan como siempre. Hay que subir VERSION cuando cambie el contenido
+ * de alguna tabla.
+ *
+ * Formato: magia, versión, número de tablas, y por cada tabla su nombre y
+ * su número de longs; después los datos de todas las tablas seguidos y al
+ * final el CRC32 de todo lo anterior.
+ *
+ * Uso: Tablas fichero (genera la instantánea; ejecutar sin -Dc4.tablas)
+ *
+ * @author Alex Aranda Salinas
+ */
+public final class Tablas {
+
+    private static final int MAGIA = 0x43345442;
+    static final int VERSION = 1;
+
+    // Tablas de la instantánea cargada (vistas sobre el fichero proyectado)
+    private static final Map<String, LongBuffer> cargadas = abre(System.getProperty("c4.tablas"));
+
+    private Tablas() {
+    }
+
+    /**
+     * @return true si las tablas vienen de una instantánea
+     */
+    public static boolean enUso() {
+        return !cargadas.isEmpty();
+    }
+
+    /**
+     * Lee una tabla de la instantánea
+     *
+     * @param nombre Nombre de la tabla
+     * @return Copia de la tabla o null si no hay instantánea o no la contiene
+     */
+    static long[] lee(String nombre) {
+        LongBuffer b = cargadas.get(nombre);
+        if (b == null) {
+            return null;
+        }
+        long[] datos = new long[b.remaining()];
+        b.duplicate().get(datos);
+        return datos;
+    }
+
+    private static Map<String, LongBuffer> abre(String fichero) {
+        Map<String, LongBuffer> tablas = new HashMap<>();
+        if (fichero == null) {
+            return tablas;
+        }
+        try (FileChannel canal = FileChannel.open(Paths.get(fichero), StandardOpenOption.READ)) {
+            ByteBuffer buf = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (buf.limit() < 16 || buf.getInt(0) != MAGIA || buf.getInt(4) != VERSION) {
+                throw new IOException("no es una instantánea de la versión " + VERSION);
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer contenido = buf.duplicate();
+            contenido.limit(buf.limit() - 8);
+            crc.update(contenido);
+            if (crc.getValue() != buf.getLong(buf.limit() - 8)) {
+                throw new IOException("CRC incorrecto");
+            }
+
+            buf.position(8);
+            int n = buf.getInt();
+            String[] nombres = new String[n];
+            int[] longitudes = new int[n];
+            for (int i = 0; i < n; i++) {
+                byte[] nombre = new byte[buf.getShort()];
+                buf.get(nombre);
+                nombres[i] = new String(nombre, StandardCharsets.UTF_8);
+                longitudes[i] = buf.getInt();
+            }
+            int pos = buf.position();
+            for (int i = 0; i < n; i++) {
+                ByteBuffer datos = buf.duplicate();
+                datos.position(pos).limit(pos + longitudes[i] * 8);
+                tablas.put(nombres[i], datos.slice().asLongBuffer());
+                pos += longitudes[i] * 8;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("No se usa la instantánea de tablas " + fichero + ": " + e.getMessage());
+            tablas.clear();
+        }
+        return tablas;
+    }
+
+    /**
+     * Escribe la instantánea con las tablas actuales
+     *
+     * @param destino Fichero destino
+     * @throws IOException Si no se puede escribir
+     */
+    public static void guarda(Path destino) throws IOException {
+        Map<String, long[]> tablas = new TreeMap<>();
+        TaulerBits.exportaTablas(tablas);
+        HeuristicaBits.exportaTablas(tablas);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIA);
+        out.writeInt(VERSION);
+        out.writeInt(tablas.size());
+        for (Map.Entry<String, long[]> e : tablas.entrySet()) {
+            byte[] nombre = e.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeShort(nombre.length);
+            out.write(nombre);
+            out.writeInt(e.getValue().length);
+        }
+        for (long[] t : tablas.values()) {
+            for (long v : t) {
+                out.writeLong(v);
+            }
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.flush();
+        Files.write(destino, bytes.toByteArray());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Uso: Tablas <fichero>");
+            System.exit(2);
+        }
+        if (enUso()) {
+            System.err.println("Genera la instantánea sin -Dc4.tablas");
+            System.exit(2);
+        }
+        guarda(Paths.get(args[0]));
+        System.out.println("Tablas guardadas en " + args[0] + " (" + Files.size(Paths.get(args[0])) + " bytes)");
+    }
+}
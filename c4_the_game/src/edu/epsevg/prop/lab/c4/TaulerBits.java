@@ -0,0 +1,406 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Representación compacta del tablero con dos máscaras de bits.
+ * La casilla (fila, col) ocupa el bit col * 8 + fila, de modo que cada
+ * columna ocupa un byte y la fila 0 es la inferior (igual que Tauler).
+ * Soporta tableros de hasta 8x8.
+ *
+ * @author Alex Aranda Salinas
+ */
+public class TaulerBits {
+
+    /** Tamaño máximo representable en 64 bits */
+    public static final int MIDA_MAX = 8;
+
+    /** Ventanas de 4 casillas en línea de cada mida: VENTANAS[mida] */
+    private static final long[][] VENTANAS = new long[MIDA_MAX + 1][];
+
+    /** Ventanas que contienen cada casilla: VENTANAS_CASILLA[mida][bit] */
+    private static final long[][][] VENTANAS_CASILLA = new long[MIDA_MAX + 1][64][];
+
+    /** Sentidos {fila, col} en los que Tauler empieza a contar cada línea */
+    private static final int[][] DIRECCIONES_TAULER = {{-1, 0}, {0, -1}, {-1, -1}, {-1, 1}};
+
+    static {
+        for (int m = 1; m <= MIDA_MAX; m++) {
+            long[] ventanas = Tablas.lee("ventanas" + m);
+            long[] porCasilla = Tablas.lee("ventanasCasilla" + m);
+            if (ventanas != null && porCasilla != null) {
+                VENTANAS[m] = ventanas;
+                desempaqueta(porCasilla, VENTANAS_CASILLA[m]);
+                continue;
+            }
+            VENTANAS[m] = generaVentanas(m);
+            for (int b = 0; b < 64; b++) {
+                int n = 0;
+                for (long v : VENTANAS[m]) {
+                    if ((v >>> b & 1) != 0) {
+                        n++;
+                    }
+                }
+                long[] propias = new long[n];
+                n = 0;
+                for (long v : VENTANAS[m]) {
+                    if ((v >>> b & 1) != 0) {
+                        propias[n++] = v;
+                    }
+                }
+                VENTANAS_CASILLA[m][b] = propias;
+            }
+        }
+    }
+
+    private final int mida;
+    private final int[] altura;
+    private long rojas;
+    private long azules;
+    private int jugadas;
+
+    /**
+     * Crea un tablero vacío
+     *
+     * @param mida Tamaño del tablero (como máximo MIDA_MAX)
+     */
+    public TaulerBits(int mida) {
+        if (mida < 1 || mida > MIDA_MAX) {
+            throw new IllegalArgumentException("Mida no soportada: " + mida);
+        }
+        this.mida = mida;
+        this.altura = new int[mida];
+    }
+
+    /**
+     * Crea un tablero con el mismo contenido que un Tauler
+     *
+     * @param t Tablero de origen
+     */
+    public TaulerBits(Tauler t) {
+        this(t.getMida());
+        carga(t);
+    }
+
+    /**
+     * Copia el contenido de un Tauler sin reservar memoria
+     *
+     * @param t Tablero de origen (de la misma mida)
+     */
+    public void carga(Tauler t) {
+        rojas = 0;
+        azules = 0;
+        jugadas = 0;
+        for (int col = 0; col < mida; col++) {
+            int fila = 0;
+            while (fila < mida) {
+                int c = t.getColor(fila, col);
+                if (c == 0) {
+                    break;
+                }
+                if (c == 1) {
+                    rojas |= 1L << bit(fila, col);
+                } else {
+                    azules |= 1L << bit(fila, col);
+                }
+                fila++;
+            }
+            altura[col] = fila;
+            jugadas += fila;
+        }
+    }
+
+    /**
+     * Copia el contenido de otro TaulerBits sin reservar memoria
+     *
+     * @param otro Tablero de origen (de la misma mida)
+     */
+    public void copia(TaulerBits otro) {
+        rojas = otro.rojas;
+        azules = otro.azules;
+        jugadas = otro.jugadas;
+        System.arraycopy(otro.altura, 0, altura, 0, mida);
+    }
+
+    /**
+     * Carga una posición a partir de las máscaras de fichas
+     *
+     * @param rojas  Fichas de color 1 (como las de fichas(1))
+     * @param azules Fichas de color -1 (sin fichas flotando)
+     */
+    public void carga(long rojas, long azules) {
+        this.rojas = rojas;
+        this.azules = azules;
+        long ocupadas = rojas | azules;
+        jugadas = Long.bitCount(ocupadas);
+        for (int col = 0; col < mida; col++) {
+            altura[col] = Long.bitCount((ocupadas >>> (col << 3)) & 0xFF);
+        }
+    }
+
+    /**
+     * Posición del bit de una casilla
+     *
+     * @param fila Fila (0 = abajo)
+     * @param col  Columna
+     * @return Índice del bit
+     */
+    public static int bit(int fila, int col) {
+        return (col << 3) + fila;
+    }
+
+    /**
+     * @return Tamaño del tablero
+     */
+    public int getMida() {
+        return mida;
+    }
+
+    /**
+     * @param fila Fila
+     * @param col  Columna
+     * @return Color de la casilla (1, -1 o 0 si está vacía)
+     */
+    public int getColor(int fila, int col) {
+        long m = 1L << bit(fila, col);
+        if ((rojas & m) != 0) {
+            return 1;
+        }
+        return (azules & m) != 0 ? -1 : 0;
+    }
+
+    /**
+     * @param color Color (1 o -1)
+     * @return Máscara con las fichas de ese color
+     */
+    public long fichas(int color) {
+        return color == 1 ? rojas : azules;
+    }
+
+    /**
+     * @param col Columna
+     * @return Número de fichas de la columna
+     */
+    public int getAltura(int col) {
+        return altura[col];
+    }
+
+    /**
+     * @return Número total de fichas del tablero
+     */
+    public int getJugadas() {
+        return jugadas;
+    }
+
+    /**
+     * @param col Columna
+     * @return true si la columna admite otra ficha
+     */
+    public boolean movpossible(int col) {
+        return col >= 0 && col < mida && altura[col] < mida;
+    }
+
+    /**
+     * @return true si queda alguna casilla libre
+     */
+    public boolean espotmoure() {
+        return jugadas < mida * mida;
+    }
+
+    /**
+     * Añade una ficha en una columna
+     *
+     * @param col   Columna
+     * @param color Color de la ficha
+     */
+    public void afegeix(int col, int color) {
+        long m = 1L << bit(altura[col], col);
+        if (color == 1) {
+            rojas |= m;
+        } else {
+            azules |= m;
+        }
+        altura[col]++;
+        jugadas++;
+    }
+
+    /**
+     * Quita la ficha superior de una columna (deshace afegeix)
+     *
+     * @param col Columna
+     */
+    public void treu(int col) {
+        altura[col]--;
+        jugadas--;
+        long m = ~(1L << bit(altura[col], col));
+        rojas &= m;
+        azules &= m;
+    }
+
+    /**
+     * Comprueba si la ficha superior de una columna es del color indicado
+     * y forma cuatro en línea, con el mismo resultado que Tauler.solucio
+     *
+     * @param col   Columna
+     * @param color Color
+     * @return true si esa ficha da la victoria
+     */
+    public boolean solucio(int col, int color) {
+        if (altura[col] == 0) {
+            return false;
+        }
+        int b = bit(altura[col] - 1, col);
+        long propias = fichas(color);
+        if ((propias >>> b & 1) == 0) {
+            return lineaVecina(altura[col] - 1, col, propias);
+        }
+        for (long v : VENTANAS_CASILLA[mida][b]) {
+            if ((propias & v) == v) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tauler cuenta cada línea empezando por la casilla vecina a la ficha
+     * superior (abajo, a la izquierda o en diagonal hacia abajo), así que
+     * aunque esa ficha sea del otro color da por buena una línea de cuatro
+     * que empiece justo al lado. En una partida no ocurre, porque solucio
+     * se consulta tras poner la ficha propia, pero se reproduce para que
+     * los dos tableros coincidan siempre.
+     */
+    private boolean lineaVecina(int fila, int col, long propias) {
+        for (int[] d : DIRECCIONES_TAULER) {
+            int f = fila + d[0];
+            int c = col + d[1];
+            int n = 0;
+            while (n < 4 && f >= 0 && c >= 0 && c < mida && (propias >>> bit(f, c) & 1) != 0) {
+                n++;
+                f += d[0];
+                c += d[1];
+            }
+            if (n == 4) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Añade las tablas estáticas para la instantánea de Tablas. Las
+     * ventanas de cada casilla se guardan seguidas, cada grupo precedido
+     * por su número de ventanas.
+     *
+     * @param destino Tablas por nombre
+     */
+    static void exportaTablas(Map<String, long[]> destino) {
+        for (int m = 1; m <= MIDA_MAX; m++) {
+            destino.put("ventanas" + m, VENTANAS[m]);
+            int n = 0;
+            for (long[] v : VENTANAS_CASILLA[m]) {
+                n += 1 + v.length;
+            }
+            long[] empaquetadas = new long[n];
+            n = 0;
+            for (long[] v : VENTANAS_CASILLA[m]) {
+                empaquetadas[n++] = v.length;
+                System.arraycopy(v, 0, empaquetadas, n, v.length);
+                n += v.length;
+            }
+            destino.put("ventanasCasilla" + m, empaquetadas);
+        }
+    }
+
+    private static void desempaqueta(long[] empaquetadas, long[][] porCasilla) {
+        int n = 0;
+        for (int b = 0; b < porCasilla.length; b++) {
+            int k = (int) empaquetadas[n++];
+            porCasilla[b] = Arrays.copyOfRange(empaquetadas, n, n + k);
+            n += k;
+        }
+    }
+
+    /**
+     * @param mida Tamaño del tablero
+     * @return Todas las ventanas de 4 casillas en línea (no modificar)
+     */
+    public static long[] ventanas(int mida) {
+        return VENTANAS[mida];
+    }
+
+    private static long[] generaVentanas(int mida) {
+        long[] tmp = new long[4 * mida * mida];
+        int n = 0;
+        int[][] dirs = {{0, 1}, {1, 0}, {1, 1}, {-1, 1}};
+        for (int[] d : dirs) {
+            for (int fila = 0; fila < mida; fila++) {
+                for (int col = 0; col < mida; col++) {
+                    int f3 = fila + 3 * d[0];
+                    int c3 = col + 3 * d[1];
+                    if (f3 < 0 || f3 >= mida || c3 >= mida) {
+                        continue;
+                    }
+                    long v = 0;
+                    for (int i = 0; i < 4; i++) {
+                        v |= 1L << bit(fila + i * d[0], col + i * d[1]);
+                    }
+                    tmp[n++] = v;
+                }
+            }
+        }
+        long[] ventanas = new long[n];
+        System.arraycopy(tmp, 0, ventanas, 0, n);
+        return ventanas;
+    }
+
+    /**
+     * Hash de 64 bits de la posición (independiente del orden de jugadas)
+     *
+     * @return Hash de la posición
+     */
+    public long hash() {
+        long h = rojas * 0x9E3779B97F4A7C15L ^ Long.rotateLeft(azules * 0xC2B2AE3D27D4EB4FL, 31) ^ mida;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * Codifica la posición como texto: una cadena por columna (de abajo a
+     * arriba, X = color 1, O = color -1) separadas por '/'
+     *
+     * @return Texto de la posición
+     */
+    public String codifica() {
+        StringBuilder sb = new StringBuilder();
+        for (int col = 0; col < mida; col++) {
+            if (col > 0) {
+                sb.append('/');
+            }
+            for (int fila = 0; fila < altura[col]; fila++) {
+                sb.append(getColor(fila, col) == 1 ? 'X' : 'O');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reconstruye un Tauler a partir del texto de codifica()
+     *
+     * @param texto Posición codificada
+     * @return Tablero equivalente
+     */
+    public static Tauler descodifica(String texto) {
+        String[] columnas = texto.split("/", -1);
+        Tauler t = new Tauler(columnas.length);
+        for (int col = 0; col < columnas.length; col++) {
+            String s = columnas[col];
+            for (int i = 0; i < s.length(); i++) {
+                t.afegeix(col, s.charAt(i) == 'X' ? 1 : -1);
+            }
+        }
+        return t;
+    }
+}
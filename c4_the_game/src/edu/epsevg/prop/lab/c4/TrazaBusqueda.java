@@ -0,0 +1,338 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Traza del árbol recorrido por la búsqueda de un movimiento, en un fichero
+ * binario compacto que se lee en streaming y se explora con ExploradorTraza.
+ *
+ * El motor avisa al entrar en cada nodo (columna jugada, profundidad
+ * restante y ventana alfa-beta) y al salir (valor y motivo por el que
+ * terminó: hoja, corte, tabla de transposición...). Los valores y las
+ * ventanas se guardan siempre desde el punto de vista del color que mueve
+ * en la raíz, también en la búsqueda negamax. Con profundización iterativa
+ * cada iteración es una raíz más en el mismo fichero.
+ *
+ * Se graban como mucho maxNodos nodos por movimiento; los demás solo se
+ * cuentan. Los motores solo llaman a la traza si existe, así que sin traza
+ * la búsqueda no hace nada distinto.
+ *
+ * Se activa al arrancar con -Dc4.traza=directorio (y -Dc4.trazaNodos=N);
+ * cada movimiento se escribe en nom-id-movN.c4t.
+ *
+ * Formato (big endian): "C4TR", versión, mida, color de la raíz,
+ * profundidad y posición inicial (texto de TaulerBits.codifica) en la
+ * cabecera, y después los registros:
+ *   ENTRA columna(byte) profundidad(byte) alfa(int) beta(int)
+ *   SALE  motivo(byte) valor(int)
+ *   FIN   columna elegida(byte) nodos grabados(int) nodos omitidos(long)
+ *
+ * @author Alex Aranda Salinas
+ */
+public class TrazaBusqueda {
+
+    // Motivo por el que termina un nodo
+    public static final int RECORRIDO = 0;
+    public static final int CORTE = 1;
+    public static final int HOJA = 2;
+    public static final int VICTORIA = 3;
+    public static final int TABLAS = 4;
+    public static final int DISTANCIA = 5;
+    public static final int COTA = 6;
+    public static final int TRANSPOSICION = 7;
+    public static final int DEMOSTRADO = 8;
+    public static final int LOTE = 9;
+    public static final int EXTENSION = 10;
+    public static final int ABORTADA = 11;
+
+    static final String[] MOTIVOS = {
+        "recorrido", "corte", "hoja", "victoria", "tablas", "distancia", "cota", "transposicion",
+        "demostrado", "lote", "extension", "abortada"
+    };
+
+    private static final int MAGIA = 0x43345452;
+    private static final int VERSION = 1;
+    private static final byte FIN = 0;
+    private static final byte ENTRA = 1;
+    private static final byte SALE = 2;
+
+    /** Nodos grabados por movimiento si no se indica otra cosa */
+    public static final int MAX_NODOS = 1000000;
+
+    private static final AtomicInteger contador = new AtomicInteger();
+
+    private final String nom;
+    private final int id = contador.incrementAndGet();
+    private final Path directorio;
+    private final int maxNodos;
+    private int movimiento;
+
+    private byte[] buffer = new byte[1 << 16];
+    private int pos;
+    private int grabados;
+    private long omitidos;
+    // Nodos abiertos que no se han grabado (siempre los más profundos)
+    private int saltados;
+    private Path ultimo;
+
+    /**
+     * @param nom        Nombre del motor, usado en los ficheros
+     * @param directorio Directorio de las trazas
+     * @param maxNodos   Máximo de nodos grabados por movimiento
+     */
+    public TrazaBusqueda(String nom, Path directorio, int maxNodos) {
+        this.nom = nom;
+        this.directorio = directorio;
+        this.maxNodos = maxNodos;
+    }
+
+    /**
+     * @param nom Nombre del motor
+     * @return Traza configurada con -Dc4.traza, o null si no está activada
+     */
+    static TrazaBusqueda desdePropiedades(String nom) {
+        String dir = System.getProperty("c4.traza");
+        if (dir == null) {
+            return null;
+        }
+        return new TrazaBusqueda(nom, Paths.get(dir), Integer.getInteger("c4.trazaNodos", MAX_NODOS));
+    }
+
+    /**
+     * Empieza la traza de un movimiento
+     *
+     * @param t           Tablero de la raíz
+     * @param color       Color que mueve
+     * @param profundidad Profundidad pedida (la máxima, con reloj)
+     */
+    public void inicia(Tauler t, int color, int profundidad) {
+        pos = 0;
+        grabados = 0;
+        omitidos = 0;
+        saltados = 0;
+        escribeInt(MAGIA);
+        escribeByte(VERSION);
+        escribeByte(t.getMida());
+        escribeByte(color);
+        escribeInt(profundidad);
+        byte[] posicion = codifica(t).getBytes(StandardCharsets.UTF_8);
+        escribeInt(posicion.length);
+        asegura(posicion.length);
+        System.arraycopy(posicion, 0, buffer, pos, posicion.length);
+        pos += posicion.length;
+    }
+
+    /**
+     * Entra en un nodo
+     *
+     * @param columna     Columna jugada para llegar al nodo (-1 en la raíz)
+     * @param profundidad Profundidad restante
+     * @param alpha       Alfa para el color de la raíz
+     * @param beta        Beta para el color de la raíz
+     */
+    public void entra(int columna, int profundidad, int alpha, int beta) {
+        if (saltados > 0 || grabados >= maxNodos) {
+            saltados++;
+            omitidos++;
+            return;
+        }
+        grabados++;
+        asegura(11);
+        buffer[pos++] = ENTRA;
+        buffer[pos++] = (byte) columna;
+        buffer[pos++] = (byte) Math.min(profundidad, Byte.MAX_VALUE);
+        escribeInt(alpha);
+        escribeInt(beta);
+    }
+
+    /**
+     * Sale del último nodo en el que se ha entrado
+     *
+     * @param valor  Valor del nodo para el color de la raíz
+     * @param motivo Motivo por el que termina (RECORRIDO, CORTE, HOJA...)
+     */
+    public void sale(int valor, int motivo) {
+        if (saltados > 0) {
+            saltados--;
+            return;
+        }
+        asegura(6);
+        buffer[pos++] = SALE;
+        buffer[pos++] = (byte) motivo;
+        escribeInt(valor);
+    }
+
+    /**
+     * Termina el movimiento y escribe su fichero
+     *
+     * @param columna Columna elegida
+     * @return Fichero escrito, o null si no se ha podido escribir
+     */
+    public Path termina(int columna) {
+        asegura(14);
+        buffer[pos++] = FIN;
+        buffer[pos++] = (byte) columna;
+        escribeInt(grabados);
+        escribeInt((int) (omitidos >>> 32));
+        escribeInt((int) omitidos);
+        movimiento++;
+        ultimo = directorio.resolve(nom + "-" + id + "-mov" + movimiento + ".c4t");
+        try {
+            Files.createDirectories(directorio);
+            try (OutputStream out = Files.newOutputStream(ultimo)) {
+                out.write(buffer, 0, pos);
+            }
+        } catch (IOException e) {
+            System.err.println("No se ha podido escribir la traza: " + e.getMessage());
+            ultimo = null;
+        }
+        return ultimo;
+    }
+
+    /**
+     * @return Fichero del último movimiento terminado
+     */
+    public Path getUltimoFichero() {
+        return ultimo;
+    }
+
+    /**
+     * @return Nodos grabados en el movimiento en curso o el último
+     */
+    public int getGrabados() {
+        return grabados;
+    }
+
+    /**
+     * @return Nodos que no han cabido
+     */
+    public long getOmitidos() {
+        return omitidos;
+    }
+
+    private void asegura(int n) {
+        if (pos + n > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, pos + n));
+        }
+    }
+
+    private void escribeByte(int b) {
+        asegura(1);
+        buffer[pos++] = (byte) b;
+    }
+
+    private void escribeInt(int v) {
+        asegura(4);
+        buffer[pos++] = (byte) (v >>> 24);
+        buffer[pos++] = (byte) (v >>> 16);
+        buffer[pos++] = (byte) (v >>> 8);
+        buffer[pos++] = (byte) v;
+    }
+
+    /**
+     * Mismo texto que TaulerBits.codifica, para cualquier mida
+     */
+    private static String codifica(Tauler t) {
+        StringBuilder sb = new StringBuilder();
+        for (int col = 0; col < t.getMida(); col++) {
+            if (col > 0) {
+                sb.append('/');
+            }
+            for (int fila = 0; fila < t.getMida() && t.getColor(fila, col) != 0; fila++) {
+                sb.append(t.getColor(fila, col) == 1 ? 'X' : 'O');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Datos de la cabecera de una traza
+     */
+    public static class Cabecera {
+        public final int mida;
+        public final int color;
+        public final int profundidad;
+        public final String posicion;
+
+        Cabecera(int mida, int color, int profundidad, String posicion) {
+            this.mida = mida;
+            this.color = color;
+            this.profundidad = profundidad;
+            this.posicion = posicion;
+        }
+    }
+
+    /**
+     * Recibe los registros de una traza en el orden en que se grabaron
+     */
+    public interface Visitante {
+
+        void cabecera(Cabecera c);
+
+        void entra(int columna, int profundidad, int alpha, int beta);
+
+        void sale(int valor, int motivo);
+
+        /**
+         * @param columna  Columna elegida
+         * @param grabados Nodos grabados
+         * @param omitidos Nodos que no cupieron
+         */
+        default void fin(int columna, int grabados, long omitidos) {
+        }
+    }
+
+    /**
+     * Lee una traza sin cargarla en memoria
+     *
+     * @param fichero Fichero de la traza
+     * @param v       Visitante de los registros
+     * @throws IOException Si no se puede leer o no es una traza
+     */
+    public static void lee(Path fichero, Visitante v) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(fichero), 1 << 16))) {
+            if (in.readInt() != MAGIA || in.readByte() != VERSION) {
+                throw new IOException("No es una traza de búsqueda: " + fichero);
+            }
+            int mida = in.readByte();
+            int color = in.readByte();
+            int profundidad = in.readInt();
+            byte[] posicion = new byte[in.readInt()];
+            in.readFully(posicion);
+            v.cabecera(new Cabecera(mida, color, profundidad, new String(posicion, StandardCharsets.UTF_8)));
+            while (true) {
+                byte tipo;
+                try {
+                    tipo = in.readByte();
+                } catch (EOFException e) {
+                    throw new IOException("Traza incompleta: " + fichero);
+                }
+                if (tipo == ENTRA) {
+                    int columna = in.readByte();
+                    int prof = in.readByte();
+                    v.entra(columna, prof, in.readInt(), in.readInt());
+                } else if (tipo == SALE) {
+                    int motivo = in.readByte();
+                    v.sale(in.readInt(), motivo);
+                } else if (tipo == FIN) {
+                    int columna = in.readByte();
+                    int grabados = in.readInt();
+                    v.fin(columna, grabados, in.readLong());
+                    return;
+                } else {
+                    throw new IOException("Registro desconocido " + tipo + " en " + fichero);
+                }
+            }
+        }
+    }
+}
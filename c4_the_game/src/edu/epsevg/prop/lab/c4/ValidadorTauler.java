@@ -0,0 +1,224 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compara TaulerBits con el Tauler de la librería jugando partidas
+ * aleatorias en paralelo sobre los dos tableros.
+ *
+ * En cada jugada se comprueban todas las casillas, movpossible de todas las
+ * columnas, espotmoure y solucio de todas las columnas para los dos
+ * colores. Las partidas siguen después de una victoria hasta llenar el
+ * tablero, para cubrir también posiciones con varias líneas hechas.
+ * Al terminar se mide la velocidad de los dos tableros.
+ *
+ * Uso: ValidadorTauler [partidas] [semilla]
+ *
+ * @author Alex Aranda Salinas
+ */
+public class ValidadorTauler {
+
+    private static final int RONDAS = 5;
+
+    /**
+     * Juega partidas aleatorias en los dos tableros y cuenta diferencias.
+     * Se muestra la primera diferencia de cada hilo para poder reproducirla.
+     *
+     * @param partidas Número de partidas
+     * @param semilla  Semilla (cada hilo usa una derivada)
+     * @param hilos    Hilos de validación
+     * @return Número de partidas con alguna diferencia
+     * @throws InterruptedException Si se interrumpe la espera
+     */
+    public static long valida(long partidas, long semilla, int hilos) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(hilos);
+        List<Future<Long>> resultados = new ArrayList<>();
+        SplittableRandom raiz = new SplittableRandom(semilla);
+        for (int h = 0; h < hilos; h++) {
+            final SplittableRandom r = raiz.split();
+            final long n = partidas / hilos + (h < partidas % hilos ? 1 : 0);
+            resultados.add(pool.submit(() -> validaPartidas(n, r)));
+        }
+        pool.shutdown();
+        long diferencias = 0;
+        try {
+            for (Future<Long> f : resultados) {
+                diferencias += f.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return diferencias;
+    }
+
+    private static long validaPartidas(long partidas, SplittableRandom r) {
+        long diferencias = 0;
+        StringBuilder jugadas = new StringBuilder();
+        for (long p = 0; p < partidas; p++) {
+            int mida = 4 + r.nextInt(TaulerBits.MIDA_MAX - 3);
+            Tauler t = new Tauler(mida);
+            TaulerBits b = new TaulerBits(mida);
+            jugadas.setLength(0);
+            int color = 1;
+            while (true) {
+                String error = compara(t, b);
+                if (error != null) {
+                    if (diferencias == 0) {
+                        System.out.println("Diferencia (mida " + mida + ", jugadas " + jugadas + "): " + error);
+                    }
+                    diferencias++;
+                    break;
+                }
+                if (!t.espotmoure()) {
+                    break;
+                }
+                int col = r.nextInt(mida);
+                while (!t.movpossible(col)) {
+                    col = r.nextInt(mida);
+                }
+                t.afegeix(col, color);
+                b.afegeix(col, color);
+                jugadas.append(col);
+                color = -color;
+            }
+        }
+        return diferencias;
+    }
+
+    /**
+     * @return Descripción de la primera diferencia o null si coinciden
+     */
+    private static String compara(Tauler t, TaulerBits b) {
+        int mida = t.getMida();
+        if (t.espotmoure() != b.espotmoure()) {
+            return "espotmoure " + t.espotmoure() + " / " + b.espotmoure();
+        }
+        for (int col = 0; col < mida; col++) {
+            if (t.movpossible(col) != b.movpossible(col)) {
+                return "movpossible(" + col + ") " + t.movpossible(col) + " / " + b.movpossible(col);
+            }
+            for (int color = -1; color <= 1; color += 2) {
+                if (t.solucio(col, color) != b.solucio(col, color)) {
+                    return "solucio(" + col + ", " + color + ") " + t.solucio(col, color) + " / " + b.solucio(col, color);
+                }
+            }
+            for (int fila = 0; fila < mida; fila++) {
+                if (t.getColor(fila, col) != b.getColor(fila, col)) {
+                    return "getColor(" + fila + ", " + col + ") " + t.getColor(fila, col) + " / " + b.getColor(fila, col);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mide jugadas por segundo de los dos tableros. Cada jugada es un
+     * movpossible, un afegeix, un solucio y un espotmoure, como en una
+     * partida; Tauler se copia antes de cada jugada, como hace la búsqueda
+     * clásica, y TaulerBits la deshace con treu.
+     *
+     * @param partidas Partidas aleatorias medidas
+     */
+    public static void velocidad(int partidas) {
+        SplittableRandom r = new SplittableRandom(1);
+        int[][] secuencias = new int[partidas][];
+        for (int p = 0; p < partidas; p++) {
+            secuencias[p] = secuenciaHastaVictoria(r);
+        }
+
+        double porTauler = 0;
+        double porBits = 0;
+        long suma = 0;
+        for (int ronda = 0; ronda < RONDAS; ronda++) {
+            long ops = 0;
+            long inicio = System.nanoTime();
+            for (int[] s : secuencias) {
+                Tauler t = new Tauler(8);
+                int color = 1;
+                for (int col : s) {
+                    if (t.movpossible(col)) {
+                        Tauler hijo = new Tauler(t);
+                        hijo.afegeix(col, color);
+                        if (hijo.solucio(col, color) || !hijo.espotmoure()) {
+                            suma++;
+                        }
+                        t = hijo;
+                    }
+                    color = -color;
+                }
+                ops += s.length;
+            }
+            porTauler = ops / ((System.nanoTime() - inicio) / 1e9);
+
+            ops = 0;
+            inicio = System.nanoTime();
+            TaulerBits b = new TaulerBits(8);
+            for (int[] s : secuencias) {
+                int color = 1;
+                for (int col : s) {
+                    if (b.movpossible(col)) {
+                        b.afegeix(col, color);
+                        if (b.solucio(col, color) || !b.espotmoure()) {
+                            suma++;
+                        }
+                    }
+                    color = -color;
+                }
+                for (int i = s.length - 1; i >= 0; i--) {
+                    b.treu(s[i]);
+                }
+                ops += s.length;
+            }
+            porBits = ops / ((System.nanoTime() - inicio) / 1e9);
+        }
+        System.out.printf("Tauler (copia + afegeix): %,.0f jugadas/s%n", porTauler);
+        System.out.printf("TaulerBits (afegeix + treu): %,.0f jugadas/s (x%.1f)%n", porBits, porBits / porTauler);
+        Rendimiento.sumidero = suma;
+    }
+
+    /**
+     * Jugadas legales al azar en un tablero de 8 hasta la primera victoria
+     */
+    private static int[] secuenciaHastaVictoria(SplittableRandom r) {
+        TaulerBits b = new TaulerBits(8);
+        int[] s = new int[64];
+        int n = 0;
+        int color = 1;
+        while (b.espotmoure()) {
+            int col = r.nextInt(8);
+            if (!b.movpossible(col)) {
+                continue;
+            }
+            b.afegeix(col, color);
+            s[n++] = col;
+            if (b.solucio(col, color)) {
+                break;
+            }
+            color = -color;
+        }
+        return Arrays.copyOf(s, n);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long partidas = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        long semilla = args.length > 1 ? Long.parseLong(args[1]) : 1;
+        int hilos = Runtime.getRuntime().availableProcessors();
+
+        long inicio = System.nanoTime();
+        long diferencias = valida(partidas, semilla, hilos);
+        System.out.printf("%,d partidas comparadas en %.1f s con %d hilos: %d diferencias%n",
+                partidas, (System.nanoTime() - inicio) / 1e9, hilos, diferencias);
+
+        velocidad(20000);
+        if (diferencias > 0) {
+            System.exit(1);
+        }
+    }
+}
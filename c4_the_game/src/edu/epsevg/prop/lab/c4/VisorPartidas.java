@@ -0,0 +1,292 @@
+package edu.epsevg.prop.lab.c4;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FlowLayout;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+/**
+ * Visor de partidas guardadas con RegistroPartidas.
+ *
+ * El fichero no se carga en memoria: al abrirlo se indexa en segundo plano
+ * la posición de cada partida y solo se lee la partida que se está viendo.
+ * Al cargar una partida se precalculan las máscaras de bits del tablero en
+ * cada jugada, de modo que moverse por la línea de tiempo es inmediato.
+ * Si la partida tiene estadísticas del motor se muestran junto al tablero.
+ *
+ * Uso: VisorPartidas partidas.txt
+ *
+ * @author Alex Aranda Salinas
+ */
+public class VisorPartidas extends JFrame {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Índice de inicio de cada partida dentro del fichero
+     */
+    static class Indice {
+        private final Path fichero;
+        private long[] inicios = new long[1024];
+        private int n;
+
+        Indice(Path fichero) {
+            this.fichero = fichero;
+        }
+
+        /**
+         * Recorre el fichero anotando dónde empieza cada línea de partida
+         *
+         * @param avance Se llama cada cierto número de partidas indexadas
+         * @throws IOException Si no se puede leer
+         */
+        void construye(Runnable avance) throws IOException {
+            byte[] buffer = new byte[1 << 16];
+            long pos = 0;
+            boolean inicioLinea = true;
+            try (InputStream in = Files.newInputStream(fichero)) {
+                int leidos;
+                while ((leidos = in.read(buffer)) > 0) {
+                    for (int i = 0; i < leidos; i++) {
+                        byte b = buffer[i];
+                        if (inicioLinea && b != '#' && b != '\n' && b != '\r') {
+                            anade(pos + i);
+                            if (n % 10000 == 0) {
+                                avance.run();
+                            }
+                        }
+                        inicioLinea = b == '\n';
+                    }
+                    pos += leidos;
+                }
+            }
+            avance.run();
+        }
+
+        private synchronized void anade(long inicio) {
+            if (n == inicios.length) {
+                inicios = Arrays.copyOf(inicios, n * 2);
+            }
+            inicios[n++] = inicio;
+        }
+
+        /**
+         * @return Partidas indexadas hasta ahora
+         */
+        synchronized int size() {
+            return n;
+        }
+
+        /**
+         * Lee una partida del fichero
+         *
+         * @param i Número de partida (desde 0)
+         * @return Partida leída
+         * @throws IOException Si no se puede leer
+         */
+        RegistroPartidas.Partida lee(int i) throws IOException {
+            long inicio;
+            synchronized (this) {
+                inicio = inicios[i];
+            }
+            ByteArrayOutputStream linea = new ByteArrayOutputStream();
+            try (RandomAccessFile raf = new RandomAccessFile(fichero.toFile(), "r")) {
+                raf.seek(inicio);
+                byte[] buffer = new byte[4096];
+                int leidos;
+                fuera:
+                while ((leidos = raf.read(buffer)) > 0) {
+                    for (int k = 0; k < leidos; k++) {
+                        if (buffer[k] == '\n' || buffer[k] == '\r') {
+                            linea.write(buffer, 0, k);
+                            break fuera;
+                        }
+                    }
+                    linea.write(buffer, 0, leidos);
+                }
+            }
+            return RegistroPartidas.parsea(new String(linea.toByteArray(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private final Indice indice;
+    private RegistroPartidas.Partida partida;
+    // Fichas de cada color tras cada jugada: [ply]
+    private long[] rojas = new long[1];
+    private long[] azules = new long[1];
+    private int ply;
+
+    private final JSpinner selector = new JSpinner(new SpinnerNumberModel(1, 1, 1, 1));
+    private final JLabel total = new JLabel("de 0");
+    private final JSlider linea = new JSlider(0, 0, 0);
+    private final JLabel info = new JLabel(" ");
+    private final JPanel tablero = new JPanel() {
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            pinta((Graphics2D) g);
+        }
+    };
+
+    /**
+     * @param fichero Fichero de partidas
+     */
+    public VisorPartidas(Path fichero) {
+        super("Partidas: " + fichero.getFileName());
+        indice = new Indice(fichero);
+
+        tablero.setPreferredSize(new Dimension(400, 400));
+        tablero.setBackground(Color.WHITE);
+
+        JPanel arriba = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        arriba.add(new JLabel("Partida"));
+        arriba.add(selector);
+        arriba.add(total);
+
+        JPanel abajo = new JPanel(new BorderLayout());
+        abajo.add(linea, BorderLayout.NORTH);
+        abajo.add(info, BorderLayout.SOUTH);
+
+        getContentPane().add(arriba, BorderLayout.NORTH);
+        getContentPane().add(tablero, BorderLayout.CENTER);
+        getContentPane().add(abajo, BorderLayout.SOUTH);
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        pack();
+
+        selector.addChangeListener(e -> carga((Integer) selector.getValue() - 1));
+        linea.addChangeListener(e -> {
+            ply = linea.getValue();
+            actualizaInfo();
+            tablero.repaint();
+        });
+
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                indice.construye(() -> SwingUtilities.invokeLater(VisorPartidas.this::actualizaTotal));
+                return null;
+            }
+        }.execute();
+    }
+
+    private void actualizaTotal() {
+        int n = indice.size();
+        total.setText("de " + n);
+        ((SpinnerNumberModel) selector.getModel()).setMaximum(Math.max(1, n));
+        if (partida == null && n > 0) {
+            carga(0);
+        }
+    }
+
+    /**
+     * Lee una partida y precalcula el tablero de cada jugada
+     */
+    private void carga(int i) {
+        if (i >= indice.size()) {
+            return;
+        }
+        try {
+            partida = indice.lee(i);
+        } catch (IOException e) {
+            info.setText("No se ha podido leer la partida: " + e.getMessage());
+            return;
+        }
+        List<RegistroPartidas.Jugada> jugadas = partida.jugadas;
+        rojas = new long[jugadas.size() + 1];
+        azules = new long[jugadas.size() + 1];
+        TaulerBits t = new TaulerBits(partida.mida);
+        int color = 1;
+        for (int k = 0; k < jugadas.size(); k++) {
+            t.afegeix(jugadas.get(k).columna, color);
+            rojas[k + 1] = t.fichas(1);
+            azules[k + 1] = t.fichas(-1);
+            color = -color;
+        }
+        linea.setMaximum(jugadas.size());
+        linea.setValue(jugadas.size());
+        ply = jugadas.size();
+        actualizaInfo();
+        tablero.repaint();
+    }
+
+    private void actualizaInfo() {
+        if (partida == null) {
+            return;
+        }
+        String resultado = partida.resultado == RegistroPartidas.PENDIENTE ? "sin terminar"
+                : partida.resultado == 0 ? "tablas" : "gana " + (partida.resultado == 1 ? partida.jugador1 : partida.jugador2);
+        StringBuilder sb = new StringBuilder();
+        sb.append(partida.jugador1).append(" vs ").append(partida.jugador2).append(" (").append(resultado).append(")");
+        sb.append(" - jugada ").append(ply).append('/').append(partida.jugadas.size());
+        if (ply > 0) {
+            RegistroPartidas.Jugada j = partida.jugadas.get(ply - 1);
+            sb.append(": columna ").append(j.columna);
+            if (j.anotada) {
+                sb.append(", valor ").append(j.valor).append(", profundidad ").append(j.profundidad)
+                        .append(", ").append(j.nodos).append(" nodos, ").append(j.tiempoMs).append(" ms");
+            }
+        }
+        info.setText(sb.toString());
+    }
+
+    private void pinta(Graphics2D g) {
+        if (partida == null) {
+            return;
+        }
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int mida = partida.mida;
+        int paso = Math.min(tablero.getWidth(), tablero.getHeight()) / mida;
+        int size = (int) (paso * 0.8);
+        int m = (paso - size) / 2;
+        long ultima = ply > 0 ? (rojas[ply] | azules[ply]) & ~(rojas[ply - 1] | azules[ply - 1]) : 0;
+        for (int col = 0; col < mida; col++) {
+            for (int fila = 0; fila < mida; fila++) {
+                long b = 1L << TaulerBits.bit(fila, col);
+                int x = col * paso + m;
+                int y = (mida - 1 - fila) * paso + m;
+                if ((rojas[ply] & b) != 0) {
+                    g.setColor(Color.RED);
+                } else if ((azules[ply] & b) != 0) {
+                    g.setColor(Color.BLUE);
+                } else {
+                    g.setColor(Color.LIGHT_GRAY);
+                    g.drawOval(x, y, size, size);
+                    continue;
+                }
+                g.fillOval(x, y, size, size);
+                g.setColor((ultima & b) != 0 ? Color.YELLOW : Color.BLACK);
+                g.drawOval(x, y, size, size);
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Uso: VisorPartidas <fichero de partidas>");
+            System.exit(2);
+        }
+        final Path fichero = Paths.get(args[0]);
+        java.awt.EventQueue.invokeLater(() -> new VisorPartidas(fichero).setVisible(true));
+    }
+}